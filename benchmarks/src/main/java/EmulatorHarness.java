@@ -0,0 +1,178 @@
+import benchmarks.Harness;
+
+import javax.swing.JTable;
+import javax.swing.table.TableColumn;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Class representing the emulator side of {@link Harness}. It repeats the calls the GUI makes for each
+ * measured action, leaving out only the Swing windows, which cannot be created without a display.
+ */
+public class EmulatorHarness implements Harness {
+
+    private static final int ROM_START = 0xFC00;
+    private static final int VIEW_WIDTH = 360; // The GUI's memory view viewport
+    private static final int VIEW_HEIGHT = 180;
+
+    private Memory memory = new Memory();
+    private Cpu6809 cpu = new Cpu6809(memory);
+    private final CpuRunner runner;
+    private final Journal journal;
+    private final Semaphore runEnded = new Semaphore(0);
+    private final Assembler6809 assembler = new Assembler6809(ROM_START);
+    private int instructionPointer;
+    private MemoryTableModel memoryModel;
+    private JTable table;
+    private Graphics2D graphics;
+    private CpuSnapshot shownSnapshot;
+    private int written;
+
+    public EmulatorHarness() {
+        cpu.setPc(ROM_START);
+        cpu.setS(ROM_START);
+        runner = new CpuRunner(cpu, memory, snapshot -> {
+            if (!snapshot.isRunning()) {
+                runEnded.release();
+            }
+        });
+        journal = new Journal(cpu, memory);
+    }
+
+    @Override
+    public void load(String source, boolean translate) {
+        Assembly assembly = new Assembler6809(ROM_START).assemble(source);
+        if (assembly.hasErrors()) {
+            throw new IllegalArgumentException(String.join("; ", assembly.getErrors()));
+        }
+        memory = new Memory();
+        cpu = new Cpu6809(memory);
+        assembly.loadInto(memory);
+        cpu.setPc(assembly.getStartAddress());
+        cpu.setS(ROM_START);
+        if (translate) {
+            cpu.setTranslator(new BlockTranslator(cpu, memory));
+        }
+    }
+
+    @Override
+    public long runCycles(long budget) {
+        return cpu.runCycles(budget);
+    }
+
+    @Override
+    public int assemble(String source) {
+        return new Assembler6809(ROM_START).assemble(source).size();
+    }
+
+    @Override
+    public int reassemble(String source) {
+        return assembler.reassemble(source).size();
+    }
+
+    @Override
+    public void openMemoryView() {
+        memoryModel = new MemoryTableModel(memory, 0, memory.size());
+        table = new JTable(memoryModel);
+        table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            TableColumn column = table.getColumnModel().getColumn(i);
+            column.setPreferredWidth(i == 0 ? 44 : 24);
+        }
+        table.setSize(table.getPreferredSize());
+        graphics = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB).createGraphics();
+        graphics.setClip(0, 0, VIEW_WIDTH, VIEW_HEIGHT); // Only the rows in the viewport are painted
+        shownSnapshot = runner.snapshot();
+    }
+
+    @Override
+    public int refreshMemoryView(int pages) {
+        for (int page = 0; page < pages; page++) {
+            memory.write8(page * Memory.PAGE_SIZE + (written & 0xFF), written);
+        }
+        written++;
+        CpuSnapshot snapshot = runner.snapshot();
+        boolean consecutive = snapshot.getSequence() == shownSnapshot.getSequence() + 1;
+        shownSnapshot = snapshot;
+        int rows = 0;
+        memoryModel.setMemory(snapshot.getMemory());
+        for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+            if (!consecutive || snapshot.isPageDirty(page)) {
+                memoryModel.bytesChanged(page * Memory.PAGE_SIZE, page * Memory.PAGE_SIZE + Memory.PAGE_SIZE - 1);
+                rows += Memory.PAGE_SIZE / MemoryTableModel.BYTES_PER_ROW;
+            }
+        }
+        table.paint(graphics);
+        return rows;
+    }
+
+    @Override
+    public String executeInstruction(String op, String a, String b) {
+        cpu.setA(parseHexByte(a));
+        cpu.setB(parseHexByte(b));
+        switch (op) {
+            case "LDA":
+                cpu.setA(cpu.move8(cpu.getA()));
+                break;
+            case "LDB":
+                cpu.setB(cpu.move8(cpu.getB()));
+                break;
+            case "ADD":
+                cpu.setA(cpu.add8(cpu.getA(), cpu.getB(), 0));
+                break;
+            case "SUB":
+                cpu.setA(cpu.sub8(cpu.getA(), cpu.getB(), 0));
+                break;
+            case "MUL":
+                cpu.mul();
+                break;
+            case "PSH":
+                cpu.pushS(cpu.getA());
+                break;
+            case "PUL":
+                cpu.setA(cpu.pullS());
+                break;
+            default:
+                break;
+        }
+        cpu.setPc(cpu.getPc() + 2);
+        if (instructionPointer >= memory.size() - 1) {
+            instructionPointer = 0;
+        }
+        memory.write8(instructionPointer++, cpu.getA());
+        memory.write8(instructionPointer++, cpu.getB());
+        journal.clear();
+
+        CpuSnapshot snapshot = runner.snapshot();
+        String registers = String.format("%02X", snapshot.getA()) + String.format("%02X", snapshot.getB())
+                + String.format("%04X", snapshot.getX()) + String.format("%04X", snapshot.getY())
+                + String.format("%04X", snapshot.getS()) + Integer.toBinaryString(snapshot.getCc());
+        return registers + "Executed instruction: " + op + ", PC now at: " + Integer.toHexString(cpu.getPc());
+    }
+
+    @Override
+    public long runAssemblyCode(String source) throws InterruptedException {
+        Assembly assembly = assembler.reassemble(source);
+        if (assembly.hasErrors()) {
+            throw new IllegalArgumentException(String.join("; ", assembly.getErrors()));
+        }
+        assembly.loadInto(memory);
+        journal.clear();
+        cpu.setPc(assembly.getStartAddress());
+        long start = cpu.getInstructionCount();
+        runner.start(assembly::contains);
+        runEnded.acquire();
+        return cpu.getInstructionCount() - start;
+    }
+
+    private static int parseHexByte(String text) {
+        String value = text.trim().replaceAll("(?i)^0x", "").replace("$", "");
+        if (value.isEmpty()) {
+            return 0;
+        }
+        return Integer.parseInt(value, 16) & 0xFF;
+    }
+}
@@ -0,0 +1,57 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class representing the assembler benchmarks on a large source. One operation is one source line,
+ * so scores are lines per millisecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark {
+
+    private static final int LINES = 10_000;
+
+    private Harness harness;
+    private String source;
+    private String[] edited; // The source with one line changed, alternately, as when typing in the editor
+    private int edit;
+
+    @Setup
+    public void setUp() {
+        harness = Harness.create();
+        source = Workloads.largeSource(LINES);
+        edited = new String[] {source.replace("L5000      LDA #$12", "L5000      LDA #$34"), source};
+        harness.reassemble(source);
+    }
+
+    /* Every line assembled from scratch */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int assemble() {
+        return harness.assemble(source);
+    }
+
+    /* The editor's incremental path, after a one-line edit */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public int reassembleOneLine() {
+        return harness.reassemble(edited[edit++ & 1]);
+    }
+}
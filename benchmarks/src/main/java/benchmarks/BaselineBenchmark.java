@@ -0,0 +1,44 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class representing the GUI's own paths, as a baseline for the benchmarks above: the "Execute" button
+ * and "Run Asm Code", which assembles and runs a program on the runner thread with the journal attached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class BaselineBenchmark {
+
+    private Harness harness;
+
+    @Setup
+    public void setUp() {
+        harness = Harness.create();
+    }
+
+    @Benchmark
+    public String executeInstruction() {
+        return harness.executeInstruction("MUL", "12", "34");
+    }
+
+    @Benchmark
+    public long runAssemblyCode() throws InterruptedException {
+        return harness.runAssemblyCode(Workloads.COPY_ONCE);
+    }
+}
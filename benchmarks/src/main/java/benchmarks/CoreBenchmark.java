@@ -0,0 +1,51 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class representing the instruction throughput benchmarks. One operation is one emulated 6809 cycle,
+ * so the score in ops/us is the emulated clock rate in MHz.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoreBenchmark {
+
+    private static final int CYCLES = 1 << 20;
+
+    @Param({"loop", "copy", "multiply"})
+    public String workload;
+
+    @Param({"interpreter", "translated"})
+    public String tier;
+
+    private Harness harness;
+
+    @Setup
+    public void setUp() {
+        harness = Harness.create();
+        harness.load(Workloads.core(workload), tier.equals("translated"));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CYCLES)
+    public long run() {
+        return harness.runCycles(CYCLES);
+    }
+}
@@ -0,0 +1,63 @@
+package benchmarks;
+
+/**
+ * Interface representing the emulator operations the benchmarks measure.
+ * JMH only accepts benchmarks in a named package, and a named package cannot refer to the emulator classes
+ * in the default package, so the default-package EmulatorHarness implements this and is loaded by name.
+ */
+public interface Harness {
+
+    /**
+     * Creates a harness with the GUI's setup: memory, a CPU with PC and S at FC00, a runner and a journal.
+     */
+    static Harness create() {
+        try {
+            return (Harness) Class.forName("EmulatorHarness").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalStateException("EmulatorHarness is missing from the benchmark jar", ex);
+        }
+    }
+
+    /**
+     * Assembles a program into fresh memory on a fresh CPU without a journal and points PC at it,
+     * with the translating tier attached if asked.
+     */
+    void load(String source, boolean translate);
+
+    /**
+     * Runs the loaded program for at least the given number of cycles and returns the cycles run.
+     */
+    long runCycles(long budget);
+
+    /**
+     * Assembles a source from scratch and returns the number of bytes produced.
+     */
+    int assemble(String source);
+
+    /**
+     * Assembles a source with the incremental assembler the editor keeps and returns the number of bytes produced.
+     */
+    int reassemble(String source);
+
+    /**
+     * Builds a table over the whole address space as the GUI's memory view does.
+     */
+    void openMemoryView();
+
+    /**
+     * Writes one byte in each of the first {@code pages} pages, then takes a snapshot and repaints the view
+     * as the GUI does on each refresh. Returns the number of rows reported changed.
+     */
+    int refreshMemoryView(int pages);
+
+    /**
+     * The GUI's "Execute" button for one of its instructions, with the accumulators given as typed text.
+     */
+    String executeInstruction(String op, String a, String b);
+
+    /**
+     * The GUI's "Run Asm Code" button: reassembles, loads and runs on the runner thread until PC leaves the
+     * program. Returns the number of instructions run.
+     */
+    long runAssemblyCode(String source) throws InterruptedException;
+}
@@ -0,0 +1,44 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class representing the cost of one memory view refresh: snapshot, dirty row notification and painting
+ * the visible rows, for a given number of pages written since the previous refresh.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class MemoryViewBenchmark {
+
+    @Param({"1", "16", "256"})
+    public int dirtyPages;
+
+    private Harness harness;
+
+    @Setup
+    public void setUp() {
+        harness = Harness.create();
+        harness.openMemoryView();
+    }
+
+    @Benchmark
+    public int refresh() {
+        return harness.refreshMemoryView(dirtyPages);
+    }
+}
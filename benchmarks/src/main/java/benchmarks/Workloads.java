@@ -0,0 +1,88 @@
+package benchmarks;
+
+/**
+ * Class representing the 6809 programs the benchmarks run. The core workloads loop forever,
+ * so any cycle budget can be run from them.
+ */
+public final class Workloads {
+
+    /* Countdown in a register: two instructions per iteration */
+    public static final String LOOP = String.join("\n",
+            "        ORG $1000",
+            "START   LDX #$FFFF",
+            "LOOP    LEAX -1,X",
+            "        BNE LOOP",
+            "        BRA START");
+
+    /* Copies 4 KB a word at a time with auto-increment indexing */
+    public static final String COPY = String.join("\n",
+            "        ORG $1000",
+            "START   LDX #$2000",
+            "        LDY #$4000",
+            "COPY    LDD ,X++",
+            "        STD ,Y++",
+            "        CMPX #$3000",
+            "        BNE COPY",
+            "        BRA START");
+
+    /* Scales a 256-byte table and sums the products on the user stack pointer */
+    public static final String MULTIPLY = String.join("\n",
+            "        ORG $1000",
+            "START   LDX #$2000",
+            "        LDU #0",
+            "MULT    LDA ,X+",
+            "        LDB #$3D",
+            "        MUL",
+            "        LEAU D,U",
+            "        CMPX #$2100",
+            "        BNE MULT",
+            "        STU $3000",
+            "        BRA START");
+
+    /* The copy once over, ending by running off the end of the program */
+    public static final String COPY_ONCE = String.join("\n",
+            "        ORG $1000",
+            "        LDX #$2000",
+            "        LDY #$4000",
+            "COPY    LDD ,X++",
+            "        STD ,Y++",
+            "        CMPX #$3000",
+            "        BNE COPY");
+
+    private Workloads() {
+    }
+
+    /**
+     * Returns the core workload with the given name: "loop", "copy" or "multiply".
+     */
+    public static String core(String name) {
+        switch (name) {
+            case "loop": return LOOP;
+            case "copy": return COPY;
+            case "multiply": return MULTIPLY;
+            default: throw new IllegalArgumentException("Unknown workload " + name);
+        }
+    }
+
+    /**
+     * Returns a source of the given number of lines, built from a ten-line block of mixed
+     * addressing modes, labels and data directives.
+     */
+    public static String largeSource(int lines) {
+        StringBuilder source = new StringBuilder("        ORG $0400\n");
+        for (int block = 0; block * 10 + 1 < lines; block++) {
+            String label = "L" + block;
+            source.append(label).append("      LDA #$12\n");
+            source.append("        STA $2000\n");
+            source.append("        LDX #").append(label).append('\n');
+            source.append("        LEAX 4,X\n");
+            source.append("        ADDD ,X++\n");
+            source.append("        CMPX #$4000\n");
+            source.append("        BNE ").append(label).append('\n');
+            source.append("        FCB 1,2,3\n");
+            source.append("        FDB ").append(label).append('\n');
+            source.append("        RTS\n");
+        }
+        return source.toString();
+    }
+}
@@ -0,0 +1,174 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Class representing a Motorola 6850 ACIA serial port, bridged to a pair of byte streams.
+ *
+ * Register 0 reads the status and writes the control register; register 1 reads the received byte and
+ * writes the byte to transmit. Transmitted bytes go straight to the output stream, so the transmit register
+ * is always empty. Received bytes are read from the input stream on a daemon thread and queued, so the CPU
+ * never blocks; the next one is latched into the receive register when the status or data register is read.
+ * If the output stream fails, the carrier is reported lost through the DCD status bit.
+ */
+public class Acia6850 implements Device {
+
+    /* Status register bits */
+    public static final int STATUS_RDRF = 0x01; // Receive data register full
+    public static final int STATUS_TDRE = 0x02; // Transmit data register empty
+    public static final int STATUS_DCD = 0x04; // Data carrier lost
+    public static final int STATUS_CTS = 0x08; // Clear to send not asserted
+    public static final int STATUS_FE = 0x10; // Framing error
+    public static final int STATUS_OVRN = 0x20; // Receiver overrun
+    public static final int STATUS_PE = 0x40; // Parity error
+    public static final int STATUS_IRQ = 0x80; // Interrupt request
+
+    public static final int CONTROL_MASTER_RESET = 0x03;
+    public static final int CONTROL_RECEIVE_IRQ = 0x80;
+    public static final int CONTROL_TRANSMIT_MASK = 0x60;
+    public static final int CONTROL_TRANSMIT_IRQ = 0x20;
+
+    public static final int REGISTER_COUNT = 2;
+
+    private static final int QUEUE_SIZE = 4096;
+
+    private final BlockingQueue<Integer> received = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final OutputStream out;
+    private int control;
+    private int receiveData;
+    private boolean receiveFull;
+    private boolean carrierLost;
+    private volatile Runnable interruptListener;
+
+    /**
+     * Creates an ACIA that transmits to {@code out} and, unless {@code in} is null, receives from {@code in}.
+     */
+    public Acia6850(InputStream in, OutputStream out) {
+        this.out = out;
+        if (in != null) {
+            Thread reader = new Thread(() -> pump(in), "ACIA receiver");
+            reader.setDaemon(true);
+            reader.start();
+        }
+    }
+
+    /**
+     * Queues a byte as if it had arrived on the serial line. Safe to call from any thread;
+     * bytes arriving while the queue is full are dropped, as an overrun would lose them.
+     */
+    public void receive(int value) {
+        received.offer(value & 0xFF);
+        interruptChanged();
+    }
+
+    /**
+     * Sets the callback run, on any thread, whenever the interrupt request may have changed.
+     */
+    public void setInterruptListener(Runnable listener) {
+        interruptListener = listener;
+    }
+
+    @Override
+    public int read(int register) {
+        latch();
+        if ((register & 1) == 0) {
+            return status();
+        }
+        receiveFull = false;
+        interruptChanged();
+        return receiveData;
+    }
+
+    @Override
+    public void write(int register, int value) {
+        if ((register & 1) == 0) {
+            control = value & 0xFF;
+            if ((control & CONTROL_MASTER_RESET) == CONTROL_MASTER_RESET) {
+                receiveFull = false;
+            }
+            interruptChanged();
+            return;
+        }
+        if (carrierLost) {
+            return;
+        }
+        try {
+            out.write(value & 0xFF);
+            out.flush();
+        } catch (IOException ex) {
+            carrierLost = true;
+        }
+    }
+
+    @Override
+    public int peek(int register) {
+        if ((register & 1) == 0) {
+            return status();
+        }
+        return receiveData;
+    }
+
+    /**
+     * Returns true if the ACIA is requesting an interrupt: a byte was received with receive interrupts enabled,
+     * or transmit interrupts are enabled, as the transmit register is always empty.
+     */
+    public boolean isInterruptRequested() {
+        latch();
+        return interruptRequested();
+    }
+
+    public int getControl() {
+        return control;
+    }
+
+    private int status() {
+        int status = STATUS_TDRE;
+        if (receiveFull) {
+            status |= STATUS_RDRF;
+        }
+        if (carrierLost) {
+            status |= STATUS_DCD;
+        }
+        if (interruptRequested()) {
+            status |= STATUS_IRQ;
+        }
+        return status;
+    }
+
+    private boolean interruptRequested() {
+        return (control & CONTROL_RECEIVE_IRQ) != 0 && receiveFull
+                || (control & CONTROL_TRANSMIT_MASK) == CONTROL_TRANSMIT_IRQ;
+    }
+
+    /* Moves the next queued byte into the receive register once the previous one has been read */
+    private void latch() {
+        if (!receiveFull) {
+            Integer value = received.poll();
+            if (value != null) {
+                receiveData = value;
+                receiveFull = true;
+            }
+        }
+    }
+
+    private void interruptChanged() {
+        Runnable listener = interruptListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private void pump(InputStream in) {
+        try {
+            int value;
+            while ((value = in.read()) >= 0) {
+                received.put(value);
+                interruptChanged();
+            }
+        } catch (IOException | InterruptedException ex) {
+            // The input has gone away; whatever was queued is still delivered
+        }
+    }
+}
@@ -0,0 +1,1258 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Class representing a two-pass assembler for Motorola 6809 source code.
+ * Pass 1 assigns addresses and fixes the size of every statement; pass 2 evaluates operands and emits bytes.
+ * Assembling has no side effects on CPU state: the result is an {@link Assembly} that can be loaded and run later.
+ *
+ * Source lines have the form {@code [label[:]] [mnemonic [operand]] [; comment]}; a line starting with
+ * '*' or ';' is a comment. Supported directives are ORG, EQU, SETDP, FCB, FDB, FCC, RMB and END.
+ *
+ * The assembler keeps the per-line results of the last run. reassemble() re-encodes only the lines that
+ * changed since then, plus lines whose symbols or position moved, and relocates downstream code only when
+ * a size changes. Edits to layout directives (ORG, EQU, SETDP, RMB, END) fall back to a full assembly.
+ */
+public class Assembler6809 {
+
+    /* Operand forms decided in pass 1 and reused in pass 2 so both passes agree on sizes */
+    private static final int FORM_NONE = 0;
+    private static final int FORM_OFFSET5 = 1;
+    private static final int FORM_OFFSET8 = 2;
+    private static final int FORM_OFFSET16 = 3;
+    private static final int FORM_PCR8 = 4;
+    private static final int FORM_PCR16 = 5;
+
+    /* Mnemonic to table entries, indexed by addressing mode */
+    private static final Map<String, Opcode[]> INSTRUCTIONS = new HashMap<>();
+
+    static {
+        for (Opcode[] page : new Opcode[][]{OpcodeTable.PAGE0, OpcodeTable.PAGE2, OpcodeTable.PAGE3}) {
+            for (Opcode opcode : page) {
+                if (opcode.isDefined()) {
+                    INSTRUCTIONS.computeIfAbsent(opcode.mnemonic, k -> new Opcode[Opcode.MODE_COUNT])[opcode.mode] = opcode;
+                }
+            }
+        }
+        INSTRUCTIONS.put("LSL", INSTRUCTIONS.get("ASL"));
+        INSTRUCTIONS.put("LSLA", INSTRUCTIONS.get("ASLA"));
+        INSTRUCTIONS.put("LSLB", INSTRUCTIONS.get("ASLB"));
+        INSTRUCTIONS.put("BHS", INSTRUCTIONS.get("BCC"));
+        INSTRUCTIONS.put("BLO", INSTRUCTIONS.get("BCS"));
+        INSTRUCTIONS.put("LBHS", INSTRUCTIONS.get("LBCC"));
+        INSTRUCTIONS.put("LBLO", INSTRUCTIONS.get("LBCS"));
+    }
+
+    /**
+     * Class representing an error in one source statement.
+     */
+    private static class AssemblyError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        AssemblyError(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Class representing one parsed source line together with the decisions taken for it in pass 1.
+     */
+    static final class Statement {
+        final String source;
+        final String label;
+        final String mnemonic;
+        final String operand;
+
+        int address = -1;
+        int size;
+        int value;          // ORG/RMB/SETDP/END value fixed in pass 1
+        int directPage;     // SETDP assumption in effect for this line
+        int line;
+        boolean lateEquate; // EQU whose value is only known after pass 1
+        Opcode opcode;      // Instruction form chosen in pass 1
+        int form;           // Indexed/PCR offset form chosen in pass 1
+        boolean decided;
+        String error;
+        boolean sizeError;  // Error found in pass 1; the line has no size of its own
+
+        /* Results kept between runs for incremental re-assembly */
+        byte[] code;
+        int codeAddress = -1;
+        List<String> references = Collections.emptyList();
+        boolean positionDependent;
+
+        boolean affectsLayout() {
+            if (mnemonic == null) {
+                return false;
+            }
+            switch (mnemonic) {
+                case "ORG":
+                case "EQU":
+                case "SETDP":
+                case "RMB":
+                case "DS":
+                case "END":
+                    return true;
+                default:
+                    return false;
+            }
+        }
+
+        /* EQU, SETDP and END lines occupy no memory */
+        boolean hasAddress() {
+            return !"EQU".equals(mnemonic) && !"SETDP".equals(mnemonic) && !"END".equals(mnemonic);
+        }
+
+        Statement(String source, String label, String mnemonic, String operand) {
+            this.source = source;
+            this.label = label;
+            this.mnemonic = mnemonic;
+            this.operand = operand;
+        }
+    }
+
+    private final int defaultOrigin;
+
+    /* Results of the last run, reused by reassemble() */
+    private List<Statement> statements;
+    private Map<String, Integer> symbols = new LinkedHashMap<>();
+    private Map<String, Statement> definitions = new HashMap<>();
+    private Set<String> duplicates = new HashSet<>();
+    private boolean overlapping;
+    private byte[] image = new byte[Memory.SIZE];
+    private BitSet written = new BitSet(Memory.SIZE);
+
+    /* State of the statement being assembled */
+    private int pass;
+    private int location;
+    private int directPage;
+    private Statement current;
+    private List<String> references;
+    private byte[] buffer = new byte[64];
+    private int emitted;
+
+    /* Expression parser state */
+    private String expression;
+    private int position;
+    private boolean undefined;
+
+    /**
+     * Creates an assembler that places code at address 0 until the first ORG.
+     */
+    public Assembler6809() {
+        this(0);
+    }
+
+    /**
+     * Creates an assembler that places code at defaultOrigin until the first ORG.
+     */
+    public Assembler6809(int defaultOrigin) {
+        this.defaultOrigin = defaultOrigin & 0xFFFF;
+    }
+
+    /**
+     * Assembles the given source text from scratch.
+     */
+    public Assembly assemble(String source) {
+        return assembleAll(parse(source));
+    }
+
+    /**
+     * Assembles the given source text, re-encoding only what changed since the previous call.
+     * The result is the same as assemble() would produce for the same text.
+     */
+    public Assembly reassemble(String source) {
+        if (statements == null || overlapping) {
+            return assemble(source);
+        }
+        List<String> lines = splitLines(source);
+        int oldCount = statements.size();
+        int newCount = lines.size();
+        int prefix = 0;
+        while (prefix < oldCount && prefix < newCount && statements.get(prefix).source.equals(lines.get(prefix))) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < oldCount - prefix && suffix < newCount - prefix
+                && statements.get(oldCount - 1 - suffix).source.equals(lines.get(newCount - 1 - suffix))) {
+            suffix++;
+        }
+        if (prefix == oldCount && prefix == newCount) {
+            return buildAssembly();
+        }
+
+        List<Statement> removed = new ArrayList<>(statements.subList(prefix, oldCount - suffix));
+        List<Statement> added = new ArrayList<>();
+        for (String line : lines.subList(prefix, newCount - suffix)) {
+            added.add(parseLine(line));
+        }
+        statements.subList(prefix, oldCount - suffix).clear();
+        statements.addAll(prefix, added);
+
+        // Layout directives and duplicate labels are rare edits; a full run keeps them simple and exact
+        for (Statement statement : removed) {
+            if (statement.affectsLayout() || duplicates.contains(statement.label)) {
+                return assembleAll(statements);
+            }
+        }
+        Set<String> changedSymbols = new HashSet<>();
+        for (Statement statement : removed) {
+            erase(statement);
+            if (statement.label != null && statement.address >= 0) {
+                symbols.remove(statement.label);
+                definitions.remove(statement.label);
+                changedSymbols.add(statement.label);
+            }
+        }
+        for (Statement statement : added) {
+            if (statement.affectsLayout() || (statement.label != null && symbols.containsKey(statement.label))) {
+                return assembleAll(statements);
+            }
+        }
+        return relocate(added, changedSymbols);
+    }
+
+    /* Full two-pass assembly; also becomes the baseline for the next reassemble() */
+    private Assembly assembleAll(List<Statement> parsed) {
+        statements = parsed;
+        symbols = new LinkedHashMap<>();
+        definitions = new HashMap<>();
+        duplicates = new HashSet<>();
+        overlapping = false;
+        image = new byte[Memory.SIZE];
+        written = new BitSet(Memory.SIZE);
+
+        runPass(1, statements);
+        resolveEquates(statements);
+        runPass(2, statements);
+        return buildAssembly();
+    }
+
+    /*
+     * Incremental layout in one forward walk. An operand form depends only on the line's own address and on
+     * symbols defined above it, so lines that are new, position dependent and moved, or that use a symbol
+     * changed above them are sized again on the spot. Lines that use a symbol changed below them keep their
+     * size and only have their bytes regenerated once every address is final.
+     */
+    private Assembly relocate(List<Statement> added, Set<String> changedSymbols) {
+        Set<Statement> resized = Collections.newSetFromMap(new IdentityHashMap<>());
+        resized.addAll(added);
+        List<Statement> moved = new ArrayList<>();
+        for (int line = 0; line < statements.size(); line++) {
+            statements.get(line).line = line;
+        }
+        int address = defaultOrigin;
+        int page = 0;
+        boolean ended = false;
+        for (Statement statement : statements) {
+            if (ended || (statement.label == null && statement.mnemonic == null)) {
+                statement.address = -1;
+                continue;
+            }
+            if (!statement.hasAddress()) {
+                if (referencesAny(statement, changedSymbols)) {
+                    return assembleAll(statements);
+                }
+                if (statement.label != null && !"EQU".equals(statement.mnemonic) && statement.error == null
+                        && !Integer.valueOf(address).equals(symbols.put(statement.label, address))) {
+                    changedSymbols.add(statement.label);
+                }
+                page = "SETDP".equals(statement.mnemonic) ? statement.value & 0xFF : page;
+                ended = "END".equals(statement.mnemonic);
+                continue;
+            }
+            if ("ORG".equals(statement.mnemonic)) {
+                if (referencesAny(statement, changedSymbols)) {
+                    return assembleAll(statements);
+                }
+                address = statement.value & 0xFFFF;
+            }
+            statement.directPage = page;
+            boolean relocated = statement.address != address;
+            if (relocated) {
+                if (duplicates.contains(statement.label)) {
+                    return assembleAll(statements);
+                }
+                statement.address = address;
+                if (statement.label != null) {
+                    symbols.put(statement.label, address);
+                    definitions.put(statement.label, statement);
+                    changedSymbols.add(statement.label);
+                }
+            }
+            if (resized.contains(statement) || (relocated && statement.positionDependent)
+                    || referencesAny(statement, changedSymbols)) {
+                resized.add(statement);
+                erase(statement);
+                size(statement);
+            } else if (relocated) {
+                moved.add(statement);
+            }
+            if ("RMB".equals(statement.mnemonic) || "DS".equals(statement.mnemonic)) {
+                address = (address + statement.value) & 0xFFFF;
+            } else if (!"ORG".equals(statement.mnemonic)) {
+                address = (address + statement.size) & 0xFFFF;
+            }
+        }
+
+        // Addresses are final: regenerate bytes, then place everything that was erased
+        List<Statement> touched = new ArrayList<>(moved);
+        for (Statement statement : statements) {
+            if (resized.contains(statement) || referencesAny(statement, changedSymbols)) {
+                if (statement.affectsLayout()) {
+                    return assembleAll(statements);
+                }
+                erase(statement);
+                if (statement.address >= 0 && statement.mnemonic != null && !statement.sizeError) {
+                    encodePass(statement, 2);
+                } else if (!resized.contains(statement)) {
+                    continue;
+                }
+                touched.add(statement);
+            }
+        }
+        for (Statement statement : moved) {
+            erase(statement);
+        }
+        for (Statement statement : touched) {
+            place(statement);
+        }
+        return overlapping ? assembleAll(statements) : buildAssembly();
+    }
+
+    private static boolean referencesAny(Statement statement, Set<String> names) {
+        for (String name : statement.references) {
+            if (names.contains(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Runs pass 1 for a single statement at its current address, fixing its operand forms and size */
+    private void size(Statement statement) {
+        statement.code = null;
+        if (statement.address < 0 || statement.mnemonic == null) {
+            statement.size = 0;
+            statement.error = null;
+            return;
+        }
+        statement.decided = false;
+        encodePass(statement, 1);
+    }
+
+    private void encodePass(Statement statement, int passNumber) {
+        pass = passNumber;
+        location = statement.address;
+        directPage = statement.directPage;
+        beginStatement(statement);
+        try {
+            assembleStatement(statement);
+        } catch (AssemblyError e) {
+            fail(statement, e);
+        }
+    }
+
+    private void fail(Statement statement, AssemblyError e) {
+        statement.error = e.getMessage();
+        statement.code = null;
+        if (pass == 1) {
+            statement.size = 0;
+            statement.sizeError = true;
+        }
+    }
+
+    private void beginStatement(Statement statement) {
+        current = statement;
+        statement.error = null;
+        if (pass == 1) {
+            statement.sizeError = false;
+        }
+        references = new ArrayList<>(2);
+        statement.references = references;
+        statement.positionDependent = false;
+    }
+
+    /* Copies a statement's bytes into the image at its address */
+    private void place(Statement statement) {
+        if (statement.code == null) {
+            return;
+        }
+        for (int i = 0; i < statement.code.length; i++) {
+            int address = (statement.address + i) & 0xFFFF;
+            overlapping |= written.get(address);
+            image[address] = statement.code[i];
+            written.set(address);
+        }
+        statement.codeAddress = statement.address;
+    }
+
+    /* Removes a statement's bytes from the image */
+    private void erase(Statement statement) {
+        if (statement.code == null || statement.codeAddress < 0) {
+            return;
+        }
+        for (int i = 0; i < statement.code.length; i++) {
+            int address = (statement.codeAddress + i) & 0xFFFF;
+            image[address] = 0;
+            written.clear(address);
+        }
+        statement.codeAddress = -1;
+    }
+
+    private Assembly buildAssembly() {
+        int[] lineAddresses = new int[statements.size()];
+        List<String> errors = new ArrayList<>();
+        int start = -1;
+        int firstAddress = -1;
+        boolean ended = false;
+        for (int i = 0; i < lineAddresses.length; i++) {
+            Statement statement = statements.get(i);
+            lineAddresses[i] = statement.address;
+            if (statement.error != null) {
+                errors.add("Line " + (i + 1) + ": " + statement.error);
+            }
+            if (!ended && "END".equals(statement.mnemonic)) {
+                ended = true;
+                if (!statement.operand.isEmpty() && statement.error == null) {
+                    start = statement.value & 0xFFFF;
+                }
+            }
+            if (firstAddress < 0 && statement.code != null && statement.code.length > 0) {
+                firstAddress = statement.address;
+            }
+        }
+        if (start < 0) {
+            start = firstAddress >= 0 ? firstAddress : defaultOrigin;
+        }
+        return new Assembly(image.clone(), (BitSet) written.clone(), new LinkedHashMap<>(symbols),
+                lineAddresses, errors, start);
+    }
+
+    private static List<String> splitLines(String source) {
+        List<String> lines = new ArrayList<>();
+        int lineStart = 0;
+        int length = source.length();
+        while (lineStart <= length) {
+            int lineEnd = source.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = length;
+            }
+            String line = source.substring(lineStart, lineEnd);
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            lines.add(line);
+            lineStart = lineEnd + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Splits source text into statements, one per line.
+     */
+    static List<Statement> parse(String source) {
+        List<Statement> parsed = new ArrayList<>();
+        for (String line : splitLines(source)) {
+            parsed.add(parseLine(line));
+        }
+        return parsed;
+    }
+
+    /**
+     * Parses a single source line into label, mnemonic and operand fields.
+     */
+    static Statement parseLine(String line) {
+        int length = line.length();
+        if (length == 0 || line.charAt(0) == '*' || line.charAt(0) == ';') {
+            return new Statement(line, null, null, "");
+        }
+
+        int i = 0;
+        String label = null;
+        if (!Character.isWhitespace(line.charAt(0))) {
+            int end = skipToken(line, 0);
+            label = line.substring(0, end);
+            i = end;
+        }
+        i = skipSpaces(line, i);
+        if (i < length && line.charAt(i) != ';') {
+            int end = skipToken(line, i);
+            String word = line.substring(i, end);
+            if (label == null && word.endsWith(":")) {
+                // Indented label written with a colon
+                label = word;
+                i = skipSpaces(line, end);
+            }
+        }
+        if (label != null && label.endsWith(":")) {
+            label = label.substring(0, label.length() - 1);
+        }
+
+        String mnemonic = null;
+        String operand = "";
+        if (i < length && line.charAt(i) != ';') {
+            int end = skipToken(line, i);
+            mnemonic = line.substring(i, end).toUpperCase();
+            i = skipSpaces(line, end);
+            if (i < length && line.charAt(i) != ';') {
+                if (mnemonic.equals("FCC")) {
+                    // The first character is the string delimiter
+                    char delimiter = line.charAt(i);
+                    int close = line.indexOf(delimiter, i + 1);
+                    operand = line.substring(i, close < 0 ? length : close + 1);
+                } else {
+                    operand = line.substring(i, skipOperand(line, i));
+                }
+            }
+        }
+        return new Statement(line, label, mnemonic, operand);
+    }
+
+    private static int skipSpaces(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipToken(String line, int i) {
+        while (i < line.length() && !Character.isWhitespace(line.charAt(i)) && line.charAt(i) != ';') {
+            i++;
+        }
+        return i;
+    }
+
+    /* Operands end at whitespace or a comment; a quote includes the character after it */
+    private static int skipOperand(String line, int i) {
+        while (i < line.length()) {
+            char c = line.charAt(i);
+            if (c == '\'') {
+                i += 2;
+                if (i < line.length() && line.charAt(i) == '\'') {
+                    i++;
+                }
+                continue;
+            }
+            if (Character.isWhitespace(c) || c == ';') {
+                break;
+            }
+            i++;
+        }
+        return Math.min(i, line.length());
+    }
+
+    private void runPass(int passNumber, List<Statement> statements) {
+        pass = passNumber;
+        location = defaultOrigin;
+        directPage = 0;
+        boolean ended = false;
+        for (int line = 0; line < statements.size(); line++) {
+            Statement statement = statements.get(line);
+            statement.line = line;
+            if (ended || (statement.label == null && statement.mnemonic == null)) {
+                statement.address = -1;
+                statement.size = 0;
+                statement.code = null;
+                statement.error = null;
+                continue;
+            }
+            statement.address = statement.hasAddress() ? location : -1;
+            statement.directPage = directPage;
+            if (pass == 1) {
+                statement.decided = false;
+                statement.code = null;
+                statement.codeAddress = -1;
+            } else if (statement.sizeError) {
+                continue; // Reported in pass 1; the line takes no space
+            }
+            beginStatement(statement);
+            try {
+                if (statement.label != null && !"EQU".equals(statement.mnemonic)) {
+                    defineLabel(statement.label, location);
+                }
+                if (statement.mnemonic != null) {
+                    ended = assembleStatement(statement);
+                    if (pass == 2) {
+                        place(statement);
+                    }
+                }
+            } catch (AssemblyError e) {
+                fail(statement, e);
+                ended = "END".equals(statement.mnemonic);
+                if (pass == 2) {
+                    location = (location + statement.size) & 0xFFFF;
+                }
+            }
+        }
+    }
+
+    /* Defines equates that refer to symbols defined later, repeating until no more can be resolved */
+    private void resolveEquates(List<Statement> statements) {
+        current = null;
+        references = null;
+        boolean progress = true;
+        while (progress) {
+            progress = false;
+            for (Statement statement : statements) {
+                if ("END".equals(statement.mnemonic)) {
+                    break;
+                }
+                if ("EQU".equals(statement.mnemonic) && statement.label != null
+                        && !symbols.containsKey(statement.label)) {
+                    location = statement.value;
+                    try {
+                        int value = evaluate(statement.operand);
+                        if (!undefined) {
+                            symbols.put(statement.label, value & 0xFFFF);
+                            progress = true;
+                        }
+                    } catch (AssemblyError e) {
+                        // Reported again in pass 2
+                    }
+                }
+            }
+        }
+    }
+
+    private void defineLabel(String name, int value) {
+        if (pass == 1) {
+            if (symbols.containsKey(name)) {
+                duplicates.add(name);
+                throw new AssemblyError("Duplicate symbol " + name);
+            }
+            symbols.put(name, value);
+            definitions.put(name, current);
+        } else if (!Integer.valueOf(value).equals(symbols.get(name))) {
+            throw new AssemblyError("Phase error at symbol " + name);
+        }
+    }
+
+    /* Assembles one statement; returns true for END */
+    private boolean assembleStatement(Statement statement) {
+        String operand = statement.operand;
+        emitted = 0;
+        switch (statement.mnemonic) {
+            case "ORG":
+                if (pass == 1) {
+                    statement.value = evaluateDefined(operand, "ORG");
+                }
+                location = statement.value & 0xFFFF;
+                statement.address = location;
+                return false;
+            case "EQU":
+                if (statement.label == null) {
+                    throw new AssemblyError("EQU without a label");
+                }
+                if (pass == 1) {
+                    statement.value = location; // Remembered so '*' can be re-evaluated between passes
+                }
+                int value = evaluate(operand);
+                if (pass == 1) {
+                    if (symbols.containsKey(statement.label)) {
+                        duplicates.add(statement.label);
+                        throw new AssemblyError("Duplicate symbol " + statement.label);
+                    }
+                    if (!undefined) {
+                        symbols.put(statement.label, value & 0xFFFF);
+                    }
+                    definitions.put(statement.label, statement);
+                    statement.lateEquate = undefined;
+                } else {
+                    if (undefined) {
+                        throw new AssemblyError("Undefined symbol in EQU");
+                    }
+                    symbols.put(statement.label, value & 0xFFFF);
+                }
+                return false;
+            case "SETDP":
+                if (pass == 1) {
+                    statement.value = evaluateDefined(operand, "SETDP");
+                }
+                directPage = statement.value & 0xFF;
+                return false;
+            case "RMB":
+            case "DS":
+                if (pass == 1) {
+                    statement.value = evaluateDefined(operand, "RMB");
+                }
+                location = (location + statement.value) & 0xFFFF;
+                return false;
+            case "FCB":
+            case "DB":
+                for (String item : splitList(operand)) {
+                    emit8(item);
+                }
+                statement.size = emitted;
+                break;
+            case "FDB":
+            case "DW":
+                for (String item : splitList(operand)) {
+                    emit16(evaluate(item));
+                }
+                statement.size = emitted;
+                break;
+            case "FCC":
+                if (operand.length() < 2 || operand.charAt(operand.length() - 1) != operand.charAt(0)) {
+                    throw new AssemblyError("Unterminated string");
+                }
+                for (int i = 1; i < operand.length() - 1; i++) {
+                    emit(operand.charAt(i));
+                }
+                statement.size = emitted;
+                break;
+            case "END":
+                if (!operand.isEmpty()) {
+                    statement.value = evaluate(operand) & 0xFFFF;
+                }
+                return true;
+            default:
+                Opcode[] modes = INSTRUCTIONS.get(statement.mnemonic);
+                if (modes == null) {
+                    throw new AssemblyError("Unknown instruction " + statement.mnemonic);
+                }
+                assembleInstruction(statement, modes);
+                break;
+        }
+        if (pass == 2) {
+            statement.code = Arrays.copyOf(buffer, emitted);
+        }
+        location = (location + statement.size) & 0xFFFF;
+        return false;
+    }
+
+    private void assembleInstruction(Statement statement, Opcode[] modes) {
+        String operand = statement.operand;
+        String mnemonic = statement.mnemonic;
+
+        if (modes[Opcode.RELATIVE8] != null || modes[Opcode.RELATIVE16] != null) {
+            Opcode opcode = modes[Opcode.RELATIVE8] != null ? modes[Opcode.RELATIVE8] : modes[Opcode.RELATIVE16];
+            statement.positionDependent = true;
+            int end = statement.address + opcode.opcodeLength() + opcode.operandLength();
+            int offset = evaluate(operand) - end;
+            emitOpcode(opcode);
+            if (opcode.mode == Opcode.RELATIVE8) {
+                if (pass == 2 && (offset < -128 || offset > 127)) {
+                    throw new AssemblyError("Branch out of range");
+                }
+                emit(offset);
+            } else {
+                emit16(offset);
+            }
+        } else if (mnemonic.startsWith("PSH") || mnemonic.startsWith("PUL")) {
+            emitOpcode(modes[Opcode.IMMEDIATE8]);
+            emit(registerList(operand, mnemonic.endsWith("U")));
+        } else if (mnemonic.equals("TFR") || mnemonic.equals("EXG")) {
+            String[] registers = operand.split(",");
+            if (registers.length != 2) {
+                throw new AssemblyError(mnemonic + " needs two registers");
+            }
+            emitOpcode(modes[Opcode.IMMEDIATE8]);
+            emit((transferCode(registers[0]) << 4) | transferCode(registers[1]));
+        } else if (operand.isEmpty()) {
+            if (modes[Opcode.INHERENT] == null) {
+                throw new AssemblyError("Missing operand for " + mnemonic);
+            }
+            emitOpcode(modes[Opcode.INHERENT]);
+        } else if (operand.charAt(0) == '#') {
+            if (modes[Opcode.IMMEDIATE8] != null) {
+                emitOpcode(modes[Opcode.IMMEDIATE8]);
+                emit8(operand.substring(1));
+            } else if (modes[Opcode.IMMEDIATE16] != null) {
+                emitOpcode(modes[Opcode.IMMEDIATE16]);
+                emit16(evaluate(operand.substring(1)));
+            } else {
+                throw new AssemblyError("Immediate mode not allowed for " + mnemonic);
+            }
+        } else if (operand.charAt(0) == '[' || indexOfComma(operand) >= 0) {
+            if (modes[Opcode.INDEXED] == null) {
+                throw new AssemblyError("Indexed mode not allowed for " + mnemonic);
+            }
+            assembleIndexed(statement, modes[Opcode.INDEXED], operand);
+        } else {
+            assembleDirectOrExtended(statement, modes, operand);
+        }
+
+        if (pass == 1) {
+            statement.size = emitted;
+        } else if (statement.size != emitted) {
+            throw new AssemblyError("Phase error");
+        }
+    }
+
+    private void assembleDirectOrExtended(Statement statement, Opcode[] modes, String operand) {
+        boolean forceDirect = operand.charAt(0) == '<';
+        boolean forceExtended = operand.charAt(0) == '>';
+        int value = evaluate(forceDirect || forceExtended ? operand.substring(1) : operand);
+        if (pass == 1 && !statement.decided) {
+            boolean direct;
+            if (forceDirect || modes[Opcode.EXTENDED] == null) {
+                direct = true;
+            } else if (forceExtended || modes[Opcode.DIRECT] == null) {
+                direct = false;
+            } else {
+                direct = !undefined && ((value >> 8) & 0xFF) == directPage;
+            }
+            statement.opcode = direct ? modes[Opcode.DIRECT] : modes[Opcode.EXTENDED];
+            if (statement.opcode == null) {
+                throw new AssemblyError("Addressing mode not allowed for " + statement.mnemonic);
+            }
+            statement.decided = true;
+        }
+        emitOpcode(statement.opcode);
+        if (statement.opcode.mode == Opcode.DIRECT) {
+            emit(value);
+        } else {
+            emit16(value);
+        }
+    }
+
+    private void assembleIndexed(Statement statement, Opcode opcode, String operand) {
+        boolean indirect = operand.charAt(0) == '[';
+        if (indirect) {
+            if (operand.charAt(operand.length() - 1) != ']') {
+                throw new AssemblyError("Missing ]");
+            }
+            operand = operand.substring(1, operand.length() - 1);
+        }
+        emitOpcode(opcode);
+        int indirectBit = indirect ? 0x10 : 0;
+
+        int comma = indexOfComma(operand);
+        if (comma < 0) {
+            // Extended indirect [address]
+            emit(0x9F);
+            emit16(evaluate(operand));
+            return;
+        }
+
+        String offset = operand.substring(0, comma).trim();
+        String register = operand.substring(comma + 1).trim().toUpperCase();
+
+        int autoMode = -1;
+        if (register.endsWith("++")) {
+            autoMode = 0x01;
+            register = register.substring(0, register.length() - 2);
+        } else if (register.endsWith("+")) {
+            autoMode = 0x00;
+            register = register.substring(0, register.length() - 1);
+        } else if (register.startsWith("--")) {
+            autoMode = 0x03;
+            register = register.substring(2);
+        } else if (register.startsWith("-")) {
+            autoMode = 0x02;
+            register = register.substring(1);
+        }
+
+        if (register.equals("PC") || register.equals("PCR")) {
+            statement.positionDependent = true;
+            if (autoMode >= 0) {
+                throw new AssemblyError("Auto increment not allowed on PC");
+            }
+            boolean forceShort = offset.startsWith("<");
+            boolean forceLong = offset.startsWith(">");
+            int target = evaluate(forceShort || forceLong ? offset.substring(1) : offset);
+            if (pass == 1 && !statement.decided) {
+                int shortOffset = target - (statement.address + opcode.opcodeLength() + 2);
+                boolean fits = !undefined && shortOffset >= -128 && shortOffset <= 127;
+                statement.form = forceShort || (!forceLong && fits) ? FORM_PCR8 : FORM_PCR16;
+                statement.decided = true;
+            }
+            if (statement.form == FORM_PCR8) {
+                int relative = target - (statement.address + opcode.opcodeLength() + 2);
+                if (pass == 2 && (relative < -128 || relative > 127)) {
+                    throw new AssemblyError("PC-relative offset out of range");
+                }
+                emit(0x8C | indirectBit);
+                emit(relative);
+            } else {
+                emit(0x8D | indirectBit);
+                emit16(target - (statement.address + opcode.opcodeLength() + 3));
+            }
+            return;
+        }
+
+        int registerBits = indexRegisterBits(register);
+        if (autoMode >= 0) {
+            if (!offset.isEmpty()) {
+                throw new AssemblyError("Offset not allowed with auto increment");
+            }
+            if (indirect && (autoMode == 0x00 || autoMode == 0x02)) {
+                throw new AssemblyError("Single auto increment not allowed with indirect");
+            }
+            emit(0x80 | registerBits | indirectBit | autoMode);
+            return;
+        }
+
+        switch (offset.toUpperCase()) {
+            case "":
+                emit(0x84 | registerBits | indirectBit);
+                return;
+            case "A":
+                emit(0x86 | registerBits | indirectBit);
+                return;
+            case "B":
+                emit(0x85 | registerBits | indirectBit);
+                return;
+            case "D":
+                emit(0x8B | registerBits | indirectBit);
+                return;
+            default:
+                break;
+        }
+
+        boolean forceShort = offset.startsWith("<");
+        boolean forceLong = offset.startsWith(">");
+        int value = evaluate(forceShort || forceLong ? offset.substring(1) : offset);
+        if (pass == 1 && !statement.decided) {
+            int signed = (short) value;
+            if (forceLong || undefined) {
+                statement.form = forceShort ? FORM_OFFSET8 : FORM_OFFSET16;
+            } else if (signed == 0 && !forceShort) {
+                statement.form = FORM_NONE;
+            } else if (signed >= -16 && signed <= 15 && !indirect && !forceShort) {
+                statement.form = FORM_OFFSET5;
+            } else if (signed >= -128 && signed <= 127) {
+                statement.form = FORM_OFFSET8;
+            } else {
+                statement.form = FORM_OFFSET16;
+            }
+            statement.decided = true;
+        }
+        switch (statement.form) {
+            case FORM_NONE:
+                emit(0x84 | registerBits | indirectBit);
+                break;
+            case FORM_OFFSET5:
+                emit(registerBits | (value & 0x1F));
+                break;
+            case FORM_OFFSET8:
+                emit(0x88 | registerBits | indirectBit);
+                emit(value);
+                break;
+            default:
+                emit(0x89 | registerBits | indirectBit);
+                emit16(value);
+                break;
+        }
+    }
+
+    private static int indexRegisterBits(String register) {
+        switch (register) {
+            case "X": return 0x00;
+            case "Y": return 0x20;
+            case "U": return 0x40;
+            case "S": return 0x60;
+            default: throw new AssemblyError("Invalid index register " + register);
+        }
+    }
+
+    /* PSHS/PULS accept U, PSHU/PULU accept S, for the same postbyte bit */
+    private static int registerList(String operand, boolean userStack) {
+        if (operand.isEmpty()) {
+            throw new AssemblyError("Missing register list");
+        }
+        int postbyte = 0;
+        for (String register : operand.toUpperCase().split(",")) {
+            switch (register.trim()) {
+                case "CC": postbyte |= 0x01; break;
+                case "A": postbyte |= 0x02; break;
+                case "B": postbyte |= 0x04; break;
+                case "D": postbyte |= 0x06; break;
+                case "DP": postbyte |= 0x08; break;
+                case "X": postbyte |= 0x10; break;
+                case "Y": postbyte |= 0x20; break;
+                case "U":
+                    if (userStack) throw new AssemblyError("Cannot stack U on itself");
+                    postbyte |= 0x40;
+                    break;
+                case "S":
+                    if (!userStack) throw new AssemblyError("Cannot stack S on itself");
+                    postbyte |= 0x40;
+                    break;
+                case "PC": postbyte |= 0x80; break;
+                default: throw new AssemblyError("Unknown register " + register);
+            }
+        }
+        return postbyte;
+    }
+
+    private static int transferCode(String register) {
+        switch (register.trim().toUpperCase()) {
+            case "D": return 0x0;
+            case "X": return 0x1;
+            case "Y": return 0x2;
+            case "U": return 0x3;
+            case "S": return 0x4;
+            case "PC": return 0x5;
+            case "A": return 0x8;
+            case "B": return 0x9;
+            case "CC": return 0xA;
+            case "DP": return 0xB;
+            default: throw new AssemblyError("Unknown register " + register);
+        }
+    }
+
+    /* Returns the index of the first comma outside character literals and brackets */
+    private static int indexOfComma(String operand) {
+        for (int i = 0; i < operand.length(); i++) {
+            char c = operand.charAt(i);
+            if (c == '\'') {
+                i++;
+            } else if (c == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static List<String> splitList(String operand) {
+        List<String> items = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int comma = indexOfComma(operand.substring(start));
+            if (comma < 0) {
+                items.add(operand.substring(start));
+                return items;
+            }
+            items.add(operand.substring(start, start + comma));
+            start += comma + 1;
+        }
+    }
+
+    /* Byte emission: pass 1 only counts, pass 2 writes the image */
+
+    private void emitOpcode(Opcode opcode) {
+        if (opcode.code > 0xFF) {
+            emit(opcode.code >> 8);
+        }
+        emit(opcode.code);
+    }
+
+    private void emit(int value) {
+        if (pass == 2) {
+            if (emitted == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[emitted] = (byte) value;
+        }
+        emitted++;
+    }
+
+    private void emit8(String operand) {
+        int value = evaluate(operand);
+        if (pass == 2 && (value < -128 || value > 255)) {
+            throw new AssemblyError("Value out of byte range: " + operand);
+        }
+        emit(value);
+    }
+
+    private void emit16(int value) {
+        emit(value >> 8);
+        emit(value);
+    }
+
+    /* Expression evaluation */
+
+    private int evaluateDefined(String text, String directive) {
+        int value = evaluate(text);
+        if (undefined) {
+            throw new AssemblyError("Forward reference not allowed in " + directive);
+        }
+        return value;
+    }
+
+    /**
+     * Evaluates an expression. Unknown symbols evaluate to 0 and set the undefined flag;
+     * in pass 2 they are an error.
+     */
+    private int evaluate(String text) {
+        if (text.isEmpty()) {
+            throw new AssemblyError("Missing operand");
+        }
+        expression = text;
+        position = 0;
+        undefined = false;
+        int value = parseOr();
+        if (position != expression.length()) {
+            throw new AssemblyError("Unexpected '" + expression.charAt(position) + "' in " + text);
+        }
+        return value;
+    }
+
+    private int parseOr() {
+        int value = parseAnd();
+        while (peek() == '|' || peek() == '^') {
+            char operator = expression.charAt(position++);
+            int right = parseAnd();
+            value = operator == '|' ? value | right : value ^ right;
+        }
+        return value;
+    }
+
+    private int parseAnd() {
+        int value = parseSum();
+        while (peek() == '&') {
+            position++;
+            value &= parseSum();
+        }
+        return value;
+    }
+
+    private int parseSum() {
+        int value = parseProduct();
+        while (peek() == '+' || peek() == '-') {
+            char operator = expression.charAt(position++);
+            int right = parseProduct();
+            value = operator == '+' ? value + right : value - right;
+        }
+        return value;
+    }
+
+    private int parseProduct() {
+        int value = parseUnary();
+        while (peek() == '*' || peek() == '/' || peek() == '%') {
+            char operator = expression.charAt(position++);
+            int right = parseUnary();
+            if (operator == '*') {
+                value *= right;
+            } else if (right == 0) {
+                if (!undefined) {
+                    throw new AssemblyError("Division by zero");
+                }
+            } else {
+                value = operator == '/' ? value / right : value % right;
+            }
+        }
+        return value;
+    }
+
+    private int parseUnary() {
+        char c = peek();
+        if (c == '-') {
+            position++;
+            return -parseUnary();
+        }
+        if (c == '+') {
+            position++;
+            return parseUnary();
+        }
+        if (c == '~') {
+            position++;
+            return ~parseUnary();
+        }
+        return parsePrimary();
+    }
+
+    private int parsePrimary() {
+        char c = peek();
+        if (c == '(') {
+            position++;
+            int value = parseOr();
+            if (peek() != ')') {
+                throw new AssemblyError("Missing ) in " + expression);
+            }
+            position++;
+            return value;
+        }
+        if (c == '*') {
+            position++;
+            if (current != null) {
+                current.positionDependent = true;
+            }
+            return location;
+        }
+        if (c == '\'') {
+            if (position + 1 >= expression.length()) {
+                throw new AssemblyError("Missing character after '");
+            }
+            int value = expression.charAt(position + 1);
+            position += 2;
+            if (peek() == '\'') {
+                position++;
+            }
+            return value;
+        }
+        if (c == '$') {
+            position++;
+            return parseNumber(16);
+        }
+        if (c == '%') {
+            position++;
+            return parseNumber(2);
+        }
+        if (c == '@') {
+            position++;
+            return parseNumber(8);
+        }
+        if (c == '0' && position + 1 < expression.length()
+                && (expression.charAt(position + 1) == 'x' || expression.charAt(position + 1) == 'X')) {
+            position += 2;
+            return parseNumber(16);
+        }
+        if (c >= '0' && c <= '9') {
+            return parseNumber(10);
+        }
+        if (Character.isLetter(c) || c == '_' || c == '.') {
+            int start = position;
+            while (position < expression.length()) {
+                char next = expression.charAt(position);
+                if (!Character.isLetterOrDigit(next) && next != '_' && next != '.' && next != '$') {
+                    break;
+                }
+                position++;
+            }
+            String name = expression.substring(start, position);
+            if (references != null) {
+                references.add(name);
+            }
+            Integer value = symbols.get(name);
+            if (value != null && pass == 1 && current != null) {
+                // A re-encoded line must see exactly what a full pass 1 would: nothing defined after it
+                Statement definition = definitions.get(name);
+                if (definition != null && (definition.line > current.line || definition.lateEquate)) {
+                    value = null;
+                }
+            }
+            if (value == null) {
+                if (pass == 2) {
+                    throw new AssemblyError("Undefined symbol " + name);
+                }
+                undefined = true;
+                return 0;
+            }
+            return value;
+        }
+        throw new AssemblyError("Invalid expression " + expression);
+    }
+
+    private int parseNumber(int radix) {
+        int start = position;
+        int value = 0;
+        while (position < expression.length()) {
+            int digit = Character.digit(expression.charAt(position), radix);
+            if (digit < 0) {
+                break;
+            }
+            value = value * radix + digit;
+            position++;
+        }
+        if (position == start) {
+            throw new AssemblyError("Invalid number in " + expression);
+        }
+        return value;
+    }
+
+    private char peek() {
+        return position < expression.length() ? expression.charAt(position) : '\0';
+    }
+}
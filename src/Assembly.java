@@ -0,0 +1,89 @@
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class representing the output of {@link Assembler6809}: a 64 KB byte image, the symbol table
+ * and the address assigned to each source line. Loading it has no effect until loadInto() is called,
+ * so one assembly can be run any number of times.
+ */
+public class Assembly {
+
+    private final byte[] image;
+    private final BitSet written;
+    private final Map<String, Integer> symbols;
+    private final int[] lineAddresses;
+    private final List<String> errors;
+    private final int startAddress;
+
+    Assembly(byte[] image, BitSet written, Map<String, Integer> symbols, int[] lineAddresses,
+             List<String> errors, int startAddress) {
+        this.image = image;
+        this.written = written;
+        this.symbols = Collections.unmodifiableMap(symbols);
+        this.lineAddresses = lineAddresses;
+        this.errors = Collections.unmodifiableList(errors);
+        this.startAddress = startAddress;
+    }
+
+    /**
+     * Copies every assembled byte into the given bus. Addresses the program does not touch are left alone.
+     */
+    public void loadInto(Bus bus) {
+        for (int address = written.nextSetBit(0); address >= 0; address = written.nextSetBit(address + 1)) {
+            bus.write8(address, image[address]);
+        }
+    }
+
+    /**
+     * Returns the assembled byte at an address, or 0 where nothing was assembled.
+     */
+    public int read8(int address) {
+        return image[address & 0xFFFF] & 0xFF;
+    }
+
+    /**
+     * Returns true if the assembler emitted a byte at the given address.
+     */
+    public boolean contains(int address) {
+        return written.get(address & 0xFFFF);
+    }
+
+    /**
+     * Returns the number of bytes emitted.
+     */
+    public int size() {
+        return written.cardinality();
+    }
+
+    public Map<String, Integer> getSymbols() {
+        return symbols;
+    }
+
+    /**
+     * Returns the address of a zero-based source line, or -1 if the line has no address (blank, comment, EQU, ...).
+     */
+    public int getLineAddress(int line) {
+        return line >= 0 && line < lineAddresses.length ? lineAddresses[line] : -1;
+    }
+
+    public int getLineCount() {
+        return lineAddresses.length;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    /**
+     * Returns the entry point: the END operand if given, otherwise the first assembled address.
+     */
+    public int getStartAddress() {
+        return startAddress;
+    }
+}
@@ -0,0 +1,355 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+
+/**
+ * Class representing the headless batch mode: every program in a directory is run on its own
+ * {@link Cpu6809} and {@link Memory}, spread over a fixed pool of worker threads, and the final state of each
+ * is written as one JSON object per line.
+ *
+ * A {@code .asm} file is assembled as the editor does, with code lacking an ORG placed in the ROM, and run from
+ * its start address. S-record and Intel HEX files start at the address their end record gives, or else at the
+ * reset vector if they set it. Any other file is a raw image: one of exactly 64 KB replaces the whole memory and
+ * starts at the reset vector, and smaller ones are loaded at the origin and start there. A program ends when
+ * the CPU waits in SYNC or CWAI, when PC leaves the loaded code, on an illegal instruction, or when it reaches
+ * a limit.
+ *
+ * With devices enabled each program also gets the {@link StandardIo} peripherals; the ACIA receives nothing and
+ * whatever it transmits is reported as the program's serial output. With an {@link Mmu}, images are loaded into
+ * its physical memory, which starts out with the first 64 KB shown, its bank registers are at MMU_ADDRESS, and
+ * the program may run from any address.
+ */
+public class BatchRunner {
+
+    public static final int DEFAULT_ORIGIN = 0xFC00; // Same as the GUI's ROM start
+    public static final long DEFAULT_INSTRUCTION_LIMIT = 100_000_000L;
+    public static final int MMU_ADDRESS = 0xA010; // Bank registers, just after the standard devices
+
+    private static final Set<String> RAW_EXTENSIONS = Set.of("bin", "rom");
+
+    private final long instructionLimit;
+    private final long cycleLimit;
+    private final int origin;
+    private final boolean devices;
+    private final int windowSize; // 0 without an MMU
+    private final int ramBanks;
+    private final int romBanks;
+
+    public BatchRunner(long instructionLimit, long cycleLimit, int origin, boolean devices) {
+        this(instructionLimit, cycleLimit, origin, devices, 0, 0, 0);
+    }
+
+    /**
+     * Creates a runner that gives each program an MMU with the given window size and banks, unless the window
+     * size is 0.
+     */
+    public BatchRunner(long instructionLimit, long cycleLimit, int origin, boolean devices,
+                       int windowSize, int ramBanks, int romBanks) {
+        this.instructionLimit = instructionLimit;
+        this.cycleLimit = cycleLimit;
+        this.origin = origin;
+        this.devices = devices;
+        this.windowSize = windowSize;
+        this.ramBanks = ramBanks;
+        this.romBanks = romBanks;
+    }
+
+    /**
+     * Class representing the outcome of one program. Only the final registers and a digest of memory are kept,
+     * so results of thousands of programs can be held at once.
+     */
+    public static final class Result {
+        public final String file;
+        public final String status; // "wait", "left", "illegal", "instruction-limit", "cycle-limit" or "error"
+        public final String message;
+        public final boolean loaded; // False if the program could not be loaded; the fields below are then unset
+        public final long instructions;
+        public final long cycles;
+        public final int pc, a, b, dp, cc, x, y, u, s;
+        public final String memoryDigest;
+        public final String serial; // Text sent through the ACIA, or null without devices
+        public final long nanos;
+
+        Result(String file, String status, String message, Cpu6809 cpu, String memoryDigest, String serial, long nanos) {
+            this.file = file;
+            this.status = status;
+            this.message = message;
+            this.loaded = cpu != null;
+            this.instructions = loaded ? cpu.getInstructionCount() : 0;
+            this.cycles = loaded ? cpu.getCycles() : 0;
+            this.pc = loaded ? cpu.getPc() : 0;
+            this.a = loaded ? cpu.getA() : 0;
+            this.b = loaded ? cpu.getB() : 0;
+            this.dp = loaded ? cpu.getDp() : 0;
+            this.cc = loaded ? cpu.getCc() : 0;
+            this.x = loaded ? cpu.getX() : 0;
+            this.y = loaded ? cpu.getY() : 0;
+            this.u = loaded ? cpu.getU() : 0;
+            this.s = loaded ? cpu.getS() : 0;
+            this.memoryDigest = memoryDigest;
+            this.serial = serial;
+            this.nanos = nanos;
+        }
+
+        /**
+         * Returns the result as a single-line JSON object.
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\"file\":").append(quote(file));
+            json.append(",\"status\":").append(quote(status));
+            if (message != null) {
+                json.append(",\"message\":").append(quote(message));
+            }
+            if (loaded) {
+                json.append(String.format(",\"instructions\":%d,\"cycles\":%d", instructions, cycles));
+                json.append(String.format(",\"pc\":\"%04X\",\"a\":\"%02X\",\"b\":\"%02X\",\"dp\":\"%02X\",\"cc\":\"%02X\"",
+                        pc, a, b, dp, cc));
+                json.append(String.format(",\"x\":\"%04X\",\"y\":\"%04X\",\"u\":\"%04X\",\"s\":\"%04X\"", x, y, u, s));
+                json.append(",\"memorySha256\":").append(quote(memoryDigest));
+            }
+            if (serial != null) {
+                json.append(",\"serial\":").append(quote(serial));
+            }
+            json.append(String.format(",\"micros\":%d}", nanos / 1000));
+            return json.toString();
+        }
+    }
+
+    /**
+     * Runs one program file to completion on a fresh CPU and memory. Never throws; failures become results.
+     */
+    public Result run(Path file) {
+        long start = System.nanoTime();
+        String name = file.getFileName().toString();
+        Memory memory = new Memory();
+        Cpu6809 cpu = new Cpu6809(memory);
+        IntPredicate pcAllowed;
+        Mmu mmu = null;
+        try {
+            if (windowSize != 0) {
+                mmu = new Mmu(memory, windowSize, ramBanks, romBanks);
+            }
+            pcAllowed = load(file, memory, mmu, cpu);
+        } catch (IOException | IllegalArgumentException ex) {
+            return new Result(name, "error", ex.getMessage(), null, null, null, System.nanoTime() - start);
+        }
+        ByteArrayOutputStream serial = null;
+        if (devices) {
+            serial = new ByteArrayOutputStream();
+            new StandardIo(memory, cpu, null, serial); // Attached after loading, so images only fill RAM
+        }
+        if (mmu != null) {
+            memory.attach(mmu, MMU_ADDRESS, mmu.getRegisterCount());
+        }
+        String status;
+        String message = null;
+        try {
+            status = execute(cpu, pcAllowed);
+        } catch (IllegalStateException ex) {
+            status = "illegal";
+            message = ex.getMessage();
+        }
+        return new Result(name, status, message, cpu, digest(memory),
+                serial != null ? new String(serial.toByteArray(), StandardCharsets.ISO_8859_1) : null, System.nanoTime() - start);
+    }
+
+    /* Loads a program and sets up the CPU; returns the addresses PC may run from */
+    private IntPredicate load(Path file, Memory memory, Mmu mmu, Cpu6809 cpu) throws IOException {
+        String name = file.getFileName().toString().toLowerCase();
+        cpu.setS(DEFAULT_ORIGIN); // Stack grows down from just below the ROM, as in the GUI
+        if (name.endsWith(".asm")) {
+            Assembly assembly = new Assembler6809(origin).assemble(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            if (assembly.hasErrors()) {
+                throw new IllegalArgumentException(String.join("; ", assembly.getErrors()));
+            }
+            assembly.loadInto(memory);
+            cpu.setPc(assembly.getStartAddress());
+            return mmu != null ? address -> true : assembly::contains; // Banked code runs outside the assembly
+        }
+        ImageLoader loader = mmu != null ? new ImageLoader(mmu) : new ImageLoader(memory);
+        loader.load(file, origin);
+        if (loader.getStartAddress() != ImageLoader.NO_START) {
+            cpu.setPc(loader.getStartAddress());
+        } else if (loader.contains(Cpu6809.VECTOR_RESET) && loader.contains(Cpu6809.VECTOR_RESET + 1)) {
+            cpu.reset();
+        } else {
+            throw new IllegalArgumentException("Image has no start address and no reset vector");
+        }
+        return mmu != null ? address -> true : loader::contains;
+    }
+
+    /* Steps until the program ends and returns why it ended */
+    private String execute(Cpu6809 cpu, IntPredicate pcAllowed) {
+        while (true) {
+            if (cpu.getWaitState() != Cpu6809.RUNNING) {
+                cpu.step(); // Ends the wait if an interrupt is already pending
+                if (cpu.getWaitState() != Cpu6809.RUNNING) {
+                    if (cpu.getScheduler().nextDue() == Scheduler.NEVER) {
+                        return "wait";
+                    }
+                    cpu.idle(cpu.getScheduler().nextDue() - cpu.cycles); // Nothing runs until the next event
+                }
+                continue;
+            }
+            if (!pcAllowed.test(cpu.pc)) {
+                return "left";
+            }
+            if (cpu.instructionCount >= instructionLimit) {
+                return "instruction-limit";
+            }
+            if (cpu.cycles >= cycleLimit) {
+                return "cycle-limit";
+            }
+            cpu.step();
+        }
+    }
+
+    /* SHA-256 of the whole 64 KB address space */
+    private static String digest(Memory memory) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+                sha.update(memory.page(page));
+            }
+            StringBuilder hex = new StringBuilder();
+            for (byte value : sha.digest()) {
+                hex.append(String.format("%02x", value & 0xFF));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex); // Every JVM must provide SHA-256
+        }
+    }
+
+    private static String quote(String text) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : text.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /* Returns the source and image files of a directory, sorted by name so reports are in a stable order */
+    private static List<Path> programs(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                String extension = ImageLoader.extension(file);
+                if (Files.isRegularFile(file) && (extension.equals("asm") || RAW_EXTENSIONS.contains(extension)
+                        || ImageLoader.S_RECORD_EXTENSIONS.contains(extension)
+                        || ImageLoader.INTEL_HEX_EXTENSIONS.contains(extension))) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        return files;
+    }
+
+    /* Parses "window,ram[,rom]" in KB into the window size in bytes and the numbers of RAM and ROM banks */
+    private static int[] parseMmu(String text) {
+        String[] parts = text.split(",");
+        if (parts.length < 2 || parts.length > 3) {
+            usage();
+        }
+        int window = Integer.parseInt(parts[0].trim());
+        int ram = Integer.parseInt(parts[1].trim());
+        int rom = parts.length > 2 ? Integer.parseInt(parts[2].trim()) : 0;
+        if ((window != 4 && window != 8) || ram % window != 0 || rom % window != 0) {
+            usage();
+        }
+        return new int[] {window * 1024, ram / window, rom / window};
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java BatchRunner <directory> [--instructions N] [--cycles N] [--threads N]"
+                + " [--origin HEX] [--report FILE] [--io] [--mmu WINDOW_KB,RAM_KB[,ROM_KB]]");
+        System.exit(1);
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            usage();
+        }
+        long instructionLimit = DEFAULT_INSTRUCTION_LIMIT;
+        long cycleLimit = Long.MAX_VALUE;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int origin = DEFAULT_ORIGIN;
+        Path report = null;
+        boolean devices = false;
+        int[] mmu = {0, 0, 0};
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--io")) {
+                devices = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--instructions": instructionLimit = Long.parseLong(args[++i]); break;
+                case "--cycles": cycleLimit = Long.parseLong(args[++i]); break;
+                case "--threads": threads = Integer.parseInt(args[++i]); break;
+                case "--origin": origin = Integer.parseInt(args[++i], 16); break;
+                case "--report": report = Paths.get(args[++i]); break;
+                case "--mmu": mmu = parseMmu(args[++i]); break;
+                default: usage();
+            }
+        }
+
+        List<Path> files = programs(Paths.get(args[0]));
+        BatchRunner runner = new BatchRunner(instructionLimit, cycleLimit, origin, devices, mmu[0], mmu[1], mmu[2]);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        List<Future<Result>> futures = new ArrayList<>();
+        for (Path file : files) {
+            futures.add(pool.submit(() -> runner.run(file)));
+        }
+        pool.shutdown();
+
+        long instructions = 0;
+        int failed = 0;
+        try (PrintStream out = report == null ? new PrintStream(System.out, false, "UTF-8")
+                : new PrintStream(Files.newOutputStream(report), false, "UTF-8")) {
+            for (int i = 0; i < futures.size(); i++) {
+                Result result;
+                try {
+                    result = futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    throw new IllegalStateException(ex.getCause()); // run() reports its own failures
+                }
+                futures.set(i, null); // Written results are not kept
+                out.println(result.toJson());
+                instructions += result.instructions;
+                if (result.status.equals("illegal") || result.status.equals("error")) {
+                    failed++;
+                }
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.println(String.format("%d programs, %d failed, %d instructions in %.2f s (%.1f M instructions/s) on %d threads",
+                files.size(), failed, instructions, seconds, instructions / seconds / 1e6, threads));
+    }
+}
@@ -0,0 +1,607 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Class representing the code generator behind {@link BlockTranslator}: it turns one decoded 6809 basic block
+ * into a JVM hidden class implementing {@link BlockTranslator.Block}.
+ *
+ * The generated run() method is the block unrolled: for each instruction it computes the effective address
+ * (a constant, or register arithmetic with the indexed postbyte already decoded) and calls the instruction's
+ * handler; cycles, the instruction count and PC are only stored where they can be observed. Handlers are held
+ * in static final fields, so HotSpot sees each call target as a constant and can inline the whole block into
+ * one compiled method. Between instructions the code returns early if the block overwrote its own code.
+ *
+ * The class file is written by hand with the few constant pool entries and opcodes this needs.
+ */
+final class BlockCompiler {
+
+    /* Decoded instruction of a block */
+    static final class Instruction {
+        final int address;
+        final Opcode opcode;
+        final int next;
+        final int operand; // Effective address, the low address byte for direct mode, or the indexed postbyte
+        final int offset; // Indexed offset, sign-extended; the target address for PC-relative indexing
+
+        Instruction(int address, Opcode opcode, int next, int operand, int offset) {
+            this.address = address;
+            this.opcode = opcode;
+            this.next = next;
+            this.operand = operand;
+            this.offset = offset;
+        }
+    }
+
+    private static final String CPU = "Cpu6809";
+    private static final String HANDLER = "Opcode$Handler";
+    private static final String HANDLER_DESCRIPTOR = "L" + HANDLER + ";";
+    private static final String BLOCK = "BlockTranslator$Block";
+
+    /* JVM opcodes */
+    private static final int ICONST_0 = 0x03;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int ALOAD_0 = 0x2A;
+    private static final int ALOAD_1 = 0x2B;
+    private static final int ILOAD_2 = 0x1C;
+    private static final int ISTORE_2 = 0x3D;
+    private static final int ASTORE_0 = 0x4B;
+    private static final int AALOAD = 0x32;
+    private static final int DUP = 0x59;
+    private static final int IADD = 0x60;
+    private static final int LADD = 0x61;
+    private static final int IAND = 0x7E;
+    private static final int ISHL = 0x78;
+    private static final int IOR = 0x80;
+    private static final int I2L = 0x85;
+    private static final int I2B = 0x91;
+    private static final int IFEQ = 0x99;
+    private static final int RETURN = 0xB1;
+    private static final int GETSTATIC = 0xB2;
+    private static final int PUTSTATIC = 0xB3;
+    private static final int GETFIELD = 0xB4;
+    private static final int PUTFIELD = 0xB5;
+    private static final int INVOKEVIRTUAL = 0xB6;
+    private static final int INVOKESPECIAL = 0xB7;
+    private static final int INVOKESTATIC = 0xB8;
+    private static final int INVOKEINTERFACE = 0xB9;
+    private static final int CHECKCAST = 0xC0;
+
+    private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+    /* Handlers that read PC mid-block: pushing PC needs the address of the next instruction */
+    private static boolean readsPc(Opcode opcode) {
+        return opcode.mnemonic.equals("PSHS") || opcode.mnemonic.equals("PSHU");
+    }
+
+    /* Instructions whose handler or operand may read or write memory, and so reach a device */
+    private static boolean accessesMemory(Instruction instruction) {
+        Opcode opcode = instruction.opcode;
+        switch (opcode.mode) {
+            case Opcode.DIRECT:
+            case Opcode.EXTENDED:
+                return true;
+            case Opcode.INDEXED:
+                // LEA only computes its address, unless that takes an indirect read
+                return !opcode.mnemonic.startsWith("LEA") || (instruction.operand & 0x90) == 0x90;
+            default:
+                return opcode.mnemonic.startsWith("PSH") || opcode.mnemonic.startsWith("PUL");
+        }
+    }
+
+    /* Instructions that can store to memory, after which the block checks whether it overwrote itself */
+    private static boolean writesMemory(Opcode opcode) {
+        switch (opcode.mnemonic) {
+            case "PSHS":
+            case "PSHU":
+                return true;
+            case "NEG":
+            case "COM":
+            case "LSR":
+            case "ROR":
+            case "ASR":
+            case "ASL":
+            case "LSL":
+            case "ROL":
+            case "DEC":
+            case "INC":
+            case "CLR":
+                return opcode.mode != Opcode.INHERENT;
+            default:
+                return opcode.mnemonic.startsWith("ST");
+        }
+    }
+
+    /**
+     * Compiles a block and returns an instance of the generated class. With devices, the block keeps the CPU
+     * state exact at every instruction that accesses memory, as described at run().
+     */
+    BlockTranslator.Block compile(List<Instruction> instructions, boolean devices) {
+        List<Opcode.Handler> handlers = new ArrayList<>();
+        Map<Opcode.Handler, Integer> handlerFields = new HashMap<>();
+        for (Instruction instruction : instructions) {
+            handlerFields.computeIfAbsent(instruction.opcode.handler, handler -> {
+                handlers.add(handler);
+                return handlers.size() - 1;
+            });
+        }
+        String name = String.format("Block%04X", instructions.get(0).address);
+        try {
+            byte[] bytes = new ClassFile(name, instructions, handlerFields, handlers.size(), devices).toBytes();
+            Class<?> type = lookup.defineHiddenClassWithClassData(bytes, handlers.toArray(), true).lookupClass();
+            return (BlockTranslator.Block) lookup.findConstructor(type, MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Cannot compile block at " + name, e);
+        }
+    }
+
+    /* Writes one generated class */
+    private static final class ClassFile {
+
+        private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+        private final DataOutputStream pool = new DataOutputStream(poolBytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int poolCount = 1;
+
+        private final String name;
+        private final List<Instruction> instructions;
+        private final Map<Opcode.Handler, Integer> handlerFields;
+        private final int handlerCount;
+        private final boolean devices;
+
+        /* Base cycles and instructions already added to the CPU on the straight path through run() */
+        private int storedCycles;
+        private int storedCount;
+
+        ClassFile(String name, List<Instruction> instructions, Map<Opcode.Handler, Integer> handlerFields, int handlerCount,
+                  boolean devices) {
+            this.name = name;
+            this.instructions = instructions;
+            this.handlerFields = handlerFields;
+            this.handlerCount = handlerCount;
+            this.devices = devices;
+        }
+
+        byte[] toBytes() throws IOException {
+            // Methods are generated first so that every constant they use is in the pool
+            byte[] constructor = constructor();
+            byte[] run = run();
+            byte[] initializer = staticInitializer();
+            int thisClass = classRef(name);
+            int superClass = classRef("java/lang/Object");
+            int block = classRef(BLOCK);
+            int handlerType = utf8(HANDLER_DESCRIPTOR);
+            int[] fieldNames = new int[handlerCount];
+            for (int i = 0; i < handlerCount; i++) {
+                fieldNames[i] = utf8("h" + i);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(52); // Java 8 class file: stack map frames, no nest or module attributes needed
+            out.writeShort(poolCount);
+            pool.flush();
+            poolBytes.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(block);
+            out.writeShort(handlerCount);
+            for (int i = 0; i < handlerCount; i++) {
+                out.writeShort(0x0002 | 0x0008 | 0x0010); // private static final
+                out.writeShort(fieldNames[i]);
+                out.writeShort(handlerType);
+                out.writeShort(0);
+            }
+            out.writeShort(3);
+            out.write(constructor);
+            out.write(run);
+            out.write(initializer);
+            out.writeShort(0);
+            return bytes.toByteArray();
+        }
+
+        private byte[] constructor() throws IOException {
+            Code code = new Code();
+            code.op(ALOAD_0);
+            code.op(INVOKESPECIAL).u2(methodRef("java/lang/Object", "<init>", "()V"));
+            code.op(RETURN);
+            return method(0x0001, "<init>", "()V", code, 1, 1, null);
+        }
+
+        /*
+         * public void run(Cpu6809 cpu)
+         *
+         * Base cycles, the instruction count and PC are only stored where they can be observed: PC before handlers
+         * that read it, everything before the last instruction (whose handler may throw) and on the early exits.
+         * With devices attached, a device register may read the cycle count, or a device write may raise an
+         * interrupt, so everything is also stored before each instruction that accesses memory, as the interpreter
+         * would have it, and the block returns after one if an interrupt became pending or an event was scheduled
+         * sooner.
+         */
+        private byte[] run() throws IOException {
+            Code code = new Code();
+            List<Integer> frameOffsets = new ArrayList<>();
+            int aborted = fieldRef(CPU, "blockAborted", "Z");
+            int last = instructions.size() - 1;
+            int baseCycles = 0;
+            storedCycles = 0;
+            storedCount = 0;
+            for (int i = 0; i <= last; i++) {
+                Instruction instruction = instructions.get(i);
+                Opcode opcode = instruction.opcode;
+                baseCycles += opcode.cycles;
+                if (opcode.mode == Opcode.INDEXED) {
+                    baseCycles += Cpu6809.indexedCycles(instruction.operand);
+                }
+                boolean exact = devices && accessesMemory(instruction);
+                if (i == last || exact) {
+                    store(code, baseCycles, i);
+                    storedCycles = baseCycles;
+                    storedCount = i;
+                    setInt(code, "instructionAddress", instruction.address);
+                }
+                if (i == last || exact || readsPc(opcode)) {
+                    setInt(code, "pc", instruction.next);
+                }
+                code.op(GETSTATIC).u2(fieldRef(name, "h" + handlerFields.get(opcode.handler), HANDLER_DESCRIPTOR));
+                code.op(ALOAD_1);
+                switch (opcode.mode) {
+                    case Opcode.INHERENT:
+                        code.op(ICONST_0);
+                        break;
+                    case Opcode.DIRECT:
+                        code.op(ALOAD_1).op(GETFIELD).u2(fieldRef(CPU, "dp", "I"));
+                        code.op(BIPUSH).u1(8).op(ISHL);
+                        pushInt(code, instruction.operand);
+                        code.op(IOR);
+                        break;
+                    case Opcode.INDEXED:
+                        indexed(code, instruction);
+                        break;
+                    default:
+                        pushInt(code, instruction.operand);
+                        break;
+                }
+                code.op(INVOKEINTERFACE).u2(interfaceMethodRef(HANDLER, "execute", "(L" + CPU + ";I)V")).u1(3).u1(0);
+                if (i < last && (exact || writesMemory(opcode))) {
+                    // If this store hit the block's own code, or an interrupt is due, leave before the next instruction
+                    if (exact) {
+                        code.op(ALOAD_1).op(INVOKEVIRTUAL).u2(methodRef(CPU, "leaveBlock", "()Z"));
+                    } else {
+                        code.op(ALOAD_1).op(GETFIELD).u2(aborted);
+                    }
+                    int branch = code.size();
+                    code.op(IFEQ).u2(0);
+                    store(code, baseCycles, i + 1);
+                    if (!exact) {
+                        setInt(code, "pc", instruction.next);
+                    }
+                    code.op(RETURN);
+                    code.patch(branch + 1, code.size() - branch);
+                    frameOffsets.add(code.size());
+                }
+            }
+            store(code, baseCycles, last + 1);
+            code.op(RETURN);
+            return method(0x0001 | 0x0010, "run", "(L" + CPU + ";)V", code, 8, 3, stackMapTable(frameOffsets));
+        }
+
+        /* Adds what the CPU lacks of the given base cycles and instruction count, from what the straight path stored */
+        private void store(Code code, int cycles, int count) throws IOException {
+            if (cycles != storedCycles) {
+                addLong(code, "cycles", cycles - storedCycles);
+            }
+            if (count != storedCount) {
+                addLong(code, "instructionCount", count - storedCount);
+            }
+        }
+
+        /*
+         * Emits the effective address of an indexed operand whose postbyte is known, leaving it on the stack.
+         * Auto-increment and decrement update the register first, as the interpreter does; local 2 holds the address.
+         */
+        private void indexed(Code code, Instruction instruction) throws IOException {
+            int postbyte = instruction.operand;
+            int register = fieldRef(CPU, String.valueOf("xyus".charAt((postbyte >> 5) & 0x03)), "I");
+            int mode = (postbyte & 0x80) == 0 ? -1 : postbyte & 0x0F;
+            switch (mode) {
+                case 0x00: // ,R+
+                case 0x01: // ,R++
+                    code.op(ALOAD_1).op(GETFIELD).u2(register).op(ISTORE_2);
+                    code.op(ALOAD_1).op(ILOAD_2);
+                    pushInt(code, mode + 1);
+                    code.op(IADD);
+                    mask16(code);
+                    code.op(PUTFIELD).u2(register);
+                    code.op(ILOAD_2);
+                    break;
+                case 0x02: // ,-R
+                case 0x03: // ,--R
+                    code.op(ALOAD_1).op(GETFIELD).u2(register);
+                    pushInt(code, 1 - mode);
+                    code.op(IADD);
+                    mask16(code);
+                    code.op(ISTORE_2);
+                    code.op(ALOAD_1).op(ILOAD_2).op(PUTFIELD).u2(register);
+                    code.op(ILOAD_2);
+                    break;
+                case 0x05: // B,R
+                case 0x06: // A,R
+                    code.op(ALOAD_1).op(GETFIELD).u2(register);
+                    code.op(ALOAD_1).op(GETFIELD).u2(fieldRef(CPU, mode == 0x05 ? "b" : "a", "I"));
+                    code.op(I2B).op(IADD);
+                    mask16(code);
+                    break;
+                case 0x0B: // D,R
+                    code.op(ALOAD_1).op(GETFIELD).u2(register);
+                    code.op(ALOAD_1).op(INVOKEVIRTUAL).u2(methodRef(CPU, "getD", "()I"));
+                    code.op(IADD);
+                    mask16(code);
+                    break;
+                case 0x0C: // n8,PCR
+                case 0x0D: // n16,PCR
+                case 0x0F: // n16
+                    pushInt(code, instruction.offset);
+                    break;
+                default: // ,R  n5,R  n8,R  n16,R
+                    code.op(ALOAD_1).op(GETFIELD).u2(register);
+                    if (instruction.offset != 0) {
+                        pushInt(code, instruction.offset);
+                        code.op(IADD);
+                        mask16(code);
+                    }
+                    break;
+            }
+            if ((postbyte & 0x90) == 0x90) {
+                // Indirect: the operand is the word at the computed address
+                code.op(ISTORE_2).op(ALOAD_1).op(ILOAD_2);
+                code.op(INVOKEVIRTUAL).u2(methodRef(CPU, "read16", "(I)I"));
+            }
+        }
+
+        private void mask16(Code code) throws IOException {
+            pushInt(code, 0xFFFF);
+            code.op(IAND);
+        }
+
+        /* cpu.field += value for a long field */
+        private void addLong(Code code, String field, int value) throws IOException {
+            int ref = fieldRef(CPU, field, "J");
+            code.op(ALOAD_1).op(DUP).op(GETFIELD).u2(ref);
+            pushInt(code, value);
+            code.op(I2L).op(LADD).op(PUTFIELD).u2(ref);
+        }
+
+        /* cpu.field = value for an int field */
+        private void setInt(Code code, String field, int value) throws IOException {
+            code.op(ALOAD_1);
+            pushInt(code, value);
+            code.op(PUTFIELD).u2(fieldRef(CPU, field, "I"));
+        }
+
+        /* Branch targets only ever see the entry locals and an empty stack, so every frame is a same_frame */
+        private byte[] stackMapTable(List<Integer> offsets) throws IOException {
+            if (offsets.isEmpty()) {
+                return null;
+            }
+            ByteArrayOutputStream table = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(table);
+            out.writeShort(offsets.size());
+            int previous = -1;
+            for (int offset : offsets) {
+                int delta = offset - previous - 1;
+                if (delta < 64) {
+                    out.writeByte(delta);
+                } else {
+                    out.writeByte(251); // same_frame_extended
+                    out.writeShort(delta);
+                }
+                previous = offset;
+            }
+            return table.toByteArray();
+        }
+
+        /* Loads the handlers from the class data into the static final fields */
+        private byte[] staticInitializer() throws IOException {
+            Code code = new Code();
+            code.op(INVOKESTATIC).u2(methodRef("java/lang/invoke/MethodHandles", "lookup",
+                    "()Ljava/lang/invoke/MethodHandles$Lookup;"));
+            code.op(LDC_W).u2(string("_"));
+            code.op(LDC_W).u2(classRef("[Ljava/lang/Object;"));
+            code.op(INVOKESTATIC).u2(methodRef("java/lang/invoke/MethodHandles", "classData",
+                    "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;"));
+            code.op(CHECKCAST).u2(classRef("[Ljava/lang/Object;"));
+            code.op(ASTORE_0);
+            for (int i = 0; i < handlerCount; i++) {
+                code.op(ALOAD_0);
+                pushInt(code, i);
+                code.op(AALOAD).op(CHECKCAST).u2(classRef(HANDLER));
+                code.op(PUTSTATIC).u2(fieldRef(name, "h" + i, HANDLER_DESCRIPTOR));
+            }
+            code.op(RETURN);
+            return method(0x0008, "<clinit>", "()V", code, 3, 1, null);
+        }
+
+        private byte[] method(int access, String methodName, String descriptor, Code code, int maxStack, int maxLocals,
+                              byte[] frames) throws IOException {
+            int nameIndex = utf8(methodName);
+            int descriptorIndex = utf8(descriptor);
+            int codeName = utf8("Code");
+            int framesName = frames != null ? utf8("StackMapTable") : 0;
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeShort(access);
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+            out.writeShort(1);
+            out.writeShort(codeName);
+            byte[] body = code.toBytes();
+            int attributes = frames != null ? 6 + frames.length : 0;
+            out.writeInt(2 + 2 + 4 + body.length + 2 + 2 + attributes);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(body.length);
+            out.write(body);
+            out.writeShort(0); // No exception table
+            out.writeShort(frames != null ? 1 : 0);
+            if (frames != null) {
+                out.writeShort(framesName);
+                out.writeInt(frames.length);
+                out.write(frames);
+            }
+            return bytes.toByteArray();
+        }
+
+        private void pushInt(Code code, int value) throws IOException {
+            if (value >= -1 && value <= 5) {
+                code.op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                code.op(BIPUSH).u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                code.op(SIPUSH).u2(value);
+            } else {
+                int index = integer(value);
+                if (index < 256) {
+                    code.op(LDC).u1(index);
+                } else {
+                    code.op(LDC_W).u2(index);
+                }
+            }
+        }
+
+        /* Constant pool entries, shared when repeated */
+
+        private int utf8(String value) throws IOException {
+            Integer index = entries.get("U" + value);
+            if (index == null) {
+                pool.writeByte(1);
+                pool.writeUTF(value);
+                index = add("U" + value, 1);
+            }
+            return index;
+        }
+
+        private int integer(int value) throws IOException {
+            Integer index = entries.get("I" + value);
+            if (index == null) {
+                pool.writeByte(3);
+                pool.writeInt(value);
+                index = add("I" + value, 1);
+            }
+            return index;
+        }
+
+        private int classRef(String className) throws IOException {
+            Integer index = entries.get("C" + className);
+            if (index == null) {
+                int nameIndex = utf8(className);
+                pool.writeByte(7);
+                pool.writeShort(nameIndex);
+                index = add("C" + className, 1);
+            }
+            return index;
+        }
+
+        private int string(String value) throws IOException {
+            Integer index = entries.get("S" + value);
+            if (index == null) {
+                int valueIndex = utf8(value);
+                pool.writeByte(8);
+                pool.writeShort(valueIndex);
+                index = add("S" + value, 1);
+            }
+            return index;
+        }
+
+        private int fieldRef(String owner, String fieldName, String descriptor) throws IOException {
+            return memberRef(9, owner, fieldName, descriptor);
+        }
+
+        private int methodRef(String owner, String methodName, String descriptor) throws IOException {
+            return memberRef(10, owner, methodName, descriptor);
+        }
+
+        private int interfaceMethodRef(String owner, String methodName, String descriptor) throws IOException {
+            return memberRef(11, owner, methodName, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String memberName, String descriptor) throws IOException {
+            String key = "M" + tag + owner + "." + memberName + descriptor;
+            Integer index = entries.get(key);
+            if (index == null) {
+                int ownerIndex = classRef(owner);
+                int nameIndex = utf8(memberName);
+                int descriptorIndex = utf8(descriptor);
+                Integer nameAndType = entries.get("N" + memberName + descriptor);
+                if (nameAndType == null) {
+                    pool.writeByte(12);
+                    pool.writeShort(nameIndex);
+                    pool.writeShort(descriptorIndex);
+                    nameAndType = add("N" + memberName + descriptor, 1);
+                }
+                pool.writeByte(tag);
+                pool.writeShort(ownerIndex);
+                pool.writeShort(nameAndType);
+                index = add(key, 1);
+            }
+            return index;
+        }
+
+        private int add(String key, int slots) {
+            int index = poolCount;
+            poolCount += slots;
+            entries.put(key, index);
+            return index;
+        }
+    }
+
+    /* A method body under construction */
+    private static final class Code {
+        private byte[] bytes = new byte[256];
+        private int length;
+
+        Code op(int opcode) {
+            return u1(opcode);
+        }
+
+        Code u1(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, length * 2);
+            }
+            bytes[length++] = (byte) value;
+            return this;
+        }
+
+        Code u2(int value) {
+            return u1(value >> 8).u1(value);
+        }
+
+        int size() {
+            return length;
+        }
+
+        /* Branch offsets are filled in once the target is known */
+        void patch(int position, int value) {
+            bytes[position] = (byte) (value >> 8);
+            bytes[position + 1] = (byte) value;
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(bytes, length);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Class representing the translating tier of the {@link Cpu6809} core.
+ *
+ * While it runs, every address execution arrives at without a compiled block is counted. Once an address
+ * has been entered HOT_THRESHOLD times, the straight-line code from there up to the next instruction that
+ * can change PC is compiled by {@link BlockCompiler} into a JVM class, and later arrivals run that class
+ * instead of interpreting. Addresses whose code cannot be compiled fall back to the interpreter.
+ *
+ * Memory pages holding compiled code are watched: any write to them, by the CPU or from outside, drops the
+ * blocks on that page, and a block that overwrites itself returns before its next instruction. Addresses
+ * invalidated more than MAX_RECOMPILES times are left to the interpreter.
+ * The translated tier skips the per-instruction trace, journal and breakpoint hooks, so the core only
+ * uses it while none of them is active.
+ *
+ * While devices are attached, blocks are compiled to keep cycles, the instruction count and PC exact at every
+ * memory access, so a timer read in mid-block sees the same count as under the interpreter, and to return
+ * after an access that made an interrupt pending or scheduled an event sooner. Attaching or detaching devices
+ * drops every block.
+ */
+public class BlockTranslator {
+
+    /**
+     * Interface representing one compiled basic block.
+     */
+    interface Block {
+        void run(Cpu6809 cpu);
+    }
+
+    public static final int HOT_THRESHOLD = 64;
+    public static final int MAX_BLOCK_INSTRUCTIONS = 64;
+    public static final int MAX_RECOMPILES = 4; // Code rewritten more often than this stays interpreted
+
+    private static final int NOT_COMPILABLE = Integer.MIN_VALUE;
+
+    private final Cpu6809 cpu;
+    private final Memory memory;
+    private final DecodeCache decoded;
+    private final BlockCompiler compiler = new BlockCompiler();
+    private final Block[] blocks = new Block[Memory.SIZE];
+    private final int[] entries = new int[Memory.SIZE];
+    private final int[] invalidations = new int[Memory.SIZE];
+    private final int[] leadCycles = new int[Memory.SIZE]; // Base cycles of each block before its last instruction
+    private final List<List<Integer>> pageBlocks = new ArrayList<>(); // Start addresses of the blocks on each page
+    private int compiledCount;
+    private int deviceChanges; // Memory.deviceChanges the blocks were compiled for
+
+    public BlockTranslator(Cpu6809 cpu, Memory memory) {
+        this.cpu = cpu;
+        this.memory = memory;
+        if (cpu.decoded == null) {
+            throw new IllegalArgumentException("The CPU must run straight from memory to be translated");
+        }
+        this.decoded = cpu.decoded;
+        this.deviceChanges = memory.deviceChanges;
+        for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+            pageBlocks.add(new ArrayList<>());
+        }
+        memory.addCodeListener(this::invalidatePage);
+    }
+
+    /**
+     * Runs until at least {@code budget} cycles have elapsed or the CPU enters a wait state,
+     * running compiled blocks where available. Returns the number of cycles run.
+     *
+     * Like the interpreter, this stops after the instruction that reaches the budget or the next scheduled event,
+     * so events are not delayed: a block is only entered if every instruction in it starts before both, and the
+     * rest of the way is stepped. A device access that schedules an event sooner makes the block return early.
+     */
+    long run(long budget) {
+        if (memory.deviceChanges != deviceChanges) {
+            reset(); // Blocks compiled for other devices would keep stale state around device accesses
+            deviceChanges = memory.deviceChanges;
+        }
+        long start = cpu.cycles;
+        long end = start + budget;
+        Scheduler scheduler = cpu.getScheduler();
+        long stop;
+        while (cpu.cycles < (stop = Math.min(end, scheduler.due)) && cpu.waitState == Cpu6809.RUNNING) {
+            int pc = cpu.pc;
+            Block block = blocks[pc];
+            if (block == null && ++entries[pc] == HOT_THRESHOLD) {
+                block = compile(pc);
+            }
+            if (block != null && cpu.cycles + leadCycles[pc] < stop
+                    && (cpu.interruptLines & ~cpu.cc) == 0) { // Interrupts are taken by step()
+                cpu.blockAborted = false;
+                cpu.blockStop = stop;
+                block.run(cpu);
+            } else {
+                cpu.step();
+            }
+        }
+        return cpu.cycles - start;
+    }
+
+    /**
+     * Returns the number of blocks compiled so far, including invalidated ones.
+     */
+    public int getCompiledCount() {
+        return compiledCount;
+    }
+
+    /**
+     * Drops every compiled block and all profile counts.
+     */
+    public void reset() {
+        Arrays.fill(blocks, null);
+        Arrays.fill(entries, 0);
+        Arrays.fill(invalidations, 0);
+        for (List<Integer> starts : pageBlocks) {
+            starts.clear();
+        }
+    }
+
+    /* Decodes the block at an address and compiles it; returns null if it cannot be compiled */
+    private Block compile(int start) {
+        List<BlockCompiler.Instruction> instructions = decode(start);
+        if (instructions.isEmpty()) {
+            entries[start] = NOT_COMPILABLE;
+            return null;
+        }
+        Block block = compiler.compile(instructions, memory.hasDevices());
+        blocks[start] = block;
+        int lead = 0;
+        for (BlockCompiler.Instruction instruction : instructions.subList(0, instructions.size() - 1)) {
+            lead += instruction.opcode.cycles;
+            if (instruction.opcode.mode == Opcode.INDEXED) {
+                lead += Cpu6809.indexedCycles(instruction.operand);
+            } else if (instruction.opcode.mnemonic.startsWith("PSH") || instruction.opcode.mnemonic.startsWith("PUL")) {
+                lead += OpcodeTable.stackedCycles(memory.peek8(instruction.operand));
+            }
+        }
+        leadCycles[start] = lead;
+        compiledCount++;
+        int end = (instructions.get(instructions.size() - 1).next - 1) & 0xFFFF;
+        for (int page = start >>> 8; page <= end >>> 8; page++) {
+            pageBlocks.get(page).add(start);
+            memory.watchCodePage(page);
+        }
+        return block;
+    }
+
+    /* Reads instructions up to and including the first one that can change PC or stop the CPU */
+    private List<BlockCompiler.Instruction> decode(int start) {
+        List<BlockCompiler.Instruction> instructions = new ArrayList<>();
+        int address = start;
+        while (instructions.size() < MAX_BLOCK_INSTRUCTIONS) {
+            Opcode opcode = decoded.lookup(address);
+            if (opcode == null) {
+                break; // Left to the interpreter, which reports it
+            }
+            int next = decoded.next(address);
+            int operand = decoded.operand(address);
+            instructions.add(new BlockCompiler.Instruction(address, opcode, next, operand, decoded.offset(address)));
+            if (endsBlock(opcode, operand) || next == 0) {
+                break; // Code running past FFFF starts a new block at 0000
+            }
+            address = next;
+        }
+        return instructions;
+    }
+
+    private boolean endsBlock(Opcode opcode, int operand) {
+        if (opcode.mode == Opcode.RELATIVE8 || opcode.mode == Opcode.RELATIVE16) {
+            return true;
+        }
+        switch (opcode.mnemonic) {
+            case "JMP":
+            case "JSR":
+            case "RTS":
+            case "RTI":
+            case "SWI":
+            case "SWI2":
+            case "SWI3":
+            case "CWAI":
+            case "SYNC":
+            case "TFR":
+            case "EXG":
+                return true;
+            case "ANDCC":
+                return true; // May unmask a pending interrupt, which is taken before the next instruction
+            case "PULS":
+            case "PULU":
+                return (memory.peek8(operand) & 0x81) != 0; // Pulls PC, or CC, which may unmask an interrupt
+            default:
+                return false;
+        }
+    }
+
+    /* Called by memory when a watched page is written */
+    private void invalidatePage(int page) {
+        for (int start : pageBlocks.get(page)) {
+            if (blocks[start] != null) {
+                blocks[start] = null;
+                // Profile again, since the new code may be just as hot, unless this code keeps rewriting itself
+                entries[start] = ++invalidations[start] > MAX_RECOMPILES ? NOT_COMPILABLE : 0;
+            }
+        }
+        pageBlocks.get(page).clear();
+        cpu.blockAborted = true;
+    }
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Class representing the execution breakpoints and read/write watchpoints of a {@link Cpu6809}.
+ * Each kind is a bitset over the 64 KB address space, so checking an address is a single bit test.
+ * An optional condition can be attached to any address; it is only evaluated when that address bit is set.
+ *
+ * The bitsets are read by the thread running the CPU and written by the one thread that edits them: the UI
+ * thread while the runner thread reads them, or a {@link GdbServer}'s thread for a CPU it serves, which then runs
+ * it as well. With a single writer, a running program sees each change at the latest a few instructions later.
+ */
+public class Breakpoints {
+
+    public static final int EXECUTE = 0;
+    public static final int READ = 1;
+    public static final int WRITE = 2;
+
+    private static final String[] KIND_NAMES = {"Breakpoint", "Read watchpoint", "Write watchpoint"};
+
+    /* Register or memory comparison, e.g. "A=05", "X>=2000", "[2000]!=FF" */
+    private static final Pattern CONDITION = Pattern.compile(
+            "\\s*(A|B|D|X|Y|U|S|PC|DP|CC|\\[([0-9A-F]{1,4})\\])\\s*(=|==|!=|<=|>=|<|>)\\s*\\$?([0-9A-F]{1,4})\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /* Bitset of every kind that has never been set, shared by all instances and never written */
+    private static final long[] NONE = new long[Memory.SIZE / 64];
+
+    /*
+     * One bit per address for each kind; package-private so the core can test them without a call. A kind gets a
+     * bitset of its own when it is first set, so the many CPUs of a MachineHost carry none; the array is replaced
+     * before count changes, so a runner that checks isEmpty() between batches sees it.
+     */
+    long[] execute = NONE;
+    long[] read = NONE;
+    long[] write = NONE;
+
+    private final Map<Integer, Predicate<Cpu6809>> conditions = new ConcurrentHashMap<>();
+    private final Map<Integer, String> conditionTexts = new ConcurrentHashMap<>();
+    private volatile int count;
+
+    /**
+     * Sets a breakpoint or watchpoint. A non-null condition is parsed with parseCondition() and must hold for it to trigger.
+     *
+     * @throws IllegalArgumentException if the condition cannot be parsed
+     */
+    public void set(int kind, int address, String condition) {
+        address &= 0xFFFF;
+        int key = key(kind, address);
+        if (condition == null || condition.trim().isEmpty()) {
+            conditions.remove(key);
+            conditionTexts.remove(key);
+        } else {
+            conditions.put(key, parseCondition(condition));
+            conditionTexts.put(key, condition.trim().toUpperCase());
+        }
+        long[] bits = bits(kind);
+        if (bits == NONE) {
+            bits = allocate(kind);
+        }
+        if ((bits[address >>> 6] & (1L << address)) == 0) {
+            bits[address >>> 6] |= 1L << address;
+            count++;
+        }
+    }
+
+    public void clear(int kind, int address) {
+        address &= 0xFFFF;
+        long[] bits = bits(kind);
+        if ((bits[address >>> 6] & (1L << address)) != 0) {
+            bits[address >>> 6] &= ~(1L << address);
+            count--;
+        }
+        conditions.remove(key(kind, address));
+        conditionTexts.remove(key(kind, address));
+    }
+
+    /**
+     * Removes every breakpoint and watchpoint.
+     */
+    public void clearAll() {
+        for (long[] bits : new long[][] {execute, read, write}) {
+            if (bits != NONE) {
+                Arrays.fill(bits, 0); // Kept rather than dropped, as a running CPU may still be testing it
+            }
+        }
+        conditions.clear();
+        conditionTexts.clear();
+        count = 0;
+    }
+
+    /**
+     * Returns true if no breakpoint or watchpoint of any kind is set.
+     */
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public boolean isSet(int kind, int address) {
+        address &= 0xFFFF;
+        return (bits(kind)[address >>> 6] & (1L << address)) != 0;
+    }
+
+    /**
+     * Returns the condition text attached to an address, or null if it triggers unconditionally.
+     */
+    public String getCondition(int kind, int address) {
+        return conditionTexts.get(key(kind, address & 0xFFFF));
+    }
+
+    /**
+     * Returns true if execution should stop at PC. The caller has already tested the execute bit.
+     */
+    boolean shouldBreak(int kind, int address, Cpu6809 cpu) {
+        Predicate<Cpu6809> condition = conditions.get(key(kind, address));
+        return condition == null || condition.test(cpu);
+    }
+
+    /**
+     * Returns a description such as "Write watchpoint" for a kind.
+     */
+    public static String kindName(int kind) {
+        return KIND_NAMES[kind];
+    }
+
+    /**
+     * Parses a condition of the form {@code register op value} or {@code [address] op value}, all values in hex.
+     * Registers are A, B, D, X, Y, U, S, PC, DP and CC; operators are =, !=, <, <=, > and >=.
+     *
+     * @throws IllegalArgumentException if the text is not a valid condition
+     */
+    public static Predicate<Cpu6809> parseCondition(String text) {
+        Matcher matcher = CONDITION.matcher(text);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Invalid condition: " + text.trim());
+        }
+        String operand = matcher.group(1).toUpperCase();
+        String operator = matcher.group(3);
+        int value = Integer.parseInt(matcher.group(4), 16);
+        if (matcher.group(2) != null) {
+            int address = Integer.parseInt(matcher.group(2), 16);
+            return cpu -> compare(cpu.peek8(address), operator, value);
+        }
+        switch (operand) {
+            case "A": return cpu -> compare(cpu.getA(), operator, value);
+            case "B": return cpu -> compare(cpu.getB(), operator, value);
+            case "D": return cpu -> compare(cpu.getD(), operator, value);
+            case "X": return cpu -> compare(cpu.getX(), operator, value);
+            case "Y": return cpu -> compare(cpu.getY(), operator, value);
+            case "U": return cpu -> compare(cpu.getU(), operator, value);
+            case "S": return cpu -> compare(cpu.getS(), operator, value);
+            case "PC": return cpu -> compare(cpu.getPc(), operator, value);
+            case "DP": return cpu -> compare(cpu.getDp(), operator, value);
+            default: return cpu -> compare(cpu.getCc(), operator, value);
+        }
+    }
+
+    private static boolean compare(int left, String operator, int right) {
+        switch (operator) {
+            case "!=": return left != right;
+            case "<": return left < right;
+            case "<=": return left <= right;
+            case ">": return left > right;
+            case ">=": return left >= right;
+            default: return left == right;
+        }
+    }
+
+    private long[] bits(int kind) {
+        switch (kind) {
+            case EXECUTE: return execute;
+            case READ: return read;
+            case WRITE: return write;
+            default: throw new IllegalArgumentException("Unknown breakpoint kind " + kind);
+        }
+    }
+
+    private long[] allocate(int kind) {
+        long[] bits = new long[Memory.SIZE / 64];
+        switch (kind) {
+            case EXECUTE: execute = bits; break;
+            case READ: read = bits; break;
+            default: write = bits; break;
+        }
+        return bits;
+    }
+
+    private static int key(int kind, int address) {
+        return (kind << 16) | address;
+    }
+}
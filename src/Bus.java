@@ -0,0 +1,39 @@
+/**
+ * Interface representing the 6809 address bus.
+ * Addresses are 16-bit and values are unsigned bytes held in an int.
+ */
+public interface Bus {
+
+    /**
+     * Reads one byte from the given address.
+     */
+    int read8(int address);
+
+    /**
+     * Writes the low byte of value to the given address.
+     */
+    void write8(int address, int value);
+
+    /**
+     * Reads one byte without the side effects a device register read may have.
+     * The default suits buses where reads have no side effects.
+     */
+    default int peek8(int address) {
+        return read8(address);
+    }
+
+    /**
+     * Reads a big-endian 16-bit word, wrapping at the top of the address space.
+     */
+    default int read16(int address) {
+        return (read8(address) << 8) | read8((address + 1) & 0xFFFF);
+    }
+
+    /**
+     * Writes a big-endian 16-bit word, wrapping at the top of the address space.
+     */
+    default void write16(int address, int value) {
+        write8(address, value >> 8);
+        write8((address + 1) & 0xFFFF, value);
+    }
+}
@@ -0,0 +1,1256 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Class representing the Motorola 6809 CPU core.
+ * The register file is held in plain ints and instructions are executed straight from the bus,
+ * so the core can run headless without any Swing or string work on the execution path.
+ * Decoding is a fetch-decode-execute loop over the 256-entry tables in {@link OpcodeTable}; when the bus is
+ * plain {@link Memory}, each instruction is decoded once into a {@link DecodeCache} and run from there.
+ *
+ * The IRQ, FIRQ and NMI inputs are bits of one word laid out so that {@code lines & ~cc} is non-zero exactly when
+ * an interrupt must be taken or devices re-polled; that is the only interrupt test made per instruction.
+ * Devices are never polled on the way: they call requestInterruptCheck() when their interrupt output may have
+ * changed, and the sources added with addInterruptSource() are then read once, on the CPU's own thread.
+ * Devices needing service at a given time schedule it on the {@link Scheduler} instead of being polled.
+ */
+public class Cpu6809 {
+
+    /* Condition code register bits */
+    public static final int CC_C = 0x01; // Carry
+    public static final int CC_V = 0x02; // Overflow
+    public static final int CC_Z = 0x04; // Zero
+    public static final int CC_N = 0x08; // Negative
+    public static final int CC_I = 0x10; // IRQ mask
+    public static final int CC_H = 0x20; // Half carry
+    public static final int CC_F = 0x40; // FIRQ mask
+    public static final int CC_E = 0x80; // Entire state stacked
+
+    /* Interrupt vector locations */
+    public static final int VECTOR_SWI3 = 0xFFF2;
+    public static final int VECTOR_SWI2 = 0xFFF4;
+    public static final int VECTOR_FIRQ = 0xFFF6;
+    public static final int VECTOR_IRQ = 0xFFF8;
+    public static final int VECTOR_SWI = 0xFFFA;
+    public static final int VECTOR_NMI = 0xFFFC;
+    public static final int VECTOR_RESET = 0xFFFE;
+
+    /* Interrupt inputs; IRQ and FIRQ share the bit of the CC flag that masks them */
+    public static final int IRQ = CC_I;
+    public static final int FIRQ = CC_F;
+    public static final int NMI = 0x100;
+    private static final int POLL = 0x200; // Some source's output may have changed
+
+    /* Cycles from the end of an instruction to the first instruction of the handler */
+    private static final int IRQ_CYCLES = 19; // Also NMI; the entire state is stacked
+    private static final int FIRQ_CYCLES = 10; // Only PC and CC are stacked
+    private static final int WAKE_CYCLES = 7; // After CWAI, which has already stacked the entire state
+
+    /* Wait states entered by CWAI and SYNC */
+    public static final int RUNNING = 0;
+    public static final int WAIT_CWAI = 1;
+    public static final int WAIT_SYNC = 2;
+
+    private final Bus bus;
+    final DecodeCache decoded; // Null when the bus is not plain memory, as writes could then go unseen
+    private final Breakpoints breakpoints = new Breakpoints();
+    private int watchHit = -1; // Kind << 16 | address of the last triggered watchpoint, or -1
+    private TraceRecorder tracer; // Only changed while the CPU is not running on another thread
+    private Profiler profiler;
+    private Journal journal;
+    private BlockTranslator translator;
+    boolean blockAborted; // Set when a compiled block overwrote code; the block returns before its next instruction
+    long blockStop; // Cycle the running block must not start an instruction at or past
+    volatile int interruptLines; // IRQ, FIRQ, NMI and POLL bits; only changed through changeLines()
+    private final List<BooleanSupplier> irqSources = new ArrayList<>();
+    private final List<BooleanSupplier> firqSources = new ArrayList<>();
+    private final Scheduler scheduler = new Scheduler();
+
+    /* Registers are package-private so the opcode table handlers can reach them without accessor calls */
+    int a;
+    int b;
+    int x;
+    int y;
+    int u;
+    int s;
+    int pc;
+    int dp;
+    int cc; // H, N, Z, V and C are stale while a flag computation is pending; read them through flags()
+    int waitState;
+    long cycles;
+    long instructionCount;
+
+    int instructionAddress;
+
+    /*
+     * Pending flag computation. The arithmetic, compare, load and store helpers only record their operands and
+     * unmasked result; flags() works out the flags they affect when something reads CC. An operation that sets
+     * fewer flags than the pending one settles it first, so the flags it leaves alone stay right.
+     */
+    private static final int FLAGS_SETTLED = 0;
+    private static final int FLAGS_ADD8 = 1; // H, N, Z, V and C
+    private static final int FLAGS_SUB8 = 2; // N, Z, V and C from here on
+    private static final int FLAGS_ADD16 = 3;
+    private static final int FLAGS_SUB16 = 4;
+    private static final int FLAGS_MOVE8 = 5; // N, Z and V from here on
+    private static final int FLAGS_MOVE16 = 6;
+    private static final int[] FLAG_WIDTHS = {0, 0xFF, 0xFF, 0xFFFF, 0xFFFF, 0xFF, 0xFFFF};
+    private int flagOp;
+    private int flagLeft;
+    private int flagRight;
+    private int flagResult;
+
+    /* Extra cycles for each indexed postbyte, on top of the instruction's base count */
+    private static final int[] INDEXED_CYCLES = new int[256];
+
+    static {
+        // ,R+  ,R++  ,-R  ,--R  ,R  B,R  A,R  -  n8,R  n16,R  -  D,R  n8,PC  n16,PC  -  [n16]
+        int[] extra = {2, 3, 2, 3, 0, 1, 1, 0, 1, 4, 0, 4, 1, 5, 0, 2};
+        for (int postbyte = 0; postbyte < 256; postbyte++) {
+            if ((postbyte & 0x80) == 0) {
+                INDEXED_CYCLES[postbyte] = 1; // 5-bit offset
+            } else {
+                INDEXED_CYCLES[postbyte] = extra[postbyte & 0x0F] + ((postbyte & 0x10) != 0 ? 3 : 0);
+            }
+        }
+    }
+
+    /**
+     * Creates a CPU attached to the given bus. Registers start cleared; call reset() to load the reset vector.
+     */
+    public Cpu6809(Bus bus) {
+        this.bus = bus;
+        this.decoded = bus instanceof Memory ? new DecodeCache((Memory) bus) : null;
+    }
+
+    /**
+     * Performs a hardware reset: clears DP, masks interrupts and loads PC from the reset vector.
+     */
+    public void reset() {
+        dp = 0;
+        setCc(CC_I | CC_F);
+        waitState = RUNNING;
+        changeLines(POLL, NMI);
+        pc = bus.read16(VECTOR_RESET);
+        instructionCount = 0;
+        cycles = 0;
+    }
+
+    /**
+     * Executes a single instruction at PC, or enters the handler of a pending interrupt instead; the entry counts
+     * as one instruction, like SWI. Does nothing while the CPU waits in CWAI or SYNC and no interrupt arrives.
+     *
+     * @throws IllegalStateException if the opcode is not a valid 6809 instruction
+     */
+    public void step() {
+        if (cycles >= scheduler.due) {
+            scheduler.runDue(cycles);
+        }
+        execute();
+    }
+
+    /* Executes one instruction or interrupt entry, leaving due events to the caller */
+    private void execute() {
+        if (((interruptLines & ~cc) != 0 || waitState != RUNNING) && !handleInterrupts()) {
+            return;
+        }
+        instructionAddress = pc;
+        if (tracer != null) {
+            tracer.record(this);
+        }
+        if (profiler != null) {
+            profiler.record(this);
+        }
+        if (journal != null) {
+            journal.recordStep();
+        }
+        Opcode op = decoded != null ? decoded.lookup(pc) : null;
+        if (op != null) {
+            int[] entry = decoded.pages[pc >>> 8].data;
+            int slot = (pc & 0xFF) * DecodeCache.ENTRY_SIZE;
+            pc = entry[slot + DecodeCache.NEXT];
+            cycles += entry[slot + DecodeCache.CYCLES];
+            op.handler.execute(this, decodedAddress(op.mode, entry, slot));
+            instructionCount++;
+            return;
+        }
+        int opcode = fetch8();
+        Opcode[] page = OpcodeTable.PAGE0;
+        if (opcode == 0x10) {
+            page = OpcodeTable.PAGE2;
+            opcode = fetch8();
+        } else if (opcode == 0x11) {
+            page = OpcodeTable.PAGE3;
+            opcode = fetch8();
+        }
+        op = page[opcode];
+        cycles += op.cycles;
+        op.handler.execute(this, effectiveAddress(op.mode));
+        instructionCount++;
+    }
+
+    /**
+     * Executes instructions until at least the given number of cycles have elapsed, or the CPU waits in CWAI or
+     * SYNC with no interrupt source to wake it. With sources, the clock keeps running while the CPU waits, up to
+     * the end of the budget. Returns the number of cycles actually run, which may overshoot by one instruction.
+     *
+     * Instructions run in stretches up to the next scheduled event, so between events nothing but the cycle
+     * budget is checked; a waiting CPU skips straight to the next event.
+     */
+    public long runCycles(long budget) {
+        long start = cycles;
+        long end = start + budget;
+        while (cycles < end) {
+            if (cycles >= scheduler.due) {
+                scheduler.runDue(cycles);
+            }
+            long limit = Math.min(end, scheduler.due);
+            if (waitState != RUNNING) {
+                execute();
+                if (waitState != RUNNING) {
+                    if (!hasInterruptSources()) {
+                        break;
+                    }
+                    idle(limit - cycles);
+                }
+            } else if (translator != null && tracer == null && journal == null && profiler == null
+                    && breakpoints.isEmpty()) {
+                translator.run(limit - cycles);
+            } else {
+                while (cycles < limit && cycles < scheduler.due && waitState == RUNNING) { // A device may move due
+                    execute();
+                }
+            }
+        }
+        return cycles - start;
+    }
+
+    /**
+     * Lets time pass while the CPU waits in CWAI or SYNC, so that timers keep counting: the cycle count moves on
+     * by the budget, but not past the next scheduled event. An interrupt is taken by the next step().
+     */
+    public void idle(long budget) {
+        if (waitState != RUNNING && budget > 0) {
+            cycles += Math.min(budget, Math.max(0, scheduler.due - cycles));
+        }
+    }
+
+    /**
+     * Returns the scheduler for events keyed on this CPU's cycle count.
+     */
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Executes up to count instructions and returns how many were run.
+     * Stops early if the CPU waits in CWAI or SYNC and no interrupt arrives.
+     */
+    public long run(long count) {
+        for (long i = 0; i < count; i++) {
+            long before = instructionCount;
+            step();
+            if (instructionCount == before) {
+                return i;
+            }
+        }
+        return count;
+    }
+
+    /* Resolves the effective address of a decoded instruction from its entry */
+    private int decodedAddress(int mode, int[] entry, int slot) {
+        switch (mode) {
+            case Opcode.INHERENT:
+                return 0;
+            case Opcode.DIRECT:
+                return (dp << 8) | entry[slot + DecodeCache.OPERAND];
+            case Opcode.INDEXED:
+                return indexed(entry[slot + DecodeCache.OPERAND], entry[slot + DecodeCache.OFFSET]);
+            default:
+                return entry[slot + DecodeCache.OPERAND];
+        }
+    }
+
+    /* Resolves the effective address for an addressing mode, consuming the operand bytes at PC */
+    private int effectiveAddress(int mode) {
+        int ea;
+        switch (mode) {
+            case Opcode.INHERENT:
+                return 0;
+            case Opcode.IMMEDIATE8:
+                ea = pc;
+                pc = (pc + 1) & 0xFFFF;
+                return ea;
+            case Opcode.IMMEDIATE16:
+                ea = pc;
+                pc = (pc + 2) & 0xFFFF;
+                return ea;
+            case Opcode.DIRECT:
+                return (dp << 8) | fetch8();
+            case Opcode.EXTENDED:
+                return fetch16();
+            case Opcode.INDEXED:
+                int postbyte = fetch8();
+                cycles += INDEXED_CYCLES[postbyte];
+                return indexed(postbyte);
+            case Opcode.RELATIVE8:
+                ea = (byte) fetch8();
+                return (pc + ea) & 0xFFFF;
+            case Opcode.RELATIVE16:
+                ea = (short) fetch16();
+                return (pc + ea) & 0xFFFF;
+            default:
+                throw new IllegalStateException("Unknown addressing mode " + mode);
+        }
+    }
+
+    /* Extra cycles an indexed postbyte costs, for compiled blocks that decode it ahead of time */
+    static int indexedCycles(int postbyte) {
+        return INDEXED_CYCLES[postbyte];
+    }
+
+    /* Decodes an indexed-mode postbyte and any offset bytes that follow it */
+    private int indexed(int postbyte) {
+        int offset = 0;
+        if ((postbyte & 0x80) == 0) {
+            // 5-bit signed offset, never indirect
+            offset = (postbyte & 0x10) != 0 ? (postbyte & 0x0F) - 16 : postbyte & 0x0F;
+        } else {
+            switch (postbyte & 0x0F) {
+                case 0x08: // n8,R
+                    offset = (byte) fetch8();
+                    break;
+                case 0x09: // n16,R
+                case 0x0F: // [n16]
+                    offset = fetch16();
+                    break;
+                case 0x0C: // n8,PCR
+                    offset = (byte) fetch8();
+                    offset = (pc + offset) & 0xFFFF;
+                    break;
+                case 0x0D: // n16,PCR
+                    offset = fetch16();
+                    offset = (pc + offset) & 0xFFFF;
+                    break;
+            }
+        }
+        return indexed(postbyte, offset);
+    }
+
+    /*
+     * Computes an indexed effective address from the postbyte and the constant part decoded after it:
+     * the signed offset, or the whole address for PC-relative and [n16] forms.
+     */
+    private int indexed(int postbyte, int offset) {
+        int register = (postbyte >> 5) & 0x03;
+        if ((postbyte & 0x80) == 0) {
+            return (indexRegister(register) + offset) & 0xFFFF;
+        }
+        int ea;
+        switch (postbyte & 0x0F) {
+            case 0x00: // ,R+
+                ea = indexRegister(register);
+                setIndexRegister(register, ea + 1);
+                break;
+            case 0x01: // ,R++
+                ea = indexRegister(register);
+                setIndexRegister(register, ea + 2);
+                break;
+            case 0x02: // ,-R
+                ea = (indexRegister(register) - 1) & 0xFFFF;
+                setIndexRegister(register, ea);
+                break;
+            case 0x03: // ,--R
+                ea = (indexRegister(register) - 2) & 0xFFFF;
+                setIndexRegister(register, ea);
+                break;
+            case 0x04: // ,R
+                ea = indexRegister(register);
+                break;
+            case 0x05: // B,R
+                ea = (indexRegister(register) + (byte) b) & 0xFFFF;
+                break;
+            case 0x06: // A,R
+                ea = (indexRegister(register) + (byte) a) & 0xFFFF;
+                break;
+            case 0x08: // n8,R
+            case 0x09: // n16,R
+                ea = (indexRegister(register) + offset) & 0xFFFF;
+                break;
+            case 0x0B: // D,R
+                ea = (indexRegister(register) + getD()) & 0xFFFF;
+                break;
+            case 0x0C: // n8,PCR
+            case 0x0D: // n16,PCR
+            case 0x0F: // [n16]
+                ea = offset;
+                break;
+            default:
+                abortInstruction();
+                throw new IllegalStateException(String.format("Illegal indexed postbyte %02X at %04X", postbyte, instructionAddress));
+        }
+        if ((postbyte & 0x10) != 0) {
+            ea = read16(ea);
+        }
+        return ea;
+    }
+
+    private int indexRegister(int register) {
+        switch (register) {
+            case 0: return x;
+            case 1: return y;
+            case 2: return u;
+            default: return s;
+        }
+    }
+
+    private void setIndexRegister(int register, int value) {
+        value &= 0xFFFF;
+        switch (register) {
+            case 0: x = value; break;
+            case 1: y = value; break;
+            case 2: u = value; break;
+            default: s = value; break;
+        }
+    }
+
+    /* Leaves PC on the offending instruction, which has changed nothing else yet */
+    private void abortInstruction() {
+        pc = instructionAddress;
+        if (journal != null) {
+            journal.discardStep();
+        }
+    }
+
+    IllegalStateException illegalOpcode(int opcode) {
+        abortInstruction();
+        return new IllegalStateException(String.format("Illegal opcode %02X at %04X", opcode, instructionAddress));
+    }
+
+    /* Memory access helpers used by the opcode handlers */
+
+    /*
+     * Data accesses test the watchpoint bitsets; opcode, postbyte and address fetches do not. Immediate operands
+     * are read by their handlers through read8()/read16(), so a read watchpoint on one fires like on data.
+     */
+
+    int read8(int address) {
+        if ((breakpoints.read[(address & 0xFFFF) >>> 6] & (1L << address)) != 0) {
+            watch(Breakpoints.READ, address & 0xFFFF);
+        }
+        return bus.read8(address);
+    }
+
+    int read16(int address) {
+        int next = (address + 1) & 0xFFFF;
+        long[] watched = breakpoints.read;
+        if (((watched[(address & 0xFFFF) >>> 6] >>> address) & 1 | (watched[next >>> 6] >>> next) & 1) != 0) {
+            watch(Breakpoints.READ, address & 0xFFFF);
+            watch(Breakpoints.READ, next);
+        }
+        return bus.read16(address);
+    }
+
+    void write8(int address, int value) {
+        if (journal != null) {
+            journal.recordWrite(address & 0xFFFF, bus.peek8(address));
+        }
+        bus.write8(address, value & 0xFF);
+        if ((breakpoints.write[(address & 0xFFFF) >>> 6] & (1L << address)) != 0) {
+            watch(Breakpoints.WRITE, address & 0xFFFF);
+        }
+    }
+
+    void write16(int address, int value) {
+        int next = (address + 1) & 0xFFFF;
+        if (journal != null) {
+            journal.recordWrite(address & 0xFFFF, bus.peek8(address));
+            journal.recordWrite(next, bus.peek8(next));
+        }
+        bus.write16(address, value & 0xFFFF);
+        long[] watched = breakpoints.write;
+        if (((watched[(address & 0xFFFF) >>> 6] >>> address) & 1 | (watched[next >>> 6] >>> next) & 1) != 0) {
+            watch(Breakpoints.WRITE, address & 0xFFFF);
+            watch(Breakpoints.WRITE, next);
+        }
+    }
+
+    /* Records a watchpoint hit if the address is watched and its condition holds; the instruction still completes */
+    private void watch(int kind, int address) {
+        if (watchHit < 0 && breakpoints.isSet(kind, address) && breakpoints.shouldBreak(kind, address, this)) {
+            watchHit = (kind << 16) | address;
+        }
+    }
+
+    /**
+     * Reads a byte for inspection, without triggering watchpoints.
+     */
+    public int peek8(int address) {
+        return bus.peek8(address);
+    }
+
+    /**
+     * Reads a big-endian word for inspection, without triggering watchpoints.
+     */
+    public int peek16(int address) {
+        return (bus.peek8(address) << 8) | bus.peek8((address + 1) & 0xFFFF);
+    }
+
+    private int fetch8() {
+        int value = bus.read8(pc);
+        pc = (pc + 1) & 0xFFFF;
+        return value;
+    }
+
+    private int fetch16() {
+        int value = bus.read16(pc);
+        pc = (pc + 2) & 0xFFFF;
+        return value;
+    }
+
+    /* Stack helpers */
+
+    /* Pushes one byte onto the hardware stack (pre-decrement) */
+    void pushS(int value) {
+        s = (s - 1) & 0xFFFF;
+        write8(s, value);
+    }
+
+    /* Pulls one byte from the hardware stack (post-increment) */
+    int pullS() {
+        int value = read8(s);
+        s = (s + 1) & 0xFFFF;
+        return value;
+    }
+
+    void pushWordS(int value) {
+        pushS(value);
+        pushS(value >> 8);
+    }
+
+    int pullWordS() {
+        int high = pullS();
+        return (high << 8) | pullS();
+    }
+
+    private void pushU(int value) {
+        u = (u - 1) & 0xFFFF;
+        write8(u, value);
+    }
+
+    private int pullU() {
+        int value = read8(u);
+        u = (u + 1) & 0xFFFF;
+        return value;
+    }
+
+    private void push(int value, boolean userStack) {
+        if (userStack) {
+            pushU(value);
+        } else {
+            pushS(value);
+        }
+    }
+
+    private void pushWord(int value, boolean userStack) {
+        push(value, userStack);
+        push(value >> 8, userStack);
+    }
+
+    private int pull(boolean userStack) {
+        return userStack ? pullU() : pullS();
+    }
+
+    private int pullWord(boolean userStack) {
+        int high = pull(userStack);
+        return (high << 8) | pull(userStack);
+    }
+
+    /* PSHS/PSHU postbyte: PC, U/S, Y, X, DP, B, A, CC, pushed in that order */
+    void pushRegisters(int postbyte, boolean userStack) {
+        if ((postbyte & 0x80) != 0) pushWord(pc, userStack);
+        if ((postbyte & 0x40) != 0) pushWord(userStack ? s : u, userStack);
+        if ((postbyte & 0x20) != 0) pushWord(y, userStack);
+        if ((postbyte & 0x10) != 0) pushWord(x, userStack);
+        if ((postbyte & 0x08) != 0) push(dp, userStack);
+        if ((postbyte & 0x04) != 0) push(b, userStack);
+        if ((postbyte & 0x02) != 0) push(a, userStack);
+        if ((postbyte & 0x01) != 0) push(flags(), userStack);
+    }
+
+    /* PULS/PULU pull in the reverse order of the pushes */
+    void pullRegisters(int postbyte, boolean userStack) {
+        if ((postbyte & 0x01) != 0) setCc(pull(userStack));
+        if ((postbyte & 0x02) != 0) a = pull(userStack);
+        if ((postbyte & 0x04) != 0) b = pull(userStack);
+        if ((postbyte & 0x08) != 0) dp = pull(userStack);
+        if ((postbyte & 0x10) != 0) x = pullWord(userStack);
+        if ((postbyte & 0x20) != 0) y = pullWord(userStack);
+        if ((postbyte & 0x40) != 0) {
+            if (userStack) {
+                s = pullWord(true);
+            } else {
+                u = pullWord(false);
+            }
+        }
+        if ((postbyte & 0x80) != 0) pc = pullWord(userStack);
+    }
+
+    /* Flag helpers: each computes a result, updates CC and returns the masked result */
+
+    int add8(int left, int right, int carry) {
+        int result = left + right + carry;
+        pendFlags(FLAGS_ADD8, left, right, result);
+        return result & 0xFF;
+    }
+
+    int sub8(int left, int right, int carry) {
+        int result = left - right - carry;
+        if (flagOp == FLAGS_ADD8) settleFlags(); // Keeps its H
+        pendFlags(FLAGS_SUB8, left, right, result);
+        return result & 0xFF;
+    }
+
+    int add16(int left, int right) {
+        int result = left + right;
+        if (flagOp == FLAGS_ADD8) settleFlags();
+        pendFlags(FLAGS_ADD16, left, right, result);
+        return result & 0xFFFF;
+    }
+
+    int sub16(int left, int right) {
+        int result = left - right;
+        if (flagOp == FLAGS_ADD8) settleFlags();
+        pendFlags(FLAGS_SUB16, left, right, result);
+        return result & 0xFFFF;
+    }
+
+    /* Loads, stores and logic ops: N and Z from the value, V cleared, C unchanged */
+    int move8(int value) {
+        value &= 0xFF;
+        if (flagOp < FLAGS_MOVE8 && flagOp != FLAGS_SETTLED) settleFlags(); // Keeps its C
+        pendFlags(FLAGS_MOVE8, 0, 0, value);
+        return value;
+    }
+
+    int move16(int value) {
+        value &= 0xFFFF;
+        if (flagOp < FLAGS_MOVE8 && flagOp != FLAGS_SETTLED) settleFlags();
+        pendFlags(FLAGS_MOVE16, 0, 0, value);
+        return value;
+    }
+
+    private void pendFlags(int op, int left, int right, int result) {
+        flagOp = op;
+        flagLeft = left;
+        flagRight = right;
+        flagResult = result;
+    }
+
+    /**
+     * Returns CC with every flag up to date.
+     */
+    int flags() {
+        if (flagOp != FLAGS_SETTLED) {
+            settleFlags();
+        }
+        return cc;
+    }
+
+    /* Works out the flags of the pending computation into CC */
+    private void settleFlags() {
+        int left = flagLeft;
+        int right = flagRight;
+        int result = flagResult;
+        int flags;
+        switch (flagOp) {
+            case FLAGS_ADD8:
+                flags = cc & ~(CC_H | CC_N | CC_Z | CC_V | CC_C);
+                if (((left ^ right ^ result) & 0x10) != 0) flags |= CC_H;
+                if ((result & 0x80) != 0) flags |= CC_N;
+                if ((result & 0xFF) == 0) flags |= CC_Z;
+                if (((left ^ result) & (right ^ result) & 0x80) != 0) flags |= CC_V;
+                if ((result & 0x100) != 0) flags |= CC_C;
+                break;
+            case FLAGS_SUB8:
+                flags = cc & ~(CC_N | CC_Z | CC_V | CC_C);
+                if ((result & 0x80) != 0) flags |= CC_N;
+                if ((result & 0xFF) == 0) flags |= CC_Z;
+                if (((left ^ right) & (left ^ result) & 0x80) != 0) flags |= CC_V;
+                if ((result & 0x100) != 0) flags |= CC_C;
+                break;
+            case FLAGS_ADD16:
+                flags = cc & ~(CC_N | CC_Z | CC_V | CC_C);
+                if ((result & 0x8000) != 0) flags |= CC_N;
+                if ((result & 0xFFFF) == 0) flags |= CC_Z;
+                if (((left ^ result) & (right ^ result) & 0x8000) != 0) flags |= CC_V;
+                if ((result & 0x10000) != 0) flags |= CC_C;
+                break;
+            case FLAGS_SUB16:
+                flags = cc & ~(CC_N | CC_Z | CC_V | CC_C);
+                if ((result & 0x8000) != 0) flags |= CC_N;
+                if ((result & 0xFFFF) == 0) flags |= CC_Z;
+                if (((left ^ right) & (left ^ result) & 0x8000) != 0) flags |= CC_V;
+                if ((result & 0x10000) != 0) flags |= CC_C;
+                break;
+            case FLAGS_MOVE8:
+                flags = cc & ~(CC_N | CC_Z | CC_V);
+                if ((result & 0x80) != 0) flags |= CC_N;
+                if (result == 0) flags |= CC_Z;
+                break;
+            case FLAGS_MOVE16:
+                flags = cc & ~(CC_N | CC_Z | CC_V);
+                if ((result & 0x8000) != 0) flags |= CC_N;
+                if (result == 0) flags |= CC_Z;
+                break;
+            default:
+                return;
+        }
+        cc = flags;
+        flagOp = FLAGS_SETTLED;
+    }
+
+    /* Sets N and Z from an 8-bit result, leaving the other flags alone */
+    private int nz8(int value) {
+        value &= 0xFF;
+        int flags = flags() & ~(CC_N | CC_Z);
+        if ((value & 0x80) != 0) flags |= CC_N;
+        if (value == 0) flags |= CC_Z;
+        cc = flags;
+        return value;
+    }
+
+    /* Read-modify-write operations */
+
+    int neg8(int value) {
+        return sub8(0, value, 0);
+    }
+
+    int com8(int value) {
+        value = move8(~value);
+        cc |= CC_C;
+        return value;
+    }
+
+    int lsr8(int value) {
+        cc = (flags() & ~CC_C) | (value & CC_C);
+        return nz8(value >> 1);
+    }
+
+    int ror8(int value) {
+        int carryIn = (flags() & CC_C) << 7;
+        cc = (cc & ~CC_C) | (value & CC_C);
+        return nz8(carryIn | (value >> 1));
+    }
+
+    int asr8(int value) {
+        cc = (flags() & ~CC_C) | (value & CC_C);
+        return nz8((value & 0x80) | (value >> 1));
+    }
+
+    int asl8(int value) {
+        int result = value << 1;
+        int flags = flags() & ~(CC_V | CC_C);
+        if ((value & 0x80) != 0) flags |= CC_C;
+        if (((value ^ result) & 0x80) != 0) flags |= CC_V;
+        cc = flags;
+        return nz8(result);
+    }
+
+    int rol8(int value) {
+        int result = (value << 1) | (flags() & CC_C);
+        int flags = cc & ~(CC_V | CC_C);
+        if ((value & 0x80) != 0) flags |= CC_C;
+        if (((value ^ result) & 0x80) != 0) flags |= CC_V;
+        cc = flags;
+        return nz8(result);
+    }
+
+    int dec8(int value) {
+        cc = value == 0x80 ? flags() | CC_V : flags() & ~CC_V;
+        return nz8(value - 1);
+    }
+
+    int inc8(int value) {
+        cc = value == 0x7F ? flags() | CC_V : flags() & ~CC_V;
+        return nz8(value + 1);
+    }
+
+    int clr8(int value) {
+        cc = (flags() & ~(CC_N | CC_V | CC_C)) | CC_Z;
+        return 0;
+    }
+
+    /* Inherent and miscellaneous instructions */
+
+    void mul() {
+        int product = a * b;
+        setD(product);
+        int flags = flags() & ~(CC_Z | CC_C);
+        if (product == 0) flags |= CC_Z;
+        if ((product & 0x80) != 0) flags |= CC_C;
+        cc = flags;
+    }
+
+    void daa() {
+        int correction = 0;
+        int lowNibble = a & 0x0F;
+        int highNibble = a & 0xF0;
+        if ((flags() & CC_H) != 0 || lowNibble > 9) {
+            correction |= 0x06;
+        }
+        if ((cc & CC_C) != 0 || highNibble > 0x90 || (highNibble > 0x80 && lowNibble > 9)) {
+            correction |= 0x60;
+        }
+        int result = a + correction;
+        a = nz8(result);
+        cc &= ~CC_V;
+        if ((result & 0x100) != 0) {
+            cc |= CC_C;
+        }
+    }
+
+    void sex() {
+        a = (b & 0x80) != 0 ? 0xFF : 0x00;
+        int flags = flags() & ~(CC_N | CC_Z);
+        if (a != 0) flags |= CC_N;
+        if (getD() == 0) flags |= CC_Z;
+        cc = flags;
+    }
+
+    /* LEAX and LEAY set Z from the new value */
+    int lea(int ea) {
+        cc = ea == 0 ? flags() | CC_Z : flags() & ~CC_Z;
+        return ea;
+    }
+
+    void jsr(int target) {
+        pushWordS(pc);
+        pc = target;
+    }
+
+    void rti() {
+        setCc(pullS());
+        if ((cc & CC_E) != 0) {
+            cycles += 9; // Unstacking the entire state takes 15 cycles instead of 6
+            a = pullS();
+            b = pullS();
+            dp = pullS();
+            x = pullWordS();
+            y = pullWordS();
+            u = pullWordS();
+        }
+        pc = pullWordS();
+    }
+
+    void swi(int vector, boolean maskInterrupts) {
+        cc |= CC_E;
+        pushRegisters(0xFF, false);
+        if (maskInterrupts) {
+            cc |= CC_I | CC_F;
+        }
+        pc = read16(vector);
+    }
+
+    void cwai(int mask) {
+        cc = (flags() & mask) | CC_E;
+        pushRegisters(0xFF, false);
+        waitState = WAIT_CWAI;
+    }
+
+    void sync() {
+        waitState = WAIT_SYNC;
+    }
+
+    /**
+     * Connects an interrupt source to the IRQ or FIRQ input, which is asserted while any of its sources is.
+     * Sources are only read on the thread running the CPU, after requestInterruptCheck().
+     */
+    public void addInterruptSource(int line, BooleanSupplier requested) {
+        if (line != IRQ && line != FIRQ) {
+            throw new IllegalArgumentException("Sources connect to IRQ or FIRQ");
+        }
+        (line == IRQ ? irqSources : firqSources).add(requested);
+        requestInterruptCheck();
+    }
+
+    public boolean hasInterruptSources() {
+        return !irqSources.isEmpty() || !firqSources.isEmpty();
+    }
+
+    /**
+     * Tells the CPU that a source's interrupt output may have changed; it is read again before the next
+     * instruction. Safe to call from any thread.
+     */
+    public void requestInterruptCheck() {
+        changeLines(POLL, 0);
+    }
+
+    /**
+     * Signals a non-maskable interrupt, which is taken before the next instruction. Safe to call from any thread.
+     */
+    public void nmi() {
+        changeLines(NMI, 0);
+    }
+
+    /**
+     * Returns the IRQ, FIRQ and NMI inputs currently asserted.
+     */
+    public int getInterruptLines() {
+        return interruptLines & (IRQ | FIRQ | NMI);
+    }
+
+    /* Called by compiled blocks after an access that may have reached a device */
+    boolean leaveBlock() {
+        return blockAborted || (interruptLines & ~cc) != 0 || scheduler.due < blockStop; // Or an event came sooner
+    }
+
+    private synchronized void changeLines(int set, int clear) {
+        interruptLines = (interruptLines & ~clear) | set;
+    }
+
+    /*
+     * Called before an instruction when an input is active or the CPU waits. Enters the handler of the highest
+     * priority unmasked interrupt, if any; returns true if the instruction at PC should run.
+     */
+    private boolean handleInterrupts() {
+        if ((interruptLines & POLL) != 0) {
+            changeLines(0, POLL); // Cleared first, so a change made while polling is seen next time
+            boolean irq = anyRequested(irqSources);
+            boolean firq = anyRequested(firqSources);
+            changeLines((irq ? IRQ : 0) | (firq ? FIRQ : 0), (irq ? 0 : IRQ) | (firq ? 0 : FIRQ));
+        }
+        int lines = interruptLines;
+        int line = (lines & NMI) != 0 ? NMI : (lines & FIRQ & ~cc) != 0 ? FIRQ : (lines & IRQ & ~cc) != 0 ? IRQ : 0;
+        if (line != 0) {
+            if (journal != null) {
+                journal.recordStep();
+            }
+            if (profiler != null) {
+                profiler.beforeInterrupt(this);
+            }
+            interrupt(line);
+            if (profiler != null) {
+                profiler.afterInterrupt(this);
+            }
+            instructionCount++;
+            return false;
+        }
+        if (waitState == WAIT_SYNC && (lines & (IRQ | FIRQ)) != 0) {
+            waitState = RUNNING; // A masked interrupt ends SYNC without being taken
+        }
+        return waitState == RUNNING;
+    }
+
+    /* Stacks the state for an interrupt, masks it and jumps through its vector */
+    private void interrupt(int line) {
+        boolean stacked = waitState == WAIT_CWAI;
+        waitState = RUNNING;
+        if (line == FIRQ) {
+            if (!stacked) {
+                cc &= ~CC_E;
+                pushRegisters(0x81, false); // PC and CC
+            }
+            cycles += stacked ? WAKE_CYCLES : FIRQ_CYCLES;
+            cc |= CC_I | CC_F;
+            pc = read16(VECTOR_FIRQ);
+            return;
+        }
+        if (!stacked) {
+            cc |= CC_E;
+            pushRegisters(0xFF, false);
+        }
+        cycles += stacked ? WAKE_CYCLES : IRQ_CYCLES;
+        if (line == NMI) {
+            changeLines(0, NMI); // Edge triggered
+            cc |= CC_I | CC_F;
+            pc = read16(VECTOR_NMI);
+        } else {
+            cc |= CC_I;
+            pc = read16(VECTOR_IRQ);
+        }
+    }
+
+    private static boolean anyRequested(List<BooleanSupplier> sources) {
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i).getAsBoolean()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Evaluates the branch condition encoded in the low nibble of a Bcc opcode */
+    boolean condition(int test) {
+        if ((test & 0xE) == 0x6 && flagOp != FLAGS_SETTLED) { // BNE and BEQ only need Z
+            return ((flagResult & FLAG_WIDTHS[flagOp]) == 0) == (test == 0x7);
+        }
+        int flags = flags();
+        boolean n = (flags & CC_N) != 0;
+        boolean z = (flags & CC_Z) != 0;
+        boolean v = (flags & CC_V) != 0;
+        boolean c = (flags & CC_C) != 0;
+        switch (test) {
+            case 0x0: return true;          // BRA
+            case 0x1: return false;         // BRN
+            case 0x2: return !(c || z);     // BHI
+            case 0x3: return c || z;        // BLS
+            case 0x4: return !c;            // BCC/BHS
+            case 0x5: return c;             // BCS/BLO
+            case 0x6: return !z;            // BNE
+            case 0x7: return z;             // BEQ
+            case 0x8: return !v;            // BVC
+            case 0x9: return v;             // BVS
+            case 0xA: return !n;            // BPL
+            case 0xB: return n;             // BMI
+            case 0xC: return n == v;        // BGE
+            case 0xD: return n != v;        // BLT
+            case 0xE: return !z && n == v;  // BGT
+            default: return z || n != v;    // BLE
+        }
+    }
+
+    /* TFR/EXG register codes: 0 D, 1 X, 2 Y, 3 U, 4 S, 5 PC, 8 A, 9 B, A CC, B DP */
+    private int transferRegister(int code) {
+        switch (code) {
+            case 0x0: return getD();
+            case 0x1: return x;
+            case 0x2: return y;
+            case 0x3: return u;
+            case 0x4: return s;
+            case 0x5: return pc;
+            case 0x8: return a;
+            case 0x9: return b;
+            case 0xA: return flags();
+            case 0xB: return dp;
+            default: return code < 8 ? 0xFFFF : 0xFF;
+        }
+    }
+
+    private void setTransferRegister(int code, int value) {
+        switch (code) {
+            case 0x0: setD(value); break;
+            case 0x1: x = value & 0xFFFF; break;
+            case 0x2: y = value & 0xFFFF; break;
+            case 0x3: u = value & 0xFFFF; break;
+            case 0x4: s = value & 0xFFFF; break;
+            case 0x5: pc = value & 0xFFFF; break;
+            case 0x8: a = value & 0xFF; break;
+            case 0x9: b = value & 0xFF; break;
+            case 0xA: setCc(value); break;
+            case 0xB: dp = value & 0xFF; break;
+            default: break;
+        }
+    }
+
+    /* Widens an 8-bit register value for a 16-bit destination; the high byte reads as FF */
+    private static int convert(int value, int source, int destination) {
+        if (source >= 8 && destination < 8) {
+            return 0xFF00 | value;
+        }
+        return value;
+    }
+
+    void tfr(int postbyte) {
+        int source = postbyte >> 4;
+        int destination = postbyte & 0x0F;
+        setTransferRegister(destination, convert(transferRegister(source), source, destination));
+    }
+
+    void exg(int postbyte) {
+        int first = postbyte >> 4;
+        int second = postbyte & 0x0F;
+        int firstValue = transferRegister(first);
+        int secondValue = transferRegister(second);
+        setTransferRegister(first, convert(secondValue, second, first));
+        setTransferRegister(second, convert(firstValue, first, second));
+    }
+
+    public Bus getBus() {
+        return bus;
+    }
+
+    public int getA() {
+        return a;
+    }
+
+    public void setA(int value) {
+        a = value & 0xFF;
+    }
+
+    public int getB() {
+        return b;
+    }
+
+    public void setB(int value) {
+        b = value & 0xFF;
+    }
+
+    /**
+     * Returns the 16-bit D accumulator, formed by A (high) and B (low).
+     */
+    public int getD() {
+        return (a << 8) | b;
+    }
+
+    public void setD(int value) {
+        a = (value >> 8) & 0xFF;
+        b = value & 0xFF;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public void setX(int value) {
+        x = value & 0xFFFF;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public void setY(int value) {
+        y = value & 0xFFFF;
+    }
+
+    public int getU() {
+        return u;
+    }
+
+    public void setU(int value) {
+        u = value & 0xFFFF;
+    }
+
+    public int getS() {
+        return s;
+    }
+
+    public void setS(int value) {
+        s = value & 0xFFFF;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public void setPc(int value) {
+        pc = value & 0xFFFF;
+    }
+
+    public int getDp() {
+        return dp;
+    }
+
+    public void setDp(int value) {
+        dp = value & 0xFF;
+    }
+
+    public int getCc() {
+        return flags();
+    }
+
+    public void setCc(int value) {
+        cc = value & 0xFF;
+        flagOp = FLAGS_SETTLED;
+    }
+
+    /**
+     * Returns RUNNING, or WAIT_CWAI/WAIT_SYNC while the CPU is halted waiting for an interrupt.
+     */
+    public int getWaitState() {
+        return waitState;
+    }
+
+    /**
+     * Records every following instruction into the given trace, or stops tracing when null.
+     * Must not be called while another thread is running the CPU.
+     */
+    public void setTracer(TraceRecorder tracer) {
+        this.tracer = tracer;
+    }
+
+    public TraceRecorder getTracer() {
+        return tracer;
+    }
+
+    /**
+     * Profiles every following instruction into the given profiler, or stops profiling when null.
+     * Must not be called while another thread is running the CPU.
+     */
+    public void setProfiler(Profiler profiler) {
+        this.profiler = profiler;
+    }
+
+    public Profiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Attaches the journal that records history for stepping backwards, or detaches it when null.
+     * Must not be called while another thread is running the CPU.
+     */
+    void setJournal(Journal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Attaches a translator that runCycles() uses to run hot code as compiled blocks, or detaches it when null.
+     * Translation only happens while no tracer, profiler or journal is attached. Must not be called while running.
+     */
+    public void setTranslator(BlockTranslator translator) {
+        this.translator = translator;
+    }
+
+    public BlockTranslator getTranslator() {
+        return translator;
+    }
+
+    public Journal getJournal() {
+        return journal;
+    }
+
+    public Breakpoints getBreakpoints() {
+        return breakpoints;
+    }
+
+    /**
+     * Returns the watchpoint triggered since the last call as {@code kind << 16 | address}, or -1 if none, and resets it.
+     */
+    public int takeWatchHit() {
+        int hit = watchHit;
+        watchHit = -1;
+        return hit;
+    }
+
+    /**
+     * Returns true if the next instruction is at an execution breakpoint whose condition holds.
+     */
+    public boolean atBreakpoint() {
+        return (breakpoints.execute[pc >>> 6] & (1L << pc)) != 0 && breakpoints.shouldBreak(Breakpoints.EXECUTE, pc, this);
+    }
+
+    /**
+     * Returns the address of the instruction most recently started by step().
+     */
+    public int getInstructionAddress() {
+        return instructionAddress;
+    }
+
+    /**
+     * Returns the number of instructions executed since the last reset.
+     */
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    /**
+     * Returns the number of E clock cycles consumed since the last reset. Each instruction adds its datasheet
+     * count: the base figure in its {@link Opcode} entry plus the indexed postbyte, PSH/PUL register
+     * and taken long branch extras.
+     */
+    public long getCycles() {
+        return cycles;
+    }
+}
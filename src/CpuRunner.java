@@ -0,0 +1,236 @@
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+
+/**
+ * Class representing a free-running executor for a {@link Cpu6809} on a dedicated thread.
+ * The core runs in batches and observers receive immutable {@link CpuSnapshot}s at a capped
+ * refresh rate instead of once per instruction.
+ *
+ * With a clock rate set, execution is paced against the cycle counter: the core runs a slice of
+ * cycles, then sleeps until wall-clock time catches up, so no per-instruction waiting is needed.
+ */
+public class CpuRunner {
+
+    public static final int DEFAULT_REFRESH_HZ = 30;
+    public static final long UNTHROTTLED = 0;
+
+    /* Cycles executed between clock checks when unthrottled */
+    private static final long BATCH_CYCLES = 1 << 15;
+    /* Paced runs sleep after every 1/100 s worth of cycles */
+    private static final int SLICES_PER_SECOND = 100;
+    /* If pacing falls further behind than this (a GC pause, a slow host), it restarts instead of bursting */
+    private static final long MAX_LAG_NANOS = 100_000_000L;
+
+    private static final String WAITING = "CPU is waiting for an interrupt";
+
+    private final Cpu6809 cpu;
+    private final Memory memory;
+    private final Consumer<CpuSnapshot> listener;
+    private final long refreshNanos;
+
+    private volatile boolean running;
+    private volatile String stopReason;
+    private volatile long clockHz = UNTHROTTLED;
+    private Thread worker;
+    private long sequence;
+
+    /* Cycle rate measurement between snapshots, runner thread only */
+    private long rateNanos;
+    private long rateCycles;
+
+    /**
+     * Creates a runner. The listener is called on the runner thread, at most refreshHz times per second
+     * while running and once more when execution stops.
+     */
+    public CpuRunner(Cpu6809 cpu, Memory memory, int refreshHz, Consumer<CpuSnapshot> listener) {
+        this.cpu = cpu;
+        this.memory = memory;
+        this.refreshNanos = 1_000_000_000L / refreshHz;
+        this.listener = listener;
+    }
+
+    public CpuRunner(Cpu6809 cpu, Memory memory, Consumer<CpuSnapshot> listener) {
+        this(cpu, memory, DEFAULT_REFRESH_HZ, listener);
+    }
+
+    /**
+     * Starts free-running execution from the current PC.
+     */
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Starts execution that stops as soon as {@code pcAllowed} rejects the address of the next instruction.
+     * A null predicate runs until paused, a breakpoint or watchpoint, an illegal opcode or a wait state.
+     */
+    public synchronized void start(IntPredicate pcAllowed) {
+        if (running) {
+            return;
+        }
+        running = true;
+        stopReason = null;
+        worker = new Thread(() -> runLoop(pcAllowed), "6809-runner");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stops execution and waits for the runner thread to finish its current batch.
+     */
+    public void pause() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = worker;
+        }
+        if (thread != null && thread != Thread.currentThread()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets the emulated E clock rate in Hz, such as 1_000_000 for 1 MHz, or UNTHROTTLED to run at full speed.
+     * Takes effect immediately, also during a run.
+     */
+    public void setClockHz(long hz) {
+        clockHz = hz;
+    }
+
+    public long getClockHz() {
+        return clockHz;
+    }
+
+    /**
+     * Returns why the last run stopped, or null if it was paused.
+     */
+    public String getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Takes a snapshot of the current state. Only valid while the runner is stopped;
+     * the CPU and memory belong to the runner thread while it is running.
+     */
+    public CpuSnapshot snapshot() {
+        if (running) {
+            throw new IllegalStateException("Cannot snapshot while running");
+        }
+        return takeSnapshot(false, 0);
+    }
+
+    private synchronized CpuSnapshot takeSnapshot(boolean stillRunning, double effectiveHz) {
+        long[] dirtyPages = new long[Memory.PAGE_COUNT / 64];
+        memory.takeDirtyPages(dirtyPages);
+        return new CpuSnapshot(cpu, memory.copy(), dirtyPages, ++sequence, stillRunning, effectiveHz);
+    }
+
+    /* Measures the cycle rate since the previous call; runner thread only */
+    private double measureRate(long now) {
+        long cycles = cpu.getCycles();
+        double hz = now > rateNanos ? (cycles - rateCycles) * 1e9 / (now - rateNanos) : 0;
+        rateNanos = now;
+        rateCycles = cycles;
+        return hz;
+    }
+
+    private void runLoop(IntPredicate pcAllowed) {
+        String reason = null;
+        long now = System.nanoTime();
+        long nextRefresh = now + refreshNanos;
+        measureRate(now);
+        long paceHz = -1;
+        long paceNanos = 0;
+        long paceCycles = 0;
+        boolean resume = true;
+        cpu.takeWatchHit();
+        try {
+            while (running && reason == null) {
+                long hz = clockHz;
+                if (hz != paceHz) {
+                    // Clock changed: pace from here rather than from the start of the run
+                    paceHz = hz;
+                    paceNanos = System.nanoTime();
+                    paceCycles = cpu.getCycles();
+                }
+                reason = runBatch(pcAllowed, hz == UNTHROTTLED ? BATCH_CYCLES : Math.max(1, hz / SLICES_PER_SECOND), resume);
+                resume = false;
+                now = System.nanoTime();
+                if (hz != UNTHROTTLED) {
+                    long due = paceNanos + (long) ((cpu.getCycles() - paceCycles) * 1e9 / hz);
+                    if (due > now) {
+                        Thread.sleep((due - now) / 1_000_000, (int) ((due - now) % 1_000_000));
+                        now = System.nanoTime();
+                    } else if (now - due > MAX_LAG_NANOS) {
+                        paceNanos = now;
+                        paceCycles = cpu.getCycles();
+                    }
+                } else if (cpu.getWaitState() != Cpu6809.RUNNING) {
+                    Thread.sleep(1); // Unthrottled, a waiting CPU would otherwise spin until its interrupt arrives
+                    now = System.nanoTime();
+                }
+                if (now >= nextRefresh) {
+                    listener.accept(takeSnapshot(true, measureRate(now)));
+                    nextRefresh = now + refreshNanos;
+                }
+            }
+        } catch (IllegalStateException e) {
+            reason = e.getMessage();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        stopReason = reason;
+        synchronized (this) {
+            running = false;
+            worker = null;
+        }
+        listener.accept(takeSnapshot(false, measureRate(System.nanoTime())));
+    }
+
+    /*
+     * Runs about cycleBudget cycles; returns why execution must stop, or null to continue.
+     * The breakpoint at the starting PC is skipped so that a run can resume from where it stopped.
+     */
+    private String runBatch(IntPredicate pcAllowed, long cycleBudget, boolean resume) {
+        if (pcAllowed == null && cpu.getBreakpoints().isEmpty()) {
+            // Nothing to check between instructions, so the core may run translated code
+            cpu.runCycles(cycleBudget); // Idles through CWAI and SYNC if an interrupt can end them
+            return cpu.getWaitState() != Cpu6809.RUNNING && !cpu.hasInterruptSources() ? WAITING : null;
+        }
+        long end = cpu.getCycles() + cycleBudget;
+        while (cpu.getCycles() < end) {
+            if (cpu.getWaitState() != Cpu6809.RUNNING) {
+                if (!cpu.hasInterruptSources()) {
+                    return WAITING;
+                }
+                cpu.step(); // Enters the handler if an interrupt has arrived
+                if (cpu.getWaitState() != Cpu6809.RUNNING) {
+                    cpu.idle(end - cpu.getCycles());
+                }
+                continue;
+            }
+            if (cpu.atBreakpoint() && !resume) {
+                return String.format("Breakpoint at %04X", cpu.getPc());
+            }
+            resume = false;
+            if (pcAllowed != null && !pcAllowed.test(cpu.getPc())) {
+                return String.format("PC left the program at %04X", cpu.getPc());
+            }
+            cpu.step();
+            int hit = cpu.takeWatchHit();
+            if (hit >= 0) {
+                return String.format("%s at %04X hit by instruction at %04X",
+                        Breakpoints.kindName(hit >> 16), hit & 0xFFFF, cpu.getInstructionAddress());
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * Class representing an immutable copy of the CPU registers and memory taken at one instant.
+ * Snapshots are handed from the runner thread to the GUI, so nothing here may change after construction.
+ */
+public final class CpuSnapshot {
+
+    private final int a;
+    private final int b;
+    private final int x;
+    private final int y;
+    private final int u;
+    private final int s;
+    private final int pc;
+    private final int dp;
+    private final int cc;
+    private final int waitState;
+    private final long instructionCount;
+    private final long cycles;
+    private final double effectiveHz;
+    private final Memory memory;
+    private final long[] dirtyPages;
+    private final long sequence;
+    private final boolean running;
+
+    CpuSnapshot(Cpu6809 cpu, Memory memory, long[] dirtyPages, long sequence, boolean running, double effectiveHz) {
+        this.a = cpu.getA();
+        this.b = cpu.getB();
+        this.x = cpu.getX();
+        this.y = cpu.getY();
+        this.u = cpu.getU();
+        this.s = cpu.getS();
+        this.pc = cpu.getPc();
+        this.dp = cpu.getDp();
+        this.cc = cpu.getCc();
+        this.waitState = cpu.getWaitState();
+        this.instructionCount = cpu.getInstructionCount();
+        this.cycles = cpu.getCycles();
+        this.effectiveHz = effectiveHz;
+        this.memory = memory;
+        this.dirtyPages = dirtyPages;
+        this.sequence = sequence;
+        this.running = running;
+    }
+
+    public int getA() {
+        return a;
+    }
+
+    public int getB() {
+        return b;
+    }
+
+    public int getD() {
+        return (a << 8) | b;
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getU() {
+        return u;
+    }
+
+    public int getS() {
+        return s;
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public int getDp() {
+        return dp;
+    }
+
+    public int getCc() {
+        return cc;
+    }
+
+    public int getWaitState() {
+        return waitState;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Returns the measured clock rate in Hz since the previous snapshot of the same run, or 0 if not running.
+     */
+    public double getEffectiveHz() {
+        return effectiveHz;
+    }
+
+    /**
+     * Returns the copy of memory taken with this snapshot. Callers must only read from it.
+     */
+    public Memory getMemory() {
+        return memory;
+    }
+
+    /**
+     * Returns true if the given 256-byte page was written between the previous snapshot and this one.
+     */
+    public boolean isPageDirty(int page) {
+        return (dirtyPages[page >>> 6] & (1L << (page & 63))) != 0;
+    }
+
+    /**
+     * Returns the position of this snapshot in the runner's sequence. A gap means snapshots were skipped,
+     * and the dirty pages then only cover the last interval.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns true if the runner was still executing when the snapshot was taken.
+     */
+    public boolean isRunning() {
+        return running;
+    }
+}
@@ -0,0 +1,268 @@
+import java.util.Arrays;
+
+/**
+ * Class representing the predecoded instructions of a {@link Cpu6809}, keyed by the address of their first byte.
+ *
+ * An entry holds the opcode (and with it the handler and addressing mode), the resolved operand, the address of
+ * the next instruction and the total cycle count, so an instruction that has run before is executed without
+ * fetching or decoding any of its bytes. The operand is the effective address for immediate, extended and
+ * relative modes, the low address byte for direct mode and the postbyte for indexed mode, whose constant part
+ * is kept separately in offsets.
+ *
+ * Entries are kept per 256-byte page and a page's entries are only allocated once code on it is first decoded,
+ * so a CPU holds a few KB for each page of code it has run rather than slots for the whole address space.
+ * Pages pooled in the memory's {@link PageStore}, such as the ROM of a {@link MachineHost}, are never written,
+ * so their entries are decoded once, for the instructions that lie wholly within the page, and shared by every
+ * CPU of the host; an instruction running into the next page is left to the interpreter there.
+ *
+ * Every page holding a decoded instruction is watched in {@link Memory}; the first write to it drops the entries
+ * on that page, and those of the last instructions of the page before, which may run into it.
+ */
+final class DecodeCache {
+
+    static final int MAX_INSTRUCTION_LENGTH = 5; // Prefix, opcode, postbyte and two offset bytes
+
+    /* Layout of an entry in Page.data */
+    static final int OPERAND = 0;
+    static final int OFFSET = 1;
+    static final int NEXT = 2;
+    static final int CYCLES = 3;
+    static final int ENTRY_SIZE = 4;
+
+    /* Approximate heap size of a Page: the entries and an opcode reference per address */
+    static final int PAGE_BYTES = Memory.PAGE_SIZE * (ENTRY_SIZE + 1) * 4;
+
+    /* The entries of one page: an opcode per address, or null, and its ENTRY_SIZE ints in data */
+    static final class Page {
+        final Opcode[] opcodes = new Opcode[Memory.PAGE_SIZE];
+        final int[] data = new int[Memory.PAGE_SIZE * ENTRY_SIZE];
+        final boolean shared; // Filled once from a pooled page and never changed after
+
+        Page(boolean shared) {
+            this.shared = shared;
+        }
+    }
+
+    /* Null until code on the page is decoded; package-private so the core reads entries without a call */
+    final Page[] pages = new Page[Memory.PAGE_COUNT];
+
+    private final Memory memory;
+
+    DecodeCache(Memory memory) {
+        this.memory = memory;
+        memory.addCodeListener(this::invalidatePage);
+    }
+
+    /**
+     * Returns the opcode of the instruction at an address, decoding it first if needed, or null if it
+     * cannot be cached: undefined opcodes and indexed postbytes, and instructions wrapping past FFFF,
+     * are left to the interpreter, as is code on pages with devices.
+     */
+    Opcode lookup(int address) {
+        Page page = pages[address >>> 8];
+        Opcode opcode = page != null ? page.opcodes[address & 0xFF] : null;
+        return opcode != null ? opcode : decode(address);
+    }
+
+    /* The fields of an entry, valid once lookup() has returned an opcode for the address */
+
+    int operand(int address) {
+        return pages[address >>> 8].data[(address & 0xFF) * ENTRY_SIZE + OPERAND];
+    }
+
+    int offset(int address) {
+        return pages[address >>> 8].data[(address & 0xFF) * ENTRY_SIZE + OFFSET];
+    }
+
+    int next(int address) {
+        return pages[address >>> 8].data[(address & 0xFF) * ENTRY_SIZE + NEXT];
+    }
+
+    /**
+     * Drops every entry.
+     */
+    void clear() {
+        for (int number = 0; number < Memory.PAGE_COUNT; number++) {
+            if (pages[number] != null && pages[number].shared) {
+                pages[number] = null;
+            } else if (pages[number] != null) {
+                Arrays.fill(pages[number].opcodes, null);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of pages whose entries this cache holds on its own, rather than shares.
+     */
+    int getPrivatePageCount() {
+        int count = 0;
+        for (Page page : pages) {
+            if (page != null && !page.shared) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Opcode decode(int address) {
+        int number = address >>> 8;
+        Page page = pages[number];
+        if (page == null && memory.store != null && memory.isShared(number) && !memory.hasDevices(number)) {
+            page = sharedPage(number);
+        }
+        if (page != null && page.shared) {
+            return page.opcodes[address & 0xFF]; // Null where the instruction is not cached
+        }
+        return decodeInto(page, address, false);
+    }
+
+    /* Returns the shared entries of a pooled page, decoding them if no CPU has yet, or null if it is not pooled */
+    private Page sharedPage(int number) {
+        byte[] data = memory.page(number);
+        PageStore store = memory.store;
+        if (!store.isPooled(data)) {
+            return null;
+        }
+        Page page = store.getDecoded(data, number);
+        if (page == null) {
+            page = new Page(true);
+            for (int offset = 0; offset < Memory.PAGE_SIZE; offset++) {
+                decodeInto(page, (number << 8) | offset, true);
+            }
+            page = store.shareDecoded(data, number, page); // Another CPU may have got there first
+        }
+        pages[number] = page;
+        memory.watchCodePage(number);
+        return page;
+    }
+
+    /*
+     * Decodes the instruction at an address into a page's entries, allocating a private page if given none, and
+     * watches the pages it lies on. For a shared page, withinPage leaves out instructions running into the next
+     * page and the caller watches the page. Returns the opcode, or null if the instruction is not cached.
+     */
+    private Opcode decodeInto(Page page, int address, boolean withinPage) {
+        int at = address;
+        int code = memory.peek8(at++);
+        Opcode opcode;
+        if (code == 0x10 || code == 0x11) {
+            opcode = OpcodeTable.lookup((code << 8) | memory.peek8(at++));
+        } else {
+            opcode = OpcodeTable.lookup(code);
+        }
+        if (!opcode.isDefined()) {
+            return null;
+        }
+        int length = opcode.operandLength();
+        int extraCycles = 0;
+        if (opcode.mode == Opcode.INDEXED) {
+            int postbyte = memory.peek8(at);
+            int extra = indexedExtraBytes(postbyte);
+            if (extra < 0) {
+                return null;
+            }
+            length += extra;
+            extraCycles = Cpu6809.indexedCycles(postbyte);
+        }
+        int next = at + length;
+        if (next > Memory.SIZE || memory.hasDevices(address >>> 8) || memory.hasDevices((next - 1) >>> 8)) {
+            return null; // Device registers may change without a write, so code there is always fetched
+        }
+        if (withinPage && (next - 1) >>> 8 != address >>> 8) {
+            return null;
+        }
+        if (page == null) {
+            page = new Page(false);
+            pages[address >>> 8] = page;
+        }
+        int slot = (address & 0xFF) * ENTRY_SIZE;
+        int operand = operand(opcode.mode, at, next);
+        page.data[slot + OPERAND] = operand;
+        page.data[slot + OFFSET] = opcode.mode == Opcode.INDEXED ? indexedOffset(operand, at + 1, next) : 0;
+        page.data[slot + NEXT] = next & 0xFFFF;
+        page.data[slot + CYCLES] = opcode.cycles + extraCycles;
+        page.opcodes[address & 0xFF] = opcode;
+        if (!withinPage) {
+            memory.watchCodePage(address >>> 8);
+            memory.watchCodePage((next - 1) >>> 8);
+        }
+        return opcode;
+    }
+
+    private int operand(int mode, int operandAddress, int next) {
+        switch (mode) {
+            case Opcode.IMMEDIATE8:
+            case Opcode.IMMEDIATE16:
+                return operandAddress;
+            case Opcode.DIRECT:
+            case Opcode.INDEXED:
+                return memory.peek8(operandAddress);
+            case Opcode.EXTENDED:
+                return peek16(operandAddress);
+            case Opcode.RELATIVE8:
+                return (next + (byte) memory.peek8(operandAddress)) & 0xFFFF;
+            case Opcode.RELATIVE16:
+                return (next + (short) peek16(operandAddress)) & 0xFFFF;
+            default:
+                return 0;
+        }
+    }
+
+    /* The constant part of an indexed address: the signed offset, or the full address for PC-relative and [n16] */
+    private int indexedOffset(int postbyte, int offsetAddress, int next) {
+        if ((postbyte & 0x80) == 0) {
+            return (postbyte & 0x10) != 0 ? (postbyte & 0x0F) - 16 : postbyte & 0x0F;
+        }
+        switch (postbyte & 0x0F) {
+            case 0x08:
+                return (byte) memory.peek8(offsetAddress);
+            case 0x09:
+            case 0x0F:
+                return peek16(offsetAddress);
+            case 0x0C:
+                return (next + (byte) memory.peek8(offsetAddress)) & 0xFFFF;
+            case 0x0D:
+                return (next + peek16(offsetAddress)) & 0xFFFF;
+            default:
+                return 0;
+        }
+    }
+
+    /* Offset bytes after an indexed postbyte, or -1 for postbytes the core rejects */
+    private static int indexedExtraBytes(int postbyte) {
+        if ((postbyte & 0x80) == 0) {
+            return 0;
+        }
+        switch (postbyte & 0x0F) {
+            case 0x08:
+            case 0x0C:
+                return 1;
+            case 0x09:
+            case 0x0D:
+            case 0x0F:
+                return 2;
+            case 0x07:
+            case 0x0A:
+            case 0x0E:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private int peek16(int address) {
+        return (memory.peek8(address) << 8) | memory.peek8((address + 1) & 0xFFFF);
+    }
+
+    /* Called by memory when a watched page is written */
+    private void invalidatePage(int page) {
+        if (pages[page] != null && pages[page].shared) {
+            pages[page] = null; // Left to other CPUs; the page is looked up again when its code next runs
+        } else if (pages[page] != null) {
+            Arrays.fill(pages[page].opcodes, null); // The entries stay allocated for when the code is decoded again
+        }
+        if (page > 0 && pages[page - 1] != null && !pages[page - 1].shared) { // Shared entries never run past their page
+            Arrays.fill(pages[page - 1].opcodes, Memory.PAGE_SIZE - (MAX_INSTRUCTION_LENGTH - 1), Memory.PAGE_SIZE, null);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/**
+ * Interface representing a memory-mapped peripheral attached to {@link Memory}.
+ * Registers are numbered from 0 at the first address of the range the device is attached to.
+ */
+public interface Device {
+
+    /**
+     * Reads a register as the CPU does, with any side effect such as clearing a status flag.
+     */
+    int read(int register);
+
+    /**
+     * Writes the low byte of value to a register.
+     */
+    void write(int register, int value);
+
+    /**
+     * Returns what read() would, without side effects, for debuggers, traces and breakpoint conditions.
+     */
+    int peek(int register);
+}
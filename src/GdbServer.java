@@ -0,0 +1,804 @@
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Class representing a GDB remote serial protocol stub for a {@link Cpu6809}, so GDB, an IDE or a script can
+ * read and write registers and memory, set breakpoints and watchpoints, single-step and continue.
+ *
+ * The server listens on the loopback interface only and serves one debugger at a time. A single thread runs
+ * an NIO selector over the listening and client sockets and also runs the CPU: while the target is continuing
+ * it executes batches of cycles between non-blocking polls of the socket, so an interrupt (Ctrl-C) stops it
+ * within a batch. The CPU and memory therefore belong to the server thread from start() to close(); they must not
+ * be used elsewhere meanwhile, as with a {@link CpuRunner}.
+ *
+ * Replies are built in place in a single output buffer. A memory read is encoded as hex straight from the memory's
+ * page arrays, a page at a time, and only pages holding devices are read byte by byte, without side effects; the
+ * packet size offered lets GDB fetch 8 KB per request. A reply the socket cannot take at once is finished when it
+ * becomes writable, and no further packet is handled until then. Memory writes bypass devices and ROM protection,
+ * like loading an image, so GDB's load command can replace a ROM.
+ *
+ * Registers are numbered cc, a, b, dp, x, y, u, s, pc, big-endian, as the target description sent to GDB says.
+ */
+public class GdbServer {
+
+    public static final int DEFAULT_PORT = 1234;
+
+    private static final int MAX_PACKET = 0x4000; // Characters between '$' and '#', in either direction
+    private static final long BATCH_CYCLES = 1 << 15; // Cycles run between polls while continuing
+    private static final byte INTERRUPT = 0x03;
+
+    /* Signals in stop replies */
+    private static final int SIGINT = 2;
+    private static final int SIGILL = 4;
+    private static final int SIGTRAP = 5;
+
+    private static final int[] REGISTER_BYTES = {1, 1, 1, 1, 2, 2, 2, 2, 2};
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    private static final String TARGET_XML = "<?xml version=\"1.0\"?>"
+            + "<!DOCTYPE target SYSTEM \"gdb-target.dtd\">"
+            + "<target version=\"1.0\"><feature name=\"org.gnu.gdb.m6809.core\">"
+            + "<reg name=\"cc\" bitsize=\"8\" type=\"uint8\"/>"
+            + "<reg name=\"a\" bitsize=\"8\" type=\"uint8\"/>"
+            + "<reg name=\"b\" bitsize=\"8\" type=\"uint8\"/>"
+            + "<reg name=\"dp\" bitsize=\"8\" type=\"uint8\"/>"
+            + "<reg name=\"x\" bitsize=\"16\" type=\"data_ptr\"/>"
+            + "<reg name=\"y\" bitsize=\"16\" type=\"data_ptr\"/>"
+            + "<reg name=\"u\" bitsize=\"16\" type=\"data_ptr\"/>"
+            + "<reg name=\"s\" bitsize=\"16\" type=\"data_ptr\"/>"
+            + "<reg name=\"pc\" bitsize=\"16\" type=\"code_ptr\"/>"
+            + "</feature></target>";
+
+    /* Receive states */
+    private static final int IDLE = 0;
+    private static final int DATA = 1;
+    private static final int CHECKSUM_HIGH = 2;
+    private static final int CHECKSUM_LOW = 3;
+
+    private final Cpu6809 cpu;
+    private final Memory memory;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private Thread thread;
+    private volatile boolean open = true;
+
+    /* Connection state, server thread only */
+    private SocketChannel client;
+    private final ByteBuffer in = ByteBuffer.allocate(MAX_PACKET + 4);
+    private final ByteBuffer out = ByteBuffer.allocate(MAX_PACKET + 5); // An acknowledgement and one packet
+    private final byte[] packet = new byte[MAX_PACKET];
+    private int packetLength;
+    private int state = IDLE;
+    private int sum;
+    private int checksum;
+    private int cursor; // Parse position in packet
+    private boolean acknowledge;
+    private boolean closeAfterReply;
+
+    /* Execution state, server thread only */
+    private boolean running;
+    private boolean resume; // Continuing from a breakpoint: it is not reported again
+    private int signal = SIGTRAP;
+    private int watchHit = -1;
+
+    /**
+     * Creates a server on a loopback port; port 0 picks a free one.
+     */
+    public GdbServer(Cpu6809 cpu, Memory memory, int port) throws IOException {
+        this.cpu = cpu;
+        this.memory = memory;
+        this.selector = Selector.open();
+        this.server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Starts serving on a thread of its own.
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this::serve, "gdb-server");
+            thread.start();
+        }
+    }
+
+    /**
+     * Returns the port the server listens on.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Stops serving, dropping any debugger, and waits for the server thread to finish.
+     */
+    public void close() {
+        open = false;
+        selector.wakeup();
+        Thread serving;
+        synchronized (this) {
+            serving = thread;
+        }
+        if (serving != null && serving != Thread.currentThread()) {
+            try {
+                serving.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void serve() {
+        try {
+            while (open) {
+                // While the target runs, poll between batches; otherwise, or if nothing can wake the CPU, block
+                boolean halted = cpu.getWaitState() != Cpu6809.RUNNING && !cpu.hasInterruptSources();
+                if (running && !halted) {
+                    selector.selectNow();
+                } else {
+                    selector.select();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    try {
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else if (key.isReadable() || key.isWritable()) {
+                            transfer();
+                        }
+                    } catch (IOException e) {
+                        disconnect();
+                    }
+                }
+                selector.selectedKeys().clear();
+                if (running && client != null) {
+                    continueTarget();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("GDB server stopped: " + e.getMessage());
+        } finally {
+            disconnect();
+            try {
+                server.close();
+                selector.close();
+            } catch (IOException e) {
+                // Closing anyway
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        if (client != null) {
+            channel.close(); // One debugger at a time
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true); // Replies are small and awaited one by one
+        channel.register(selector, SelectionKey.OP_READ);
+        client = channel;
+        in.clear();
+        out.clear();
+        state = IDLE;
+        acknowledge = true;
+        closeAfterReply = false;
+        running = false;
+        signal = SIGTRAP;
+        watchHit = -1;
+    }
+
+    private void disconnect() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            client = null;
+        }
+        running = false;
+    }
+
+    /* Reads what has arrived and handles complete packets, as long as earlier replies have been sent */
+    private void transfer() throws IOException {
+        if (!flush()) {
+            return;
+        }
+        if (client.read(in) < 0) {
+            disconnect();
+            return;
+        }
+        in.flip();
+        while (in.hasRemaining() && client != null && out.position() == 0) {
+            receive(in.get());
+            if (out.position() > 0 && !flush()) {
+                break;
+            }
+        }
+        in.compact();
+    }
+
+    /* Writes out as much of the output buffer as the socket takes; returns true once it is empty */
+    private boolean flush() throws IOException {
+        if (client == null) {
+            return false;
+        }
+        out.flip();
+        client.write(out);
+        out.compact();
+        boolean done = out.position() == 0;
+        if (done && closeAfterReply) {
+            disconnect();
+            return false;
+        }
+        client.keyFor(selector).interestOps(done ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        return done;
+    }
+
+    /* Feeds one received byte through the packet framing */
+    private void receive(byte value) {
+        switch (state) {
+            case IDLE:
+                if (value == '$') {
+                    state = DATA;
+                    packetLength = 0;
+                    sum = 0;
+                } else if (value == INTERRUPT && running) {
+                    stop(SIGINT);
+                }
+                // '+' and '-' are ignored: TCP does not corrupt packets, so none is ever sent again
+                break;
+            case DATA:
+                if (value == '#') {
+                    state = CHECKSUM_HIGH;
+                } else {
+                    sum += value & 0xFF;
+                    if (packetLength < packet.length) {
+                        packet[packetLength] = value;
+                    }
+                    packetLength++;
+                }
+                break;
+            case CHECKSUM_HIGH:
+                checksum = hexDigit(value) << 4;
+                state = CHECKSUM_LOW;
+                break;
+            default:
+                checksum |= hexDigit(value);
+                state = IDLE;
+                boolean valid = checksum == (sum & 0xFF) && packetLength <= packet.length;
+                if (acknowledge) {
+                    out.put((byte) (valid ? '+' : '-'));
+                }
+                if (valid || !acknowledge) {
+                    handle();
+                }
+                break;
+        }
+    }
+
+    /* Handles the packet just received, leaving its reply, if any, in the output buffer */
+    private void handle() {
+        if (packetLength == 0) {
+            reply("");
+            return;
+        }
+        cursor = 1;
+        try {
+            switch (packet[0]) {
+                case '?':
+                    stopReply();
+                    break;
+                case 'g':
+                    readRegisters();
+                    break;
+                case 'G':
+                    writeRegisters();
+                    break;
+                case 'p':
+                    readRegister((int) hex());
+                    break;
+                case 'P':
+                    writeRegister();
+                    break;
+                case 'm':
+                    readMemory();
+                    break;
+                case 'M':
+                case 'X':
+                    writeMemory(packet[0] == 'X');
+                    break;
+                case 'Z':
+                case 'z':
+                    breakpoint(packet[0] == 'Z');
+                    break;
+                case 's':
+                    resumeAt();
+                    step();
+                    break;
+                case 'c':
+                    resumeAt();
+                    running = true;
+                    resume = true;
+                    watchHit = -1;
+                    break; // Replied to when the target stops
+                case 'H':
+                case 'T':
+                    reply("OK"); // A single thread
+                    break;
+                case 'D':
+                    reply("OK");
+                    closeAfterReply = true;
+                    break;
+                case 'k':
+                    disconnect();
+                    break;
+                case 'q':
+                case 'Q':
+                case 'v':
+                    query(new String(packet, 0, Math.min(packetLength, packet.length), StandardCharsets.ISO_8859_1));
+                    break;
+                default:
+                    reply(""); // Not supported
+                    break;
+            }
+        } catch (RuntimeException e) { // A malformed packet, or one the target rejects, must not end the server
+            out.clear();
+            if (acknowledge) {
+                out.put((byte) '+');
+            }
+            reply("E01");
+        }
+    }
+
+    private void query(String text) {
+        if (text.startsWith("qSupported")) {
+            reply(String.format("PacketSize=%x;qXfer:features:read+;QStartNoAckMode+", MAX_PACKET));
+        } else if (text.equals("QStartNoAckMode")) {
+            reply("OK");
+            acknowledge = false;
+        } else if (text.startsWith("qXfer:features:read:target.xml:")) {
+            cursor = "qXfer:features:read:target.xml:".length();
+            int offset = (int) Math.min(hex(), TARGET_XML.length());
+            expect(',');
+            int length = (int) Math.min(hex(), MAX_PACKET - 1);
+            int end = Math.min(TARGET_XML.length(), offset + length);
+            reply((end == TARGET_XML.length() ? "l" : "m") + TARGET_XML.substring(offset, end));
+        } else if (text.equals("qAttached")) {
+            reply("1");
+        } else if (text.equals("qC")) {
+            reply("QC1");
+        } else if (text.equals("qfThreadInfo")) {
+            reply("m1");
+        } else if (text.equals("qsThreadInfo")) {
+            reply("l");
+        } else if (text.equals("vKill") || text.startsWith("vKill;")) {
+            reply("OK");
+            closeAfterReply = true;
+        } else {
+            reply(""); // Including vCont?, so GDB uses s and c
+        }
+    }
+
+    /* Registers */
+
+    private int register(int number) {
+        switch (number) {
+            case 0: return cpu.getCc();
+            case 1: return cpu.getA();
+            case 2: return cpu.getB();
+            case 3: return cpu.getDp();
+            case 4: return cpu.getX();
+            case 5: return cpu.getY();
+            case 6: return cpu.getU();
+            case 7: return cpu.getS();
+            case 8: return cpu.getPc();
+            default: throw new IllegalArgumentException("No register " + number);
+        }
+    }
+
+    private void setRegister(int number, int value) {
+        switch (number) {
+            case 0: cpu.setCc(value); break;
+            case 1: cpu.setA(value); break;
+            case 2: cpu.setB(value); break;
+            case 3: cpu.setDp(value); break;
+            case 4: cpu.setX(value); break;
+            case 5: cpu.setY(value); break;
+            case 6: cpu.setU(value); break;
+            case 7: cpu.setS(value); break;
+            case 8: cpu.setPc(value); break;
+            default: throw new IllegalArgumentException("No register " + number);
+        }
+    }
+
+    private void readRegisters() {
+        int start = begin();
+        for (int number = 0; number < REGISTER_BYTES.length; number++) {
+            putHex(register(number), REGISTER_BYTES[number]);
+        }
+        end(start);
+    }
+
+    private void writeRegisters() {
+        for (int number = 0; number < REGISTER_BYTES.length; number++) {
+            setRegister(number, fixedHex(REGISTER_BYTES[number]));
+        }
+        reply("OK");
+    }
+
+    private void readRegister(int number) {
+        if (number < 0 || number >= REGISTER_BYTES.length) {
+            throw new IllegalArgumentException("No register " + number);
+        }
+        int start = begin();
+        putHex(register(number), REGISTER_BYTES[number]);
+        end(start);
+    }
+
+    private void writeRegister() {
+        int number = (int) hex();
+        expect('=');
+        if (number < 0 || number >= REGISTER_BYTES.length) {
+            throw new IllegalArgumentException("No register " + number);
+        }
+        setRegister(number, fixedHex(REGISTER_BYTES[number]));
+        reply("OK");
+    }
+
+    /* Memory */
+
+    /* Encodes the bytes as hex straight from the page arrays, peeking only on pages with devices */
+    private void readMemory() {
+        long address = hex();
+        expect(',');
+        long length = hex();
+        if (address >= Memory.SIZE) {
+            throw new IllegalArgumentException("Outside memory");
+        }
+        int count = (int) Math.min(Math.min(length, Memory.SIZE - address), MAX_PACKET / 2); // GDB asks for the rest
+        int start = begin();
+        byte[] buffer = out.array();
+        int position = out.position();
+        int next = (int) address;
+        int last = next + count;
+        while (next < last) {
+            int page = next >>> 8;
+            int end = Math.min(last, (page + 1) << 8);
+            if (memory.hasDevices(page)) {
+                for (; next < end; next++) {
+                    int value = memory.peek8(next);
+                    buffer[position++] = HEX[value >>> 4];
+                    buffer[position++] = HEX[value & 0x0F];
+                }
+            } else {
+                byte[] data = memory.page(page);
+                for (int offset = next & 0xFF; next < end; next++, offset++) {
+                    buffer[position++] = HEX[(data[offset] >>> 4) & 0x0F];
+                    buffer[position++] = HEX[data[offset] & 0x0F];
+                }
+            }
+        }
+        out.position(position);
+        end(start);
+    }
+
+    /* M addr,length:hex or X addr,length:binary; the bytes are decoded in place over the packet */
+    private void writeMemory(boolean binary) {
+        long address = hex();
+        expect(',');
+        long length = hex();
+        expect(':');
+        if (address + length > Memory.SIZE) {
+            throw new IllegalArgumentException("Outside memory");
+        }
+        int start = cursor;
+        int count = 0;
+        int end = Math.min(packetLength, packet.length);
+        while (count < length) {
+            if (binary) {
+                if (cursor >= end) {
+                    throw new IllegalArgumentException("Data is short");
+                }
+                byte value = packet[cursor++];
+                if (value == '}') {
+                    if (cursor >= end) {
+                        throw new IllegalArgumentException("Data is short");
+                    }
+                    value = (byte) (packet[cursor++] ^ 0x20);
+                }
+                packet[start + count] = value;
+            } else {
+                packet[start + count] = (byte) fixedHex(1);
+            }
+            count++;
+        }
+        if (count > 0) {
+            memory.load((int) address, ByteBuffer.wrap(packet, start, count));
+        }
+        reply("OK");
+    }
+
+    /* Z/z type,address,kind: 0 and 1 are breakpoints, 2 write, 3 read and 4 access watchpoints of kind bytes */
+    private void breakpoint(boolean insert) {
+        int type = (int) hex();
+        expect(',');
+        long address = hex();
+        expect(',');
+        long kind = hex();
+        if (type < 0 || type > 4 || address >= Memory.SIZE) {
+            reply("");
+            return;
+        }
+        long length = type <= 1 ? 1 : Math.max(1, Math.min(kind, Memory.SIZE - address));
+        Breakpoints breakpoints = cpu.getBreakpoints();
+        for (int i = 0; i < length; i++) {
+            int at = (int) address + i;
+            if (type <= 1) {
+                set(breakpoints, Breakpoints.EXECUTE, at, insert);
+            }
+            if (type == 2 || type == 4) {
+                set(breakpoints, Breakpoints.WRITE, at, insert);
+            }
+            if (type == 3 || type == 4) {
+                set(breakpoints, Breakpoints.READ, at, insert);
+            }
+        }
+        reply("OK");
+    }
+
+    private static void set(Breakpoints breakpoints, int kind, int address, boolean insert) {
+        if (insert) {
+            breakpoints.set(kind, address, null);
+        } else {
+            breakpoints.clear(kind, address);
+        }
+    }
+
+    /* Execution */
+
+    /* s and c may give the address to resume at */
+    private void resumeAt() {
+        if (cursor < packetLength) {
+            cpu.setPc((int) hex());
+        }
+    }
+
+    private void step() {
+        watchHit = -1;
+        cpu.takeWatchHit();
+        try {
+            cpu.step();
+            watchHit = cpu.takeWatchHit();
+            signal = SIGTRAP;
+        } catch (IllegalStateException e) {
+            signal = SIGILL;
+        }
+        stopReply();
+    }
+
+    /* Runs one batch of the continuing target and replies if it stopped */
+    private void continueTarget() {
+        try {
+            int stopped = runBatch();
+            if (stopped != 0) {
+                stop(stopped);
+            }
+        } catch (IllegalStateException e) {
+            stop(SIGILL);
+        }
+        if (out.position() > 0) {
+            try {
+                flush();
+            } catch (IOException e) {
+                disconnect();
+            }
+        }
+    }
+
+    /* Runs about BATCH_CYCLES cycles; returns the signal to stop with, or 0 to go on */
+    private int runBatch() {
+        if (cpu.getBreakpoints().isEmpty()) {
+            cpu.runCycles(BATCH_CYCLES); // Idles through CWAI and SYNC if an interrupt can end them
+            return 0;
+        }
+        if (resume) {
+            cpu.takeWatchHit();
+        }
+        long end = cpu.getCycles() + BATCH_CYCLES;
+        while (cpu.getCycles() < end) {
+            if (cpu.getWaitState() != Cpu6809.RUNNING) {
+                if (!cpu.hasInterruptSources()) {
+                    return 0; // Only an interrupt from the debugger ends this
+                }
+                cpu.step(); // Enters the handler if an interrupt has arrived
+                if (cpu.getWaitState() != Cpu6809.RUNNING) {
+                    cpu.idle(end - cpu.getCycles());
+                }
+                continue;
+            }
+            if (cpu.atBreakpoint() && !resume) {
+                return SIGTRAP;
+            }
+            resume = false;
+            cpu.step();
+            int hit = cpu.takeWatchHit();
+            if (hit >= 0) {
+                watchHit = hit;
+                return SIGTRAP;
+            }
+        }
+        return 0;
+    }
+
+    private void stop(int stopSignal) {
+        running = false;
+        signal = stopSignal;
+        stopReply();
+    }
+
+    /* S or, after a watchpoint, T with the kind and address GDB needs to report it */
+    private void stopReply() {
+        if (watchHit >= 0 && signal == SIGTRAP) {
+            reply(String.format("T%02x%s:%04x;", signal, (watchHit >> 16) == Breakpoints.WRITE ? "watch" : "rwatch",
+                    watchHit & 0xFFFF));
+        } else {
+            reply(String.format("S%02x", signal));
+        }
+    }
+
+    /* Packet building and parsing */
+
+    private void reply(String text) {
+        int start = begin();
+        for (int i = 0; i < text.length(); i++) {
+            out.put((byte) text.charAt(i));
+        }
+        end(start);
+    }
+
+    private int begin() {
+        out.put((byte) '$');
+        return out.position();
+    }
+
+    private void end(int start) {
+        byte[] buffer = out.array();
+        int total = 0;
+        for (int i = start; i < out.position(); i++) {
+            total += buffer[i] & 0xFF;
+        }
+        out.put((byte) '#');
+        putHex(total & 0xFF, 1);
+    }
+
+    private void putHex(int value, int bytes) {
+        for (int shift = bytes * 8 - 4; shift >= 0; shift -= 4) {
+            out.put(HEX[(value >>> shift) & 0x0F]);
+        }
+    }
+
+    /* Parses hex digits from the cursor, at least one and at most 8, so the value is never negative */
+    private long hex() {
+        long value = 0;
+        int digits = 0;
+        int end = Math.min(packetLength, packet.length);
+        while (cursor < end && hexDigit(packet[cursor]) >= 0 && digits < 8) {
+            value = (value << 4) | hexDigit(packet[cursor++]);
+            digits++;
+        }
+        if (digits == 0) {
+            throw new IllegalArgumentException("Number expected");
+        }
+        return value;
+    }
+
+    /* Parses exactly bytes * 2 hex digits from the cursor */
+    private int fixedHex(int bytes) {
+        int value = 0;
+        for (int i = 0; i < bytes * 2; i++) {
+            int digit = cursor < Math.min(packetLength, packet.length) ? hexDigit(packet[cursor++]) : -1;
+            if (digit < 0) {
+                throw new IllegalArgumentException("Hex digit expected");
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    private void expect(char separator) {
+        if (cursor >= Math.min(packetLength, packet.length) || packet[cursor++] != separator) {
+            throw new IllegalArgumentException(separator + " expected");
+        }
+    }
+
+    private static int hexDigit(byte value) {
+        if (value >= '0' && value <= '9') {
+            return value - '0';
+        }
+        if (value >= 'a' && value <= 'f') {
+            return value - 'a' + 10;
+        }
+        if (value >= 'A' && value <= 'F') {
+            return value - 'A' + 10;
+        }
+        return -1;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: java GdbServer <program> [--port N] [--origin HEX] [--io]");
+        System.exit(1);
+    }
+
+    /**
+     * Loads a program as batch mode does and waits for a debugger, stopped at its first instruction.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1) {
+            usage();
+        }
+        int port = DEFAULT_PORT;
+        int origin = BatchRunner.DEFAULT_ORIGIN;
+        boolean devices = false;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--io")) {
+                devices = true;
+                continue;
+            }
+            if (i + 1 >= args.length) {
+                usage();
+            }
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[++i]); break;
+                case "--origin": origin = Integer.parseInt(args[++i], 16); break;
+                default: usage();
+            }
+        }
+
+        Path file = Paths.get(args[0]);
+        Memory memory = new Memory();
+        Cpu6809 cpu = new Cpu6809(memory);
+        cpu.setS(BatchRunner.DEFAULT_ORIGIN);
+        if (file.getFileName().toString().toLowerCase().endsWith(".asm")) {
+            Assembly assembly = new Assembler6809(origin).assemble(new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+            if (assembly.hasErrors()) {
+                System.err.println(String.join("\n", assembly.getErrors()));
+                System.exit(1);
+            }
+            assembly.loadInto(memory);
+            cpu.setPc(assembly.getStartAddress());
+        } else {
+            ImageLoader loader = new ImageLoader(memory);
+            loader.load(file, origin);
+            if (loader.getStartAddress() != ImageLoader.NO_START) {
+                cpu.setPc(loader.getStartAddress());
+            } else {
+                cpu.reset();
+            }
+        }
+        if (devices) {
+            new StandardIo(memory, cpu, System.in, System.out);
+        }
+
+        GdbServer server = new GdbServer(cpu, memory, port);
+        System.err.println("Waiting for GDB on localhost:" + server.getPort());
+        server.start();
+        server.thread.join();
+    }
+}
@@ -0,0 +1,323 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+import java.util.Set;
+
+/**
+ * Class representing a loader of program images into a {@link Memory}: Motorola S-records (S19, S28, S37),
+ * Intel HEX and raw binary.
+ *
+ * Files are memory-mapped. A raw image is copied from the mapping straight into the memory pages; the text
+ * formats are parsed byte by byte from the mapping, one record at a time into a reused buffer, so no line or
+ * string is built however large the file. A record is only stored once its checksum has been verified.
+ * Images land in RAM, under any devices. The loader remembers every address it wrote and the start address
+ * given by the last image, so several images, such as a ROM and its test vectors, can be loaded in turn.
+ *
+ * A loader created over an {@link Mmu} takes addresses as physical addresses, so banked firmware larger than
+ * 64 KB can be loaded from one S28, S37 or extended Intel HEX file, or a raw image.
+ */
+public class ImageLoader {
+
+    public static final int NO_START = -1;
+    public static final Set<String> S_RECORD_EXTENSIONS = Set.of("s19", "s28", "s37", "srec", "mot", "s");
+    public static final Set<String> INTEL_HEX_EXTENSIONS = Set.of("hex", "ihx");
+
+    private final Memory memory; // Null when loading through an MMU
+    private final Mmu mmu;
+    private final int limit; // Size of the address space loaded into
+    private final BitSet written;
+    private final byte[] record = new byte[255];
+    private final ByteBuffer recordData = ByteBuffer.wrap(record);
+    private int startAddress = NO_START;
+    private int line; // Line of the record being parsed, for error messages
+
+    public ImageLoader(Memory memory) {
+        this(memory, null, Memory.SIZE);
+    }
+
+    /**
+     * Creates a loader that writes physical addresses of an MMU's banks, whether they are shown or not.
+     */
+    public ImageLoader(Mmu mmu) {
+        this(null, mmu, mmu.getPhysicalSize());
+    }
+
+    private ImageLoader(Memory memory, Mmu mmu, int limit) {
+        this.memory = memory;
+        this.mmu = mmu;
+        this.limit = limit;
+        this.written = new BitSet(limit);
+    }
+
+    /**
+     * Loads a file, choosing the format from its extension: {@code .s19}, {@code .s28}, {@code .s37},
+     * {@code .srec}, {@code .mot} and {@code .s} are S-records, {@code .hex} and {@code .ihx} Intel HEX,
+     * and anything else a raw image placed at {@code origin}.
+     *
+     * @throws IllegalArgumentException if the file is malformed or does not fit in the memory loaded into
+     */
+    public void load(Path file, int origin) throws IOException {
+        String extension = extension(file);
+        if (S_RECORD_EXTENSIONS.contains(extension)) {
+            loadSRecords(map(file));
+        } else if (INTEL_HEX_EXTENSIONS.contains(extension)) {
+            loadIntelHex(map(file));
+        } else {
+            loadRaw(map(file), origin);
+        }
+    }
+
+    /**
+     * Returns the extension of a file name in lower case, or an empty string if it has none.
+     */
+    public static String extension(Path file) {
+        String name = file.getFileName().toString().toLowerCase();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1);
+    }
+
+    /**
+     * Copies a raw image to {@code origin}, which becomes the start address if the image lies within 64 KB.
+     * An image of exactly 64 KB fills the first 64 KB wherever the origin is, and leaves the start to the
+     * reset vector.
+     */
+    public void loadRaw(ByteBuffer image, int origin) {
+        int length = image.remaining();
+        if (length == Memory.SIZE) {
+            origin = 0;
+        } else if (length == 0 || origin < 0 || (long) origin + length > limit) {
+            throw new IllegalArgumentException(String.format("Image of %d bytes does not fit at %04X", length, origin));
+        }
+        place(origin, image);
+        written.set(origin, origin + length);
+        if (length != Memory.SIZE && origin + length <= Memory.SIZE) {
+            startAddress = origin;
+        }
+    }
+
+    /**
+     * Loads Motorola S-records. S1, S2 and S3 records carry data with 16, 24 and 32-bit addresses, which must
+     * fall within the memory loaded into; S9, S8 and S7 give the start address. S0 headers are skipped, and
+     * S5/S6 counts must match the number of data records before them.
+     */
+    public void loadSRecords(ByteBuffer text) {
+        line = 1;
+        long dataRecords = 0;
+        while (skipToRecord(text)) {
+            if (text.get() != 'S') {
+                throw error("record does not start with S");
+            }
+            int type = next(text) - '0';
+            if (type < 0 || type > 9 || type == 4) {
+                throw error("unknown record type");
+            }
+            int count = hexByte(text);
+            int sum = count;
+            int addressBytes = type == 2 || type == 6 || type == 8 ? 3 : type == 3 || type == 7 ? 4 : 2;
+            if (count < addressBytes + 1) {
+                throw error("record too short");
+            }
+            long address = 0;
+            for (int i = 0; i < addressBytes; i++) {
+                int value = hexByte(text);
+                sum += value;
+                address = (address << 8) | value;
+            }
+            int length = count - addressBytes - 1;
+            sum += readData(text, length);
+            if (((sum + hexByte(text)) & 0xFF) != 0xFF) {
+                throw error("checksum mismatch");
+            }
+            if (type >= 1 && type <= 3) {
+                store(address, length);
+                dataRecords++;
+            } else if (type == 5 || type == 6) {
+                if (address != dataRecords) {
+                    throw error(String.format("record count %d does not match the %d data records", address, dataRecords));
+                }
+            } else if (type >= 7) {
+                startAddress = checkStart(address);
+            }
+        }
+    }
+
+    /**
+     * Loads Intel HEX. Data records are placed using the extended segment (02) and linear (04) address records,
+     * and must fall within the memory loaded into; start segment (03) and linear (05) address records give the
+     * start address.
+     * Loading stops at the end-of-file record (01).
+     */
+    public void loadIntelHex(ByteBuffer text) {
+        line = 1;
+        long base = 0;
+        while (skipToRecord(text)) {
+            if (text.get() != ':') {
+                throw error("record does not start with ':'");
+            }
+            int length = hexByte(text);
+            int high = hexByte(text);
+            int low = hexByte(text);
+            int type = hexByte(text);
+            int sum = length + high + low + type + readData(text, length);
+            if (((sum + hexByte(text)) & 0xFF) != 0) {
+                throw error("checksum mismatch");
+            }
+            int offset = (high << 8) | low;
+            switch (type) {
+                case 0x00:
+                    store(base + offset, length);
+                    break;
+                case 0x01:
+                    return;
+                case 0x02:
+                    checkLength(length, 2);
+                    base = (long) recordWord(0) << 4;
+                    break;
+                case 0x04:
+                    checkLength(length, 2);
+                    base = (long) recordWord(0) << 16;
+                    break;
+                case 0x03:
+                    checkLength(length, 4);
+                    startAddress = checkStart(((long) recordWord(0) << 4) + recordWord(2));
+                    break;
+                case 0x05:
+                    checkLength(length, 4);
+                    startAddress = checkStart(((long) recordWord(0) << 16) | recordWord(2));
+                    break;
+                default:
+                    throw error("unknown record type");
+            }
+        }
+    }
+
+    /**
+     * Returns true if an address was written by a loaded image.
+     */
+    public boolean contains(int address) {
+        return address >= 0 && written.get(address);
+    }
+
+    /**
+     * Returns the number of distinct addresses written so far.
+     */
+    public int getByteCount() {
+        return written.cardinality();
+    }
+
+    /**
+     * Returns the start address given by the last image that had one, or NO_START.
+     */
+    public int getStartAddress() {
+        return startAddress;
+    }
+
+    private static MappedByteBuffer map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException(file + " is too large");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid after closing
+        }
+    }
+
+    /* Skips line ends and blanks; returns false at the end of the text */
+    private boolean skipToRecord(ByteBuffer text) {
+        while (text.hasRemaining()) {
+            byte value = text.get(text.position());
+            if (value == '\n') {
+                line++;
+            } else if (value != '\r' && value != ' ' && value != '\t') {
+                return true;
+            }
+            text.position(text.position() + 1);
+        }
+        return false;
+    }
+
+    /* Parses data bytes into the record buffer and returns their sum */
+    private int readData(ByteBuffer text, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            int value = hexByte(text);
+            record[i] = (byte) value;
+            sum += value;
+        }
+        return sum;
+    }
+
+    private int hexByte(ByteBuffer text) {
+        return (hexDigit(next(text)) << 4) | hexDigit(next(text));
+    }
+
+    private byte next(ByteBuffer text) {
+        try {
+            return text.get();
+        } catch (BufferUnderflowException ex) {
+            throw error("record is truncated");
+        }
+    }
+
+    private int hexDigit(byte value) {
+        if (value >= '0' && value <= '9') {
+            return value - '0';
+        }
+        if (value >= 'A' && value <= 'F') {
+            return value - 'A' + 10;
+        }
+        if (value >= 'a' && value <= 'f') {
+            return value - 'a' + 10;
+        }
+        throw error("invalid hex digit");
+    }
+
+    /* Copies the data of the current record to memory */
+    private void store(long address, int length) {
+        if (length == 0) {
+            return;
+        }
+        if (address + length > limit) {
+            throw error(String.format("address %X is outside memory", address));
+        }
+        int start = (int) address;
+        recordData.clear().limit(length);
+        place(start, recordData);
+        written.set(start, start + length);
+    }
+
+    private void place(int address, ByteBuffer data) {
+        if (mmu != null) {
+            mmu.load(address, data);
+        } else {
+            memory.load(address, data);
+        }
+    }
+
+    /* Start addresses are CPU addresses, even when loading physical memory */
+    private int checkStart(long address) {
+        if (address >= Memory.SIZE) {
+            throw error(String.format("start address %X is outside the 64 KB address space", address));
+        }
+        return (int) address;
+    }
+
+    private void checkLength(int length, int expected) {
+        if (length != expected) {
+            throw error("record has the wrong length");
+        }
+    }
+
+    /* Two data bytes of the current record as a big-endian word */
+    private int recordWord(int index) {
+        return ((record[index] & 0xFF) << 8) | (record[index + 1] & 0xFF);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException("Line " + line + ": " + message);
+    }
+}
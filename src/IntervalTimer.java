@@ -0,0 +1,181 @@
+import java.util.function.LongSupplier;
+
+/**
+ * Class representing a programmable interval timer counting CPU cycles.
+ *
+ * Registers 0 and 1 read the high and low byte of the counter and write the high and low byte of the latch;
+ * writing the low byte loads the counter from the latch and restarts it. Register 2 is the control register:
+ * bit 0 runs the counter, restarting it from the latch, bit 1 enables its interrupt and bit 2 reloads the latch
+ * on expiry instead of stopping at zero. Reading register 2 returns the control bits with bit 7 set if the counter
+ * has reached zero since the last read, and clears that flag.
+ *
+ * The counter is not ticked. It is worked out from the cycle count whenever it is read, so an idle timer
+ * costs nothing while the CPU runs. With its interrupt enabled, the next expiry is put on the CPU's
+ * {@link Scheduler}, which is how the interrupt is raised on time without the timer being polled.
+ */
+public class IntervalTimer implements Device {
+
+    public static final int CONTROL_RUN = 0x01;
+    public static final int CONTROL_IRQ_ENABLE = 0x02;
+    public static final int CONTROL_CONTINUOUS = 0x04;
+    public static final int STATUS_EXPIRED = 0x80;
+
+    public static final int REGISTER_COUNT = 3;
+
+    private final LongSupplier clock;
+    private final Scheduler scheduler;
+    private final int expiryEvent;
+    private int latch = 0xFFFF;
+    private int control;
+    private long startCycle; // Cycle at which the running counter held the latch value
+    private int stoppedCount = 0xFFFF; // Counter value while not running
+    private long expiriesSeen; // Expiries of the current run already reported through the status flag
+    private boolean expired; // Expiry not yet reported from before the counter was stopped
+    private Runnable interruptListener;
+
+    /**
+     * Creates a timer driven by a cycle count, normally {@code cpu::getCycles}, whose expiries are scheduled
+     * on the scheduler of the same CPU.
+     */
+    public IntervalTimer(LongSupplier clock, Scheduler scheduler) {
+        this.clock = clock;
+        this.scheduler = scheduler;
+        this.expiryEvent = scheduler.register(cycle -> interruptChanged());
+    }
+
+    @Override
+    public int read(int register) {
+        if (register == 2) {
+            long now = clock.getAsLong();
+            int status = peek(2);
+            expired = false;
+            expiriesSeen = expiries(now);
+            interruptChanged();
+            return status;
+        }
+        return peek(register);
+    }
+
+    @Override
+    public void write(int register, int value) {
+        value &= 0xFF;
+        long now = clock.getAsLong();
+        switch (register) {
+            case 0:
+                latch = (value << 8) | (latch & 0xFF);
+                break;
+            case 1:
+                latch = (latch & 0xFF00) | value;
+                restart(now);
+                break;
+            default:
+                boolean wasRunning = running();
+                if (wasRunning && (value & CONTROL_RUN) == 0) {
+                    expired = expired(now);
+                    stoppedCount = count(now);
+                }
+                control = value & (CONTROL_RUN | CONTROL_IRQ_ENABLE | CONTROL_CONTINUOUS);
+                if (!wasRunning && running()) {
+                    restart(now);
+                }
+                break;
+        }
+        interruptChanged();
+    }
+
+    @Override
+    public int peek(int register) {
+        long now = clock.getAsLong();
+        switch (register) {
+            case 0:
+                return count(now) >> 8;
+            case 1:
+                return count(now) & 0xFF;
+            default:
+                return control | (expired(now) ? STATUS_EXPIRED : 0);
+        }
+    }
+
+    /**
+     * Sets the callback run whenever a register access may have changed the interrupt request.
+     */
+    public void setInterruptListener(Runnable listener) {
+        interruptListener = listener;
+    }
+
+    /**
+     * Returns true if the counter has expired since the status was last read and its interrupt is enabled.
+     */
+    public boolean isInterruptRequested() {
+        return (control & CONTROL_IRQ_ENABLE) != 0 && expired(clock.getAsLong());
+    }
+
+    /**
+     * Returns the cycle at which the counter next reaches zero, or -1 if it is stopped or has run out.
+     */
+    public long nextExpiry() {
+        if (!running()) {
+            return -1;
+        }
+        long elapsed = clock.getAsLong() - startCycle;
+        if ((control & CONTROL_CONTINUOUS) == 0) {
+            return elapsed < latch ? startCycle + latch : -1;
+        }
+        long period = latch + 1L;
+        return startCycle + (elapsed < latch ? 0 : ((elapsed - latch) / period + 1) * period) + latch;
+    }
+
+    /* Tells the listener the interrupt request may have changed and schedules the next expiry that would raise it */
+    private void interruptChanged() {
+        if (interruptListener != null) {
+            interruptListener.run();
+        }
+        long next = (control & CONTROL_IRQ_ENABLE) != 0 && !expired(clock.getAsLong()) ? nextExpiry() : -1;
+        if (next < 0) {
+            scheduler.cancel(expiryEvent); // Already requesting, disabled or stopped
+        } else {
+            scheduler.schedule(expiryEvent, next);
+        }
+    }
+
+    private boolean running() {
+        return (control & CONTROL_RUN) != 0;
+    }
+
+    /* Starts counting down from the latch */
+    private void restart(long now) {
+        startCycle = now;
+        stoppedCount = latch;
+        expiriesSeen = 0;
+    }
+
+    private boolean expired(long now) {
+        return expired || expiries(now) > expiriesSeen;
+    }
+
+    private int count(long now) {
+        if (!running()) {
+            return stoppedCount;
+        }
+        long elapsed = now - startCycle;
+        if ((control & CONTROL_CONTINUOUS) != 0) {
+            return (int) (latch - elapsed % (latch + 1L));
+        }
+        return (int) Math.max(0, latch - elapsed);
+    }
+
+    /* Number of times the running counter has reached zero since it was loaded */
+    private long expiries(long now) {
+        if (!running()) {
+            return 0;
+        }
+        long elapsed = now - startCycle;
+        if (elapsed < latch) {
+            return 0;
+        }
+        if ((control & CONTROL_CONTINUOUS) != 0) {
+            return (elapsed - latch) / (latch + 1L) + 1;
+        }
+        return 1;
+    }
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Class representing the execution history that lets a {@link Cpu6809} step backwards.
+ *
+ * Two bounded ring buffers of primitives are filled while the core runs: the register file before each
+ * instruction, and the old value of every byte written. Undoing one instruction pops its register record and
+ * restores the bytes it overwrote, so stepping back within the journal never replays anything.
+ * Going back further than the rings reach uses a checkpoint: a copy-on-write {@link SaveState} taken every
+ * CHECKPOINT_INTERVAL instructions, from which the remaining instructions are replayed forward.
+ * Replay assumes the program is deterministic, as it is while nothing but memory is on the bus.
+ * Writes to device registers are not undone.
+ */
+public class Journal {
+
+    public static final int DEFAULT_STEP_CAPACITY = 1 << 20;
+    public static final int DEFAULT_WRITE_CAPACITY = 1 << 22;
+    public static final long CHECKPOINT_INTERVAL = 1 << 20;
+    public static final int MAX_CHECKPOINTS = 64;
+
+    /* Longs per instruction record: PC/A/B/DP/CC/wait state, X/Y/U/S, cycles, write journal position */
+    private static final int STEP_LONGS = 4;
+
+    private final Cpu6809 cpu;
+    private final Memory memory;
+    private final long[] steps;
+    private final int stepMask;
+    private final int[] writes; // address << 8 | old value
+    private final int writeMask;
+    private long stepCount;
+    private long writeCount;
+    private long firstStep; // Steps before this one were cleared and cannot be undone
+    private final ArrayDeque<SaveState> checkpoints = new ArrayDeque<>();
+
+    /**
+     * Creates a journal for the given core and the memory it runs on, and attaches it to the core.
+     * Capacities are rounded up to powers of two.
+     */
+    public Journal(Cpu6809 cpu, Memory memory, int stepCapacity, int writeCapacity) {
+        this.cpu = cpu;
+        this.memory = memory;
+        int stepSize = Integer.highestOneBit(Math.max(1, stepCapacity - 1) << 1);
+        int writeSize = Integer.highestOneBit(Math.max(1, writeCapacity - 1) << 1);
+        steps = new long[stepSize * STEP_LONGS];
+        stepMask = stepSize - 1;
+        writes = new int[writeSize];
+        writeMask = writeSize - 1;
+        cpu.setJournal(this);
+    }
+
+    public Journal(Cpu6809 cpu, Memory memory) {
+        this(cpu, memory, DEFAULT_STEP_CAPACITY, DEFAULT_WRITE_CAPACITY);
+    }
+
+    /**
+     * Called by the core before each instruction.
+     */
+    void recordStep() {
+        if (cpu.instructionCount % CHECKPOINT_INTERVAL == 0
+                && (checkpoints.isEmpty() || checkpoints.peekLast().getInstructionCount() < cpu.instructionCount)) {
+            if (checkpoints.size() == MAX_CHECKPOINTS) {
+                checkpoints.removeFirst();
+            }
+            checkpoints.addLast(SaveState.capture(cpu, memory));
+        }
+        int i = (int) (stepCount++ & stepMask) * STEP_LONGS;
+        steps[i] = ((long) cpu.pc << 48) | ((long) cpu.a << 40) | ((long) cpu.b << 32)
+                | ((long) cpu.dp << 24) | (cpu.flags() << 16) | cpu.waitState;
+        steps[i + 1] = ((long) cpu.x << 48) | ((long) cpu.y << 32) | ((long) cpu.u << 16) | cpu.s;
+        steps[i + 2] = cpu.cycles;
+        steps[i + 3] = writeCount;
+    }
+
+    /**
+     * Called by the core when the instruction just recorded turns out to be illegal and is not executed.
+     */
+    void discardStep() {
+        stepCount--;
+    }
+
+    /**
+     * Called by the core before it overwrites a byte.
+     */
+    void recordWrite(int address, int oldValue) {
+        writes[(int) (writeCount++ & writeMask)] = (address << 8) | oldValue;
+    }
+
+    /**
+     * Returns how many instructions can be undone without going back to a checkpoint.
+     */
+    public long available() {
+        long low = Math.max(firstStep, stepCount - (stepMask + 1));
+        long high = stepCount;
+        // A step can only be undone while all the writes from it onwards are still in the write ring;
+        // write positions grow with the step number, so binary search for the first such step
+        long oldestWrite = writeCount - (writeMask + 1);
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (steps[(int) (middle & stepMask) * STEP_LONGS + 3] < oldestWrite) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return stepCount - low;
+    }
+
+    /**
+     * Undoes the last instruction. Returns false if the journal holds nothing to undo.
+     */
+    public boolean stepBack() {
+        if (available() == 0) {
+            return false;
+        }
+        undo();
+        dropCheckpointsAfter(cpu.instructionCount);
+        return true;
+    }
+
+    /**
+     * Moves back {@code count} instructions, through a checkpoint and forward replay if the journal
+     * does not reach that far. Returns the number of instructions actually undone.
+     */
+    public long stepBack(long count) {
+        long target = Math.max(0, cpu.instructionCount - count);
+        if (count <= available()) {
+            for (long i = 0; i < count; i++) {
+                undo();
+            }
+        } else {
+            SaveState checkpoint = null;
+            for (Iterator<SaveState> it = checkpoints.descendingIterator(); it.hasNext(); ) {
+                SaveState candidate = it.next();
+                if (candidate.getInstructionCount() <= target) {
+                    checkpoint = candidate;
+                    break;
+                }
+            }
+            if (checkpoint == null) {
+                // Nothing old enough: go back as far as the journal allows
+                long undone = available();
+                for (long i = 0; i < undone; i++) {
+                    undo();
+                }
+                dropCheckpointsAfter(cpu.instructionCount);
+                return undone;
+            }
+            long from = cpu.instructionCount;
+            dropCheckpointsAfter(checkpoint.getInstructionCount());
+            checkpoint.restore(cpu, memory);
+            firstStep = stepCount; // The journal now describes a future that is being discarded
+            cpu.run(target - cpu.instructionCount);
+            target = cpu.instructionCount;
+            count = from - target;
+        }
+        dropCheckpointsAfter(cpu.instructionCount);
+        return count;
+    }
+
+    /**
+     * Undoes instructions until PC reaches an execution breakpoint, an instruction wrote a byte under a
+     * write watchpoint, or the journal runs out. Returns why it stopped.
+     */
+    public String runBack() {
+        long undone = 0;
+        try {
+            for (long limit = available(); undone < limit; ) {
+                int watched = undo();
+                undone++;
+                if (watched >= 0) {
+                    return String.format("Write watchpoint at %04X, written by the instruction at %04X", watched, cpu.pc);
+                }
+                if (cpu.atBreakpoint()) {
+                    return String.format("Breakpoint at %04X", cpu.pc);
+                }
+            }
+            return "Reached the start of the journal";
+        } finally {
+            dropCheckpointsAfter(cpu.instructionCount);
+        }
+    }
+
+    /**
+     * Forgets all history, for when the machine state is changed from outside the core.
+     */
+    public void clear() {
+        firstStep = stepCount;
+        checkpoints.clear();
+    }
+
+    /* Undoes one instruction; returns the address of a watched byte it had written, or -1 */
+    private int undo() {
+        int i = (int) (--stepCount & stepMask) * STEP_LONGS;
+        long writeStart = steps[i + 3];
+        Breakpoints breakpoints = cpu.getBreakpoints();
+        int watched = -1;
+        while (writeCount > writeStart) {
+            int entry = writes[(int) (--writeCount & writeMask)];
+            int address = entry >>> 8;
+            if (!memory.isDevice(address)) { // Writing a device register again would repeat its effect
+                memory.write8(address, entry);
+            }
+            if (breakpoints.isSet(Breakpoints.WRITE, address)) {
+                watched = address;
+            }
+        }
+        long registers = steps[i];
+        cpu.pc = (int) (registers >>> 48);
+        cpu.a = (int) (registers >>> 40) & 0xFF;
+        cpu.b = (int) (registers >>> 32) & 0xFF;
+        cpu.dp = (int) (registers >>> 24) & 0xFF;
+        cpu.setCc((int) (registers >>> 16));
+        cpu.waitState = (int) registers & 0xFFFF;
+        long indexes = steps[i + 1];
+        cpu.x = (int) (indexes >>> 48);
+        cpu.y = (int) (indexes >>> 32) & 0xFFFF;
+        cpu.u = (int) (indexes >>> 16) & 0xFFFF;
+        cpu.s = (int) indexes & 0xFFFF;
+        cpu.cycles = steps[i + 2];
+        cpu.instructionCount--;
+        return watched;
+    }
+
+    private void dropCheckpointsAfter(long instructionCount) {
+        while (!checkpoints.isEmpty() && checkpoints.peekLast().getInstructionCount() > instructionCount) {
+            checkpoints.removeLast();
+        }
+    }
+}
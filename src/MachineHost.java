@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Class representing a host for many independent machines in one JVM, such as a test farm. Images are loaded
+ * into the host once, and every machine created afterwards starts from them: its memory maps the host's pages,
+ * which are deduplicated in a {@link PageStore}, copy-on-write, so a new machine costs a page table and each
+ * machine only holds the pages it writes. ROM images are read-only in every machine. Code on pooled pages is
+ * decoded once for all machines, so running the shared ROM costs a machine nothing more either.
+ *
+ * Machines share nothing writable and may each run on their own thread. The host itself may be used from any
+ * thread; images loaded after machines were created only affect the machines created after them.
+ */
+public class MachineHost {
+
+    private final PageStore store = new PageStore();
+    private final Memory template = new Memory(); // Never run; only its pooled pages are handed out
+    private final long[] dirty = new long[Memory.PAGE_COUNT / 64];
+    private int startAddress = ImageLoader.NO_START;
+
+    public MachineHost() {
+        template.store = store;
+        for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+            template.mapPage(page, store.intern(template.page(page)), true, false);
+        }
+        template.takeDirtyPages(dirty);
+    }
+
+    /**
+     * Class representing one machine of a host: a CPU and its own view of memory.
+     */
+    public static final class Machine {
+        private final Memory memory;
+        private final Cpu6809 cpu;
+
+        Machine(Memory memory, Cpu6809 cpu) {
+            this.memory = memory;
+            this.cpu = cpu;
+        }
+
+        public Memory getMemory() {
+            return memory;
+        }
+
+        public Cpu6809 getCpu() {
+            return cpu;
+        }
+
+        /**
+         * Returns roughly the bytes this machine holds on its own, rather than shares with the host: the memory
+         * pages it has written and the decoded code of those pages.
+         */
+        public int getPrivateBytes() {
+            return memory.getPrivatePageCount() * Memory.PAGE_SIZE
+                    + cpu.decoded.getPrivatePageCount() * DecodeCache.PAGE_BYTES;
+        }
+    }
+
+    /**
+     * Loads an image, in any format {@link ImageLoader} reads, into the RAM every new machine starts with.
+     */
+    public synchronized void load(Path file, int origin) throws IOException {
+        ImageLoader loader = new ImageLoader(template);
+        loader.load(file, origin);
+        if (loader.getStartAddress() != ImageLoader.NO_START) {
+            startAddress = loader.getStartAddress();
+        }
+    }
+
+    /**
+     * Loads an image as ROM: every page it touches becomes read-only in the machines created from now on.
+     */
+    public synchronized void loadRom(Path file, int origin) throws IOException {
+        ImageLoader loader = new ImageLoader(template);
+        loader.load(file, origin);
+        for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+            for (int address = page << 8; address < (page + 1) << 8; address++) {
+                if (loader.contains(address)) {
+                    template.mapPage(page, template.page(page), true, true);
+                    break;
+                }
+            }
+        }
+        if (loader.getStartAddress() != ImageLoader.NO_START) {
+            startAddress = loader.getStartAddress();
+        }
+    }
+
+    /**
+     * Creates a machine with the loaded images, reset to start at the last start address an image gave,
+     * or else at its reset vector.
+     */
+    public synchronized Machine create() {
+        if (template.takeDirtyPages(dirty)) {
+            for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+                if ((dirty[page >>> 6] & (1L << page)) != 0) {
+                    template.mapPage(page, store.intern(template.page(page)), true, template.isReadOnly(page));
+                }
+            }
+            template.takeDirtyPages(dirty); // Mapping marked them dirty again
+        }
+        Memory memory = template.copy();
+        Cpu6809 cpu = new Cpu6809(memory);
+        cpu.reset();
+        if (startAddress != ImageLoader.NO_START) {
+            cpu.setPc(startAddress);
+        }
+        return new Machine(memory, cpu);
+    }
+
+    /**
+     * Returns the number of distinct pages shared by the machines, whatever their number.
+     */
+    public int getSharedPageCount() {
+        return store.size();
+    }
+}
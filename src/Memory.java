@@ -0,0 +1,338 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Class representing the full 64 KB address space of the 6809, held as 256 primitive byte pages of 256 bytes.
+ * Writes mark their page dirty so views can refresh only what changed.
+ *
+ * Devices are attached through a page table with one entry per page: the entry is null for plain RAM,
+ * so RAM accesses only pay for one table lookup, and otherwise maps each byte of the page to a device register
+ * or back to RAM. Bytes under a device keep their RAM contents, which snapshots and save states see.
+ *
+ * Copies share their pages copy-on-write: copy() only duplicates the page table, and whichever side
+ * writes to a shared page first gets its own private copy of that one page. Snapshotting every frame
+ * therefore costs a page table plus the pages actually written since the last snapshot.
+ *
+ * Read-only pages are marked shared as well, so the check for them costs nothing on the RAM write path:
+ * a write to one is simply dropped where a shared page would have been copied.
+ */
+public class Memory implements Bus {
+
+    public static final int SIZE = 0x10000;
+    public static final int PAGE_SIZE = 0x100;
+    public static final int PAGE_COUNT = SIZE / PAGE_SIZE;
+
+    private final byte[][] pages = new byte[PAGE_COUNT][];
+    private final long[] sharedPages = new long[PAGE_COUNT / 64]; // Pages that must be copied before writing
+    private final long[] dirtyPages = new long[PAGE_COUNT / 64];
+    private final long[] codePages = new long[PAGE_COUNT / 64]; // Pages holding decoded or translated code
+    private final long[] readOnlyPages = new long[PAGE_COUNT / 64]; // ROM; always also marked shared
+    private final List<IntConsumer> codeListeners = new ArrayList<>();
+    private final Mapping[][] io = new Mapping[PAGE_COUNT][]; // Page table; null where the page is plain RAM
+    int copies; // Number of copy() and restore() calls, so pages kept aside can tell whether they may be shared
+    int deviceChanges; // Number of attach() and detachAll() calls, so translated code can tell devices came or went
+    PageStore store; // Pool of a MachineHost, whose pages' decoded code CPUs share; null otherwise
+
+    /* A device and the address of its first register */
+    private static final class Mapping {
+        final Device device;
+        final int base;
+
+        Mapping(Device device, int base) {
+            this.device = device;
+            this.base = base;
+        }
+    }
+
+    public Memory() {
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            pages[page] = new byte[PAGE_SIZE];
+        }
+    }
+
+    /* Creates a copy that shares every page of the given page table, keeping its read-only pages read-only */
+    private Memory(byte[][] sharedWith, long[] readOnly, PageStore store) {
+        System.arraycopy(sharedWith, 0, pages, 0, PAGE_COUNT);
+        System.arraycopy(readOnly, 0, readOnlyPages, 0, readOnlyPages.length);
+        Arrays.fill(sharedPages, -1L);
+        this.store = store;
+    }
+
+    @Override
+    public int read8(int address) {
+        int page = (address >>> 8) & 0xFF;
+        Mapping[] devices = io[page];
+        if (devices != null && devices[address & 0xFF] != null) {
+            Mapping mapping = devices[address & 0xFF];
+            return mapping.device.read((address & 0xFFFF) - mapping.base) & 0xFF;
+        }
+        return pages[page][address & 0xFF] & 0xFF;
+    }
+
+    @Override
+    public int peek8(int address) {
+        Mapping mapping = mapping(address);
+        if (mapping != null) {
+            return mapping.device.peek((address & 0xFFFF) - mapping.base) & 0xFF;
+        }
+        return pages[(address >>> 8) & 0xFF][address & 0xFF] & 0xFF;
+    }
+
+    @Override
+    public void write8(int address, int value) {
+        int page = (address >>> 8) & 0xFF;
+        Mapping[] devices = io[page];
+        if (devices != null && devices[address & 0xFF] != null) {
+            Mapping mapping = devices[address & 0xFF];
+            mapping.device.write((address & 0xFFFF) - mapping.base, value & 0xFF);
+            return;
+        }
+        long bit = 1L << page;
+        if ((sharedPages[page >>> 6] & bit) != 0) {
+            if ((readOnlyPages[page >>> 6] & bit) != 0) {
+                return;
+            }
+            pages[page] = pages[page].clone();
+            sharedPages[page >>> 6] &= ~bit;
+        }
+        pages[page][address & 0xFF] = (byte) value;
+        dirtyPages[page >>> 6] |= bit;
+        if ((codePages[page >>> 6] & bit) != 0) {
+            codeChanged(page);
+        }
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into memory from an address, a page at a time. Device registers and
+     * read-only pages are bypassed: the bytes land in the RAM or ROM under them, as they would from a ROM programmer.
+     *
+     * @throws IllegalArgumentException if the bytes run past the end of memory
+     */
+    public void load(int address, ByteBuffer data) {
+        if (address < 0 || address + data.remaining() > SIZE) {
+            throw new IllegalArgumentException(String.format("%d bytes do not fit at %04X", data.remaining(), address));
+        }
+        while (data.hasRemaining()) {
+            int page = address >>> 8;
+            int length = Math.min(PAGE_SIZE - (address & 0xFF), data.remaining());
+            long bit = 1L << page;
+            if ((sharedPages[page >>> 6] & bit) != 0) {
+                pages[page] = pages[page].clone();
+                sharedPages[page >>> 6] &= ~bit | readOnlyPages[page >>> 6];
+            }
+            data.get(pages[page], address & 0xFF, length);
+            dirtyPages[page >>> 6] |= bit;
+            if ((codePages[page >>> 6] & bit) != 0) {
+                codeChanged(page);
+            }
+            address += length;
+        }
+    }
+
+    /**
+     * Attaches a device to {@code length} addresses from {@code start}, its registers 0 to length - 1.
+     *
+     * @throws IllegalArgumentException if the range leaves the address space or overlaps another device
+     */
+    public void attach(Device device, int start, int length) {
+        if (start < 0 || length <= 0 || start + length > SIZE) {
+            throw new IllegalArgumentException(String.format("Device range %04X+%d is outside memory", start, length));
+        }
+        for (int address = start; address < start + length; address++) {
+            if (mapping(address) != null) {
+                throw new IllegalArgumentException(String.format("Address %04X already has a device", address));
+            }
+        }
+        Mapping mapping = new Mapping(device, start);
+        for (int address = start; address < start + length; address++) {
+            int page = address >>> 8;
+            if (io[page] == null) {
+                io[page] = new Mapping[PAGE_SIZE];
+            }
+            io[page][address & 0xFF] = mapping;
+            if ((codePages[page >>> 6] & (1L << page)) != 0) {
+                codeChanged(page); // Decoded code there would now read device registers
+            }
+        }
+        deviceChanges++;
+    }
+
+    /**
+     * Detaches every device, leaving plain RAM.
+     */
+    public void detachAll() {
+        Arrays.fill(io, null);
+        deviceChanges++;
+    }
+
+    /**
+     * Returns true if an address is a device register rather than RAM.
+     */
+    public boolean isDevice(int address) {
+        return mapping(address) != null;
+    }
+
+    /* Returns true if any device is attached */
+    boolean hasDevices() {
+        for (Mapping[] devices : io) {
+            if (devices != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* Returns true if any byte of a page belongs to a device */
+    boolean hasDevices(int page) {
+        return io[page] != null;
+    }
+
+    private Mapping mapping(int address) {
+        Mapping[] devices = io[(address >>> 8) & 0xFF];
+        return devices == null ? null : devices[address & 0xFF];
+    }
+
+    /**
+     * Returns the number of addressable bytes.
+     */
+    public int size() {
+        return SIZE;
+    }
+
+    /**
+     * Fills the whole address space with the given byte value.
+     */
+    public void clear(int value) {
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            byte[] data = new byte[PAGE_SIZE];
+            Arrays.fill(data, (byte) value);
+            pages[page] = data;
+        }
+        System.arraycopy(readOnlyPages, 0, sharedPages, 0, sharedPages.length);
+        Arrays.fill(dirtyPages, -1L);
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            if ((codePages[page >>> 6] & (1L << page)) != 0) {
+                codeChanged(page);
+            }
+        }
+    }
+
+    /**
+     * Returns an independent copy of the current RAM and ROM contents, without devices. The copy starts with no
+     * dirty pages. No bytes are copied until either side writes to a page.
+     */
+    public Memory copy() {
+        copies++;
+        Arrays.fill(sharedPages, -1L);
+        return new Memory(pages, readOnlyPages, store);
+    }
+
+    /**
+     * Replaces the contents with those of another memory, sharing its pages copy-on-write.
+     * Only the pages that actually differ are marked dirty.
+     */
+    public void restore(Memory source) {
+        for (int page = 0; page < PAGE_COUNT; page++) {
+            boolean changed = pages[page] != source.pages[page] && !Arrays.equals(pages[page], source.pages[page]);
+            pages[page] = source.pages[page];
+            if (changed) {
+                dirtyPages[page >>> 6] |= 1L << page;
+                if ((codePages[page >>> 6] & (1L << page)) != 0) {
+                    codeChanged(page);
+                }
+            }
+        }
+        Arrays.fill(sharedPages, -1L);
+        Arrays.fill(source.sharedPages, -1L);
+        copies++;
+        source.copies++;
+    }
+
+    /**
+     * Adds a listener told, once, the next time a page marked with watchCodePage() is written.
+     */
+    void addCodeListener(IntConsumer listener) {
+        codeListeners.add(listener);
+    }
+
+    /**
+     * Marks a page as holding decoded or translated code, so the next write to it is reported to the code listeners.
+     */
+    void watchCodePage(int page) {
+        codePages[page >>> 6] |= 1L << page;
+    }
+
+    private void codeChanged(int page) {
+        codePages[page >>> 6] &= ~(1L << page);
+        for (int i = 0; i < codeListeners.size(); i++) {
+            codeListeners.get(i).accept(page);
+        }
+    }
+
+    /**
+     * Returns the 256 bytes of a page. The array may be shared with copies and must not be modified.
+     */
+    byte[] page(int page) {
+        return pages[page];
+    }
+
+    /* Returns true if a page may be shared with a copy, or is read-only */
+    boolean isShared(int page) {
+        return (sharedPages[page >>> 6] & (1L << page)) != 0;
+    }
+
+    boolean isReadOnly(int page) {
+        return (readOnlyPages[page >>> 6] & (1L << page)) != 0;
+    }
+
+    /**
+     * Returns the number of pages this memory has to itself: those written since it was created or last shared.
+     */
+    public int getPrivatePageCount() {
+        int shared = 0;
+        for (long bits : sharedPages) {
+            shared += Long.bitCount(bits);
+        }
+        return PAGE_COUNT - shared;
+    }
+
+    /**
+     * Puts an array in the page table in place of a page, without copying it. A shared array is copied before
+     * it is first written, and writes to a read-only one are dropped.
+     */
+    void mapPage(int page, byte[] data, boolean shared, boolean readOnly) {
+        long bit = 1L << page;
+        pages[page] = data;
+        if (shared || readOnly) {
+            sharedPages[page >>> 6] |= bit;
+        } else {
+            sharedPages[page >>> 6] &= ~bit;
+        }
+        if (readOnly) {
+            readOnlyPages[page >>> 6] |= bit;
+        } else {
+            readOnlyPages[page >>> 6] &= ~bit;
+        }
+        dirtyPages[page >>> 6] |= bit;
+        if ((codePages[page >>> 6] & bit) != 0) {
+            codeChanged(page);
+        }
+    }
+
+    /**
+     * Copies the set of pages written since the last call into {@code pages} (one bit per page,
+     * PAGE_COUNT / 64 longs) and clears it. Returns false if nothing was written.
+     */
+    public boolean takeDirtyPages(long[] pages) {
+        boolean any = false;
+        for (int i = 0; i < dirtyPages.length; i++) {
+            pages[i] = dirtyPages[i];
+            any |= dirtyPages[i] != 0;
+            dirtyPages[i] = 0;
+        }
+        return any;
+    }
+}
@@ -0,0 +1,80 @@
+import javax.swing.table.AbstractTableModel;
+
+/**
+ * Class representing a window of emulator memory as a hex table, 16 bytes per row.
+ * Cells are formatted only when the table paints them, so the cost of a refresh
+ * depends on the visible rows and the bytes that changed, not on the size of the window.
+ */
+public class MemoryTableModel extends AbstractTableModel {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int BYTES_PER_ROW = 16;
+
+    private static final String[] HEX = new String[256];
+
+    static {
+        for (int i = 0; i < HEX.length; i++) {
+            HEX[i] = String.format("%02X", i);
+        }
+    }
+
+    private Memory memory;
+    private final int start;
+    private final int rows;
+
+    /**
+     * Creates a view of {@code length} bytes starting at {@code start}; both are rounded to whole rows.
+     */
+    public MemoryTableModel(Memory memory, int start, int length) {
+        this.memory = memory;
+        this.start = start & ~(BYTES_PER_ROW - 1);
+        this.rows = (length + BYTES_PER_ROW - 1) / BYTES_PER_ROW;
+    }
+
+    /**
+     * Switches the table to another copy of memory with the same layout, such as a newer snapshot.
+     * The caller reports what differs through bytesChanged().
+     */
+    public void setMemory(Memory memory) {
+        this.memory = memory;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return BYTES_PER_ROW + 1;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return column == 0 ? "Addr" : Integer.toHexString(column - 1).toUpperCase();
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        int address = start + row * BYTES_PER_ROW;
+        if (column == 0) {
+            return HEX[(address >> 8) & 0xFF] + HEX[address & 0xFF];
+        }
+        return HEX[memory.peek8(address + column - 1)]; // Never triggers device side effects
+    }
+
+    /**
+     * Notifies the table that the bytes from {@code from} to {@code to} (inclusive) may have changed.
+     * Only the rows of this window that overlap the range are repainted.
+     */
+    public void bytesChanged(int from, int to) {
+        int end = start + rows * BYTES_PER_ROW - 1;
+        if (to < start || from > end) {
+            return;
+        }
+        int firstRow = (Math.max(from, start) - start) / BYTES_PER_ROW;
+        int lastRow = (Math.min(to, end) - start) / BYTES_PER_ROW;
+        fireTableRowsUpdated(firstRow, lastRow);
+    }
+}
@@ -0,0 +1,189 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Class representing a bank-switching MMU in front of a {@link Memory}. The 64 KB address space is split into
+ * windows of 4 KB or 8 KB, and each window shows one bank of a larger physical memory: RAM banks first, then
+ * ROM banks, whose contents are only changed by loading. Physical address {@code bank * windowSize + offset}
+ * is byte {@code offset} of a bank.
+ *
+ * Register n selects the bank shown in window n; reading it returns the selected bank, and selecting a bank past
+ * the last one is ignored. Banks are kept as the same 256-byte page arrays the memory uses, so a bank switch
+ * only swaps page table entries and never copies a byte. The memory's copy-on-write snapshots keep working:
+ * a page set aside by a switch remembers whether a snapshot may still share it.
+ *
+ * Banks 0 to windows - 1 start out as the memory's current contents, each shown in the window of the same number,
+ * so an MMU can be attached to a memory that has already been loaded. Save states and Step Back see the
+ * CPU-visible 64 KB only; bank selections are device state and are neither saved nor undone. A bank shown in two
+ * windows at once is the same memory in both, though a snapshot taken meanwhile can split it.
+ */
+public class Mmu implements Device {
+
+    public static final int WINDOW_4K = 0x1000;
+    public static final int WINDOW_8K = 0x2000;
+    public static final int MAX_BANKS = 256;
+
+    private static final int SHARED = -1; // In storeCopies: the page was shared or read-only when set aside
+
+    private final Memory memory;
+    private final int windowSize;
+    private final int pagesPerWindow;
+    private final int ramBanks;
+    private final int bankCount;
+    private final byte[][] store; // Page arrays of every bank; stale for banks that are mapped, until they are set aside
+    private final int[] storeCopies; // Memory.copies when each page was set aside, or SHARED
+    private final int[] selected;
+
+    /**
+     * Creates an MMU with the given window size and numbers of RAM and ROM banks over a memory, showing
+     * bank n in window n. There must be a RAM bank for each window.
+     *
+     * @throws IllegalArgumentException if the window size or bank counts are not supported
+     */
+    public Mmu(Memory memory, int windowSize, int ramBanks, int romBanks) {
+        if (windowSize != WINDOW_4K && windowSize != WINDOW_8K) {
+            throw new IllegalArgumentException(String.format("Window size must be 4 KB or 8 KB, not %d bytes", windowSize));
+        }
+        int windows = Memory.SIZE / windowSize;
+        if (ramBanks < windows || romBanks < 0 || ramBanks + romBanks > MAX_BANKS) {
+            throw new IllegalArgumentException(String.format("Need %d to %d RAM banks and at most %d banks in all",
+                    windows, MAX_BANKS, MAX_BANKS));
+        }
+        this.memory = memory;
+        this.windowSize = windowSize;
+        this.pagesPerWindow = windowSize / Memory.PAGE_SIZE;
+        this.ramBanks = ramBanks;
+        this.bankCount = ramBanks + romBanks;
+        this.store = new byte[bankCount * pagesPerWindow][];
+        this.storeCopies = new int[store.length];
+        this.selected = new int[windows];
+        for (int page = 0; page < store.length; page++) {
+            store[page] = page < Memory.PAGE_COUNT ? memory.page(page) : new byte[Memory.PAGE_SIZE];
+            storeCopies[page] = memory.copies;
+        }
+        for (int window = 0; window < windows; window++) {
+            selected[window] = window;
+        }
+    }
+
+    /**
+     * Returns the number of bank-select registers, one per window.
+     */
+    public int getRegisterCount() {
+        return selected.length;
+    }
+
+    @Override
+    public int read(int register) {
+        return peek(register);
+    }
+
+    @Override
+    public void write(int register, int value) {
+        if (register < selected.length) {
+            select(register, value & 0xFF);
+        }
+    }
+
+    @Override
+    public int peek(int register) {
+        return register < selected.length ? selected[register] : 0xFF;
+    }
+
+    /**
+     * Shows a bank in a window. Selecting a bank past the last one is ignored.
+     */
+    public void select(int window, int bank) {
+        int current = selected[window];
+        if (bank == current || bank < 0 || bank >= bankCount) {
+            return;
+        }
+        int first = window * pagesPerWindow;
+        int alias = windowOf(bank);
+        for (int i = 0; i < pagesPerWindow; i++) {
+            int page = first + i;
+            int from = current * pagesPerWindow + i;
+            int to = bank * pagesPerWindow + i;
+            store[from] = memory.page(page);
+            storeCopies[from] = memory.isShared(page) ? SHARED : memory.copies;
+            if (alias >= 0) {
+                int shown = alias * pagesPerWindow + i; // Already mapped: share the live page
+                memory.mapPage(page, memory.page(shown), memory.isShared(shown), bank >= ramBanks);
+            } else {
+                memory.mapPage(page, store[to], storeCopies[to] != memory.copies, bank >= ramBanks);
+            }
+        }
+        selected[window] = bank;
+    }
+
+    /**
+     * Returns the bank shown in a window.
+     */
+    public int getBank(int window) {
+        return selected[window];
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public int getBankCount() {
+        return bankCount;
+    }
+
+    /**
+     * Returns the size of the physical memory: every RAM and ROM bank.
+     */
+    public int getPhysicalSize() {
+        return bankCount * windowSize;
+    }
+
+    /**
+     * Returns the byte at a physical address, wherever its bank is.
+     */
+    public int peekPhysical(int address) {
+        int page = address / Memory.PAGE_SIZE;
+        int window = windowOf(page / pagesPerWindow);
+        byte[] data = window >= 0 ? memory.page(window * pagesPerWindow + page % pagesPerWindow) : store[page];
+        return data[address % Memory.PAGE_SIZE] & 0xFF;
+    }
+
+    /**
+     * Copies the remaining bytes of a buffer into physical memory from a physical address, ROM banks included.
+     * Banks that are shown are written through the memory, so its views and code caches see the change.
+     *
+     * @throws IllegalArgumentException if the bytes run past the end of physical memory
+     */
+    public void load(int address, ByteBuffer data) {
+        if (address < 0 || (long) address + data.remaining() > getPhysicalSize()) {
+            throw new IllegalArgumentException(String.format("%d bytes do not fit at physical %X", data.remaining(), address));
+        }
+        int limit = data.limit();
+        while (data.hasRemaining()) {
+            int page = address / Memory.PAGE_SIZE;
+            int length = Math.min(Memory.PAGE_SIZE - address % Memory.PAGE_SIZE, data.remaining());
+            int window = windowOf(page / pagesPerWindow);
+            data.limit(data.position() + length);
+            if (window >= 0) {
+                memory.load(window * windowSize + address % windowSize, data);
+            } else {
+                if (storeCopies[page] != memory.copies) {
+                    store[page] = store[page].clone();
+                    storeCopies[page] = memory.copies;
+                }
+                data.get(store[page], address % Memory.PAGE_SIZE, length);
+            }
+            data.limit(limit);
+            address += length;
+        }
+    }
+
+    /* Returns the first window showing a bank, or -1 */
+    private int windowOf(int bank) {
+        for (int window = 0; window < selected.length; window++) {
+            if (selected[window] == bank) {
+                return window;
+            }
+        }
+        return -1;
+    }
+}
@@ -1,9 +1,20 @@
 import javax.swing.*;
+import javax.swing.table.TableColumn;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.print.PrinterException;
-import java.util.Arrays;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
 
 /**
@@ -18,15 +29,44 @@ interface BinaryOperation {
  */
 public class Motorola6809Emulator {
 
+    private static final int ROM_START = 0xFC00; // The starting address of the ROM in the emulator
+    private static final int ROM_VIEW_SIZE = 256; // The size of the ROM you wish to display
+    private static final String[] CLOCK_NAMES = {"Unthrottled", "1 MHz", "1.5 MHz", "2 MHz"};
+    private static final long TRACE_CAPACITY = 1L << 24; // Instructions kept in the trace ring (512 MB file)
+    private static final int PROFILE_HOT_SPOTS = 20; // Addresses listed in a profile report
+    private static final long[] CLOCK_RATES = {CpuRunner.UNTHROTTLED, 1_000_000, 1_500_000, 2_000_000};
+
     private JFrame frame;
     private JComboBox<String> instructionBox;
     private JButton executeButton;
     private JButton stepButton;
+    private JButton runButton;
+    private JButton traceButton;
+    private JButton profileButton;
+    private JButton stepBackButton;
+    private JButton runBackButton;
+    private JButton saveStateButton;
+    private JButton loadStateButton;
+    private JButton loadImageButton;
+    private JComboBox<String> clockBox;
+    private JCheckBox translateBox;
+    private JLabel clockLabel;
     private JTextField accumulatorAField;
     private JTextField accumulatorBField;
     private JTextField breakpointField;
-    private JTextArea memoryView;
-    private String[] memory;
+    private MemoryTableModel memoryModel;
+    private Memory memory;
+    private Cpu6809 cpu;
+    private CpuRunner runner;
+    private Journal journal;
+    private BlockTranslator translator;
+    private StandardIo io;
+    private final StringBuilder serialOutput = new StringBuilder(); // ACIA output not yet shown
+    private CpuSnapshot shownSnapshot; // State currently displayed; the views never read the live core
+    private final AtomicReference<CpuSnapshot> pendingSnapshot = new AtomicReference<>();
+    private long runStartCount;
+    private long runStartCycles;
+    private long runStartNanos;
 
     private JTextField inputField;
     private JButton interruptButton;
@@ -37,19 +77,15 @@ public class Motorola6809Emulator {
     private JTextArea asmEditorArea;
     private JButton runAsmCodeButton;
     private JButton openAsmEditorButton;
-    private JTextArea asmMemoryView;
-    private JTextArea romMemoryView;
+    private MemoryTableModel asmMemoryModel;
+    private MemoryTableModel romMemoryModel;
     private JTextField indexRegisterXField;
     private JTextField indexRegisterYField;
     private JTextField stackPointerField;
     private JTextField conditionCodeRegisterField;
 
-    private int indexRegisterX;
-    private int indexRegisterY;
-    private int programCounter;
-    private int stackPointer;
-    private int conditionCodeRegister;
-    private int currentMemoryAddress = 0;
+    private Assembler6809 assembler = new Assembler6809(ROM_START); // Code without an ORG goes into the ROM
+    private Assembly lastAssembly; // Symbols for profile reports
 
     /**
      * Constructor for the Motorola 6809 Emulator.
@@ -57,13 +93,19 @@ public class Motorola6809Emulator {
     public Motorola6809Emulator()
     {
 
-        indexRegisterX = 0;
-        indexRegisterY = 0;
-        programCounter = 0xFC00; // Start at FC00
-        conditionCodeRegister = 0;
-
-        memory = new String[65536]; // Use 65536 if you need the full addressable range
-        Arrays.fill(memory, "00");
+        memory = new Memory(); // Full 64 KB addressable range
+        cpu = new Cpu6809(memory); // The frame is only a view over this core
+        cpu.setPc(ROM_START); // Start at FC00
+        cpu.setS(ROM_START); // Stack grows down from just below the ROM
+        runner = new CpuRunner(cpu, memory, this::snapshotReady); // Executes "Run" on its own thread
+        journal = new Journal(cpu, memory); // History for "Step Back" and "Run Back"
+        translator = new BlockTranslator(cpu, memory); // Only used while "Translate" is ticked
+        io = new StandardIo(memory, cpu, null, new OutputStream() { // ACIA at A000 prints to the console output
+            @Override
+            public void write(int value) {
+                appendSerialOutput((char) (value & 0xFF));
+            }
+        });
 
         frame = new JFrame("Motorola 6809 Emulator");
         frame.setLayout(new FlowLayout());
@@ -74,12 +116,57 @@ public class Motorola6809Emulator {
         });
         executeButton = new JButton("Execute");
         accumulatorAField = new JTextField(10);
+        accumulatorAField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    cpu.setA(parseHexByte(accumulatorAField.getText()));
+                    accumulatorAField.setText(String.format("%02X", cpu.getA()));
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(frame, "Invalid input for Accumulator A");
+                }
+            }
+        });
         accumulatorBField = new JTextField(10);
+        accumulatorBField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    cpu.setB(parseHexByte(accumulatorBField.getText()));
+                    accumulatorBField.setText(String.format("%02X", cpu.getB()));
+                } catch (NumberFormatException ex) {
+                    JOptionPane.showMessageDialog(frame, "Invalid input for Accumulator B");
+                }
+            }
+        });
         breakpointField = new JTextField(10);
+        breakpointField.setToolTipText("FC10, FC10 if A=05, W 2000, R 2000 if [2000]=FF, RW 2000 or CLEAR; Enter toggles");
+        breakpointField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                try {
+                    toggleBreakpoint(breakpointField.getText());
+                    breakpointField.setText("");
+                } catch (IllegalArgumentException ex) {
+                    JOptionPane.showMessageDialog(frame, "Invalid breakpoint: " + ex.getMessage());
+                }
+            }
+        });
         stepButton = new JButton("Step");
-        memoryView = new JTextArea(10, 30);
-        memory = new String[1000]; // Assume our emulated memory has 1000 slots
-        stackPointer = memory.length - 1;
+        traceButton = new JButton("Start Trace");
+        profileButton = new JButton("Start Profile");
+        stepBackButton = new JButton("Step Back");
+        runBackButton = new JButton("Run Back");
+        saveStateButton = new JButton("Save State");
+        loadStateButton = new JButton("Load State");
+        loadImageButton = new JButton("Load Image");
+        loadImageButton.setToolTipText("S19/S28/S37, Intel HEX, or a raw binary placed at the ROM start");
+        runButton = new JButton("Run");
+        clockBox = new JComboBox<>(CLOCK_NAMES);
+        clockLabel = new JLabel();
+        translateBox = new JCheckBox("Translate");
+        translateBox.setToolTipText("Compile hot code to JVM classes while running without breakpoints; turns off Step Back");
+        memoryModel = new MemoryTableModel(memory, 0, memory.size());
         openAsmEditorButton = new JButton("Open Asm Editor");
         frame.add(openAsmEditorButton);
 
@@ -89,9 +176,9 @@ public class Motorola6809Emulator {
             public void actionPerformed(ActionEvent e) {
                 try {
                     // Parse the input as hexadecimal and update the index register
-                    indexRegisterX = Integer.parseInt(indexRegisterXField.getText(), 16);
+                    cpu.setX(Integer.parseInt(indexRegisterXField.getText(), 16));
                     // Immediately update the text field to reflect the hexadecimal value
-                    indexRegisterXField.setText(String.format("%04X", indexRegisterX));
+                    indexRegisterXField.setText(String.format("%04X", cpu.getX()));
                 } catch (NumberFormatException ex) {
                     JOptionPane.showMessageDialog(frame, "Invalid input for Index Register X");
                 }
@@ -104,9 +191,9 @@ public class Motorola6809Emulator {
             public void actionPerformed(ActionEvent e) {
                 try {
                     // Parse the input as hexadecimal and update the index register
-                    indexRegisterY = Integer.parseInt(indexRegisterYField.getText(), 16);
+                    cpu.setY(Integer.parseInt(indexRegisterYField.getText(), 16));
                     // Immediately update the text field to reflect the hexadecimal value
-                    indexRegisterYField.setText(String.format("%04X", indexRegisterY));
+                    indexRegisterYField.setText(String.format("%04X", cpu.getY()));
                 } catch (NumberFormatException ex) {
                     JOptionPane.showMessageDialog(frame, "Invalid input for Index Register Y");
                 }
@@ -121,8 +208,8 @@ public class Motorola6809Emulator {
                 try {
                     int value = Integer.parseInt(stackPointerField.getText(), 16);
                     // Check if the value is within the bounds of the memory array
-                    if (value >= 0 && value < memory.length) {
-                        stackPointer = value;
+                    if (value >= 0 && value < memory.size()) {
+                        cpu.setS(value);
                         // Optionally update the GUI or memory if needed
                     } else {
                         JOptionPane.showMessageDialog(frame, "Stack Pointer value is out of bounds!");
@@ -144,9 +231,20 @@ public class Motorola6809Emulator {
         frame.add(accumulatorAField);
         frame.add(new JLabel("Accumulator B:"));
         frame.add(accumulatorBField);
-        // frame.add(new JLabel("Breakpoint Address:"));
-        // frame.add(breakpointField);
+        frame.add(new JLabel("Breakpoint Address:"));
+        frame.add(breakpointField);
+        frame.add(stepBackButton);
         frame.add(stepButton);
+        frame.add(runBackButton);
+        frame.add(traceButton);
+        frame.add(profileButton);
+        frame.add(saveStateButton);
+        frame.add(loadStateButton);
+        frame.add(loadImageButton);
+        frame.add(runButton);
+        frame.add(clockBox);
+        frame.add(clockLabel);
+        frame.add(translateBox);
         frame.add(new JLabel("Index Register X:"));
         frame.add(indexRegisterXField);
         frame.add(new JLabel("Index Register Y:"));
@@ -156,15 +254,35 @@ public class Motorola6809Emulator {
         frame.add(new JLabel("Condition Code Register:"));
         frame.add(conditionCodeRegisterField);
         frame.add(new JLabel("Memory View:"));
-        frame.add(new JScrollPane(memoryView));
+        frame.add(createMemoryTable(memoryModel));
 
         /* Input simulation field and interrupt button */
-        // JLabel inputLabel = new JLabel("Input:");
-        // inputField = new JTextField(10);
+        JLabel inputLabel = new JLabel("Input:");
+        inputField = new JTextField(10);
+        inputField.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                // Each line is sent to the ACIA as typed, ended by a carriage return
+                for (char c : inputField.getText().toCharArray()) {
+                    io.getAcia().receive(c);
+                }
+                io.getAcia().receive('\r');
+                inputField.setText("");
+            }
+        });
 
-        // frame.add(inputLabel);
-        // frame.add(inputField);
-        // frame.add(interruptButton);
+        interruptButton = new JButton("NMI");
+        interruptButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                cpu.nmi(); // Taken before the next instruction, whether running or stepping
+                printToOutput("NMI signalled");
+            }
+        });
+
+        frame.add(inputLabel);
+        frame.add(inputField);
+        frame.add(interruptButton);
 
         /* Console-like output area for displaying outputs and debug messages */
         outputArea = new JTextArea(5, 30);
@@ -200,19 +318,129 @@ public class Motorola6809Emulator {
         stepButton.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                // Stepping will execute the next instruction
-                executeInstruction();
-                // Update memory view
-                updateMemoryView();
+                // Stepping will execute the machine instruction at PC
+                stepInstruction();
+                // Repaint only the memory the instruction wrote
+                refreshViews();
+            }
+        });
+
+        /* Button actions for moving backwards through the journal */
+        stepBackButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (journal.stepBack()) {
+                    printToOutput(String.format("Stepped back, PC now at: %04X", cpu.getPc()));
+                } else {
+                    printToOutput("No earlier instruction in the journal");
+                }
+                refreshViews();
+            }
+        });
+        runBackButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                long start = cpu.getInstructionCount();
+                String reason = journal.runBack();
+                printToOutput(String.format("%s after %d instruction(s) back, PC at: %04X", reason,
+                        start - cpu.getInstructionCount(), cpu.getPc()));
+                refreshViews();
+            }
+        });
+
+        /* Button action for recording a binary execution trace; the same button stops it */
+        traceButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (cpu.getTracer() != null) {
+                    stopTrace();
+                } else {
+                    startTrace();
+                }
+            }
+        });
+
+        /* Button action for profiling; stopping prints hot spots, routines and calls to the console output */
+        profileButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Profiler profiler = cpu.getProfiler();
+                if (profiler == null) {
+                    cpu.setProfiler(new Profiler());
+                    profileButton.setText("Stop Profile");
+                    printToOutput("Profiling; translation is off until the profile is stopped");
+                    return;
+                }
+                cpu.setProfiler(null);
+                profileButton.setText("Start Profile");
+                printToOutput(profiler.report(lastAssembly != null ? lastAssembly.getSymbols() : Collections.emptyMap(),
+                        PROFILE_HOT_SPOTS));
+            }
+        });
+
+        /* Button actions for saving the whole machine state to a file and restoring it */
+        saveStateButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveState();
+            }
+        });
+        loadStateButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                loadState();
+            }
+        });
+
+        /* Button action for loading a program image straight into memory */
+        loadImageButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                loadImage();
+            }
+        });
+
+        /* Button action for free-running execution; the same button pauses */
+        runButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (runner.isRunning()) {
+                    runner.pause();
+                } else {
+                    startRun(null);
+                }
+            }
+        });
+
+        /* Clock rate may change during a run; the runner re-paces from that point */
+        clockBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                runner.setClockHz(CLOCK_RATES[clockBox.getSelectedIndex()]);
+            }
+        });
+
+        /* Translated code keeps no undo journal, so reverse execution is off while it is selected */
+        translateBox.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (translateBox.isSelected()) {
+                    cpu.setJournal(null);
+                    cpu.setTranslator(translator);
+                } else {
+                    cpu.setTranslator(null);
+                    translator.reset();
+                    journal.clear();
+                    cpu.setJournal(journal);
+                }
+                setRunning(false);
             }
         });
 
         /* Initialize memory with placeholder values */
-        for (int i = 0; i < memory.length; i++) {
-            memory[i] = "00"; // Placeholder value
-        }
+        memory.clear(0x00);
 
-        updateMemoryView();
+        refreshViews();
 
         frame.setSize(400, 600);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -236,15 +464,16 @@ public class Motorola6809Emulator {
         asmEditorArea = new JTextArea(20, 30);
         asmEditorDialog.add(new JScrollPane(asmEditorArea));
 
-        asmMemoryView = new JTextArea(10, 30); // Initialize asmMemoryView
+        asmMemoryModel = new MemoryTableModel(shownSnapshot.getMemory(), 0, 1024); // First 1 KB of RAM
         asmEditorDialog.add(new JLabel("Memory View:"));
-        asmEditorDialog.add(new JScrollPane(asmMemoryView));
+        asmEditorDialog.add(createMemoryTable(asmMemoryModel));
 
-        romMemoryView = new JTextArea(10, 30); // Initialize romMemoryView
+        romMemoryModel = new MemoryTableModel(shownSnapshot.getMemory(), ROM_START, ROM_VIEW_SIZE);
         asmEditorDialog.add(new JLabel("ROM View:"));
-        asmEditorDialog.add(new JScrollPane(romMemoryView));
+        asmEditorDialog.add(createMemoryTable(romMemoryModel));
 
-        JButton runAsmCodeButton = new JButton("Run Asm Code");
+        runAsmCodeButton = new JButton("Run Asm Code");
+        runAsmCodeButton.setEnabled(!runner.isRunning());
         asmEditorDialog.add(runAsmCodeButton);
 
         // Logic for running assembly code can be implemented here
@@ -253,7 +482,6 @@ public class Motorola6809Emulator {
             public void actionPerformed(ActionEvent e) {
                 // For example, you can parse the input in asmEditorArea and execute it
                 runAssemblyCode(asmEditorArea.getText());
-                updateMemoryViews();
             }
         });
 
@@ -262,466 +490,166 @@ public class Motorola6809Emulator {
     }
 
 
-    private void updateMemoryViews() {
-        // Update the memory views for both the main emulator and the assembly editor
-        updateMemoryView();
-        updateAsmMemoryView();
-        updateRomMemoryView();
+    /* Builds a hex table over a memory window; rows are only formatted when they are visible */
+    private JScrollPane createMemoryTable(MemoryTableModel model) {
+        JTable table = new JTable(model);
+        table.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        table.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
+        table.getTableHeader().setReorderingAllowed(false);
+        table.setCellSelectionEnabled(true);
+        for (int i = 0; i < table.getColumnCount(); i++) {
+            TableColumn column = table.getColumnModel().getColumn(i);
+            column.setPreferredWidth(i == 0 ? 44 : 24);
+        }
+        JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.setPreferredSize(new Dimension(360, 180));
+        return scrollPane;
     }
 
-
-    private void updateRegisterFields() {
-        // Use String.format to convert to hexadecimal format with leading zeros
-        indexRegisterXField.setText(String.format("%04X", indexRegisterX));
-        indexRegisterYField.setText(String.format("%04X", indexRegisterY));
-        stackPointerField.setText(String.format("%04X", stackPointer).toUpperCase());
-        conditionCodeRegisterField.setText(Integer.toBinaryString(conditionCodeRegister));
-    }
-    /* adam/mouad/salma */
-    private void updateRomMemoryView() {
-        StringBuilder builder = new StringBuilder();
-        // Define the actual ROM size you want to display
-        int romSize = 256; // The size of the ROM you wish to display
-        int romStartAddress = 0xFC00; // The starting address of the ROM in the emulator
-        int actualRomStartSlot = memory.length - romSize; // This is where ROM starts in your 1000-slot array
-
-        for (int i = 0; i < romSize; i++) {
-            // Calculate the actual index in the 1000-slot array where the ROM data is stored
-            int actualIndex = actualRomStartSlot + i;
-            // Check if the actual index is within the bounds of the memory array
-            if (actualIndex >= 0 && actualIndex < memory.length) {
-                // Format the address as a 4-digit hexadecimal number with leading zeros
-                String address = String.format("%04X", romStartAddress + i);
-                builder.append("Addr ").append(address).append(": ").append(memory[actualIndex]).append("\n");
-            }
+    /* Called on the runner thread; only the newest snapshot is handed to the EDT, older ones are dropped */
+    private void snapshotReady(CpuSnapshot snapshot) {
+        if (pendingSnapshot.getAndSet(snapshot) == null) {
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    showSnapshot(pendingSnapshot.getAndSet(null));
+                }
+            });
         }
-
-        romMemoryView.setText(builder.toString());
-        romMemoryView.setCaretPosition(0); // Scroll to the top
     }
 
+    /* Shows the current state after the EDT itself changed the core (step, execute, assemble) */
+    private void refreshViews() {
+        showSnapshot(runner.snapshot());
+    }
 
-    /* salma/mouad/adam */
-    private void updateAsmMemoryView() {
-        StringBuilder builder = new StringBuilder();
-        int startAddress = 0; // Example start address
-        int endAddress = 1024; // Example end address, adjust as needed
-
-        for (int i = startAddress; i < endAddress && i < memory.length; i++) {
-            builder.append("Addr ").append(String.format("%04X", i)).append(": ").append(memory[i]).append("\n");
+    private void showSnapshot(CpuSnapshot snapshot) {
+        boolean consecutive = shownSnapshot != null && snapshot.getSequence() == shownSnapshot.getSequence() + 1;
+        shownSnapshot = snapshot;
+        updateRegisterFields(snapshot);
+        updateMemoryViews(snapshot, consecutive);
+        updateClockLabel(snapshot);
+        if (!snapshot.isRunning() && !stepButton.isEnabled()) {
+            // The run has ended, either paused or stopped by the core
+            String reason = runner.getStopReason();
+            long cycles = snapshot.getCycles() - runStartCycles;
+            double seconds = (System.nanoTime() - runStartNanos) / 1e9;
+            printToOutput(String.format("%s after %d instruction(s), %d cycles (%.2f MHz), PC at: %04X",
+                    reason != null ? reason : "Paused", snapshot.getInstructionCount() - runStartCount, cycles,
+                    seconds > 0 ? cycles / seconds / 1e6 : 0.0, snapshot.getPc()));
+            setRunning(false);
         }
-        asmMemoryView.setText(builder.toString());
-        asmMemoryView.setCaretPosition(0); // Scroll to the top
     }
 
+    private void updateClockLabel(CpuSnapshot snapshot) {
+        if (snapshot.isRunning()) {
+            clockLabel.setText(String.format("%d cycles, %.2f MHz", snapshot.getCycles(), snapshot.getEffectiveHz() / 1e6));
+        } else {
+            clockLabel.setText(String.format("%d cycles", snapshot.getCycles()));
+        }
+    }
 
-    /* salma/mouad/adam */
-    private void runAssemblyCode(String asmCode) {
-        String[] lines = asmCode.split("\\n"); // Split the input text into lines
-        for (String line : lines) {
-            String[] parts = line.trim().split("\\s+"); // Split each line into instruction and operand(s)
-            String instruction = parts[0].toUpperCase();
-            String operand = parts.length > 1 ? parts[1] : "";
-
-            // Ignore empty lines and comments
-            if (line.isEmpty() || line.startsWith(";")) {
+    private void updateMemoryViews(CpuSnapshot snapshot, boolean consecutive) {
+        // Repaint the pages written since the previous snapshot in every open memory view;
+        // if snapshots were dropped in between, every row is repainted
+        memoryModel.setMemory(snapshot.getMemory());
+        if (asmMemoryModel != null) {
+            asmMemoryModel.setMemory(snapshot.getMemory());
+            romMemoryModel.setMemory(snapshot.getMemory());
+        }
+        int page = 0;
+        while (page < Memory.PAGE_COUNT) {
+            if (consecutive && !snapshot.isPageDirty(page)) {
+                page++;
                 continue;
             }
-
-            // Process the instruction
-            switch (instruction.toUpperCase()) {
-                case "LDA":
-                    if (parts.length >= 2) {
-                        handleImmediateAddressing(parts[1], accumulatorAField);
-                        int romSize = 256; // Example ROM size
-                        int romStartIndex = memory.length - romSize; // Memory array index where ROM starts
-
-                        // Convert program counter to memory array index
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex;
-                        String ldaOpcode = "86";
-                        // Store opcode at the current program counter location
-                        if (memoryIndex >= romStartIndex && memoryIndex < memory.length) {
-                            memory[memoryIndex] = ldaOpcode;
-
-                            // Check if the operand is immediate addressing with a constant value
-                            if (parts[1].startsWith("#$")) {
-                                // Extract the immediate value and store it in the next address
-                                String immediateValue = parts[1].substring(2); // Remove the '#$'
-                                memory[memoryIndex + 1] = immediateValue;
-
-                                // Increment program counter by 2, for the opcode and operand
-                                programCounter += 2;
-                            }
-
-                            // Update the ROM view after modifying memory
-                            updateRomMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range.");
-                        }
-
-                        printToOutput(String.format("Executed instruction: LDA #%s, PC at: %04X", line, programCounter));
-
-                    }
-                    break;
-                case "LDB":
-                    if (parts.length >= 2) {
-                        handleImmediateAddressing(parts[1], accumulatorBField);
-                        String ldbOpcode = "C6";  // This is a placeholder opcode for LDB
-
-                        // Convert program counter to memory array index
-                        int romSize = 256; // Example ROM size
-                        int romStartIndex = memory.length - romSize; // Memory array index where ROM starts
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex;
-
-                        if (memoryIndex >= romStartIndex && memoryIndex < memory.length) {
-                            memory[memoryIndex] = ldbOpcode; // Store the LDB opcode at the current program counter location
-
-                            if (parts[1].startsWith("#$")) {
-                                // Extract the immediate value and store it in the next address
-                                String immediateValue = parts[1].substring(2); // Remove the '#$'
-                                memory[memoryIndex + 1] = immediateValue; // Store the immediate value
-
-                                // Increment program counter by 2, for the opcode and operand
-                                programCounter += 2;
-                            }
-
-                            // Update the ROM view after modifying memory
-                            updateRomMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range.");
-                        }
-                        printToOutput(String.format("Executed instruction: LDB #%s, PC at: %04X", line, programCounter));
-
-                    }
-                    break;
-                case "LDX":
-                    if (parts.length >= 2) {
-                        String valueStr = parts[1].replaceAll("#\\$", ""); // Remove the immediate value indicator
-                        indexRegisterX = Integer.parseInt(valueStr, 16); // Parse the immediate value as hexadecimal
-                        indexRegisterXField.setText(String.format("%04X", indexRegisterX)); // Update the text field to show the register's new value
-
-                        int romSize = 256;
-                        int romStartIndex = memory.length - romSize; // Memory array index where ROM starts
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex; // Translate to the array index
-
-                        if (memoryIndex >= romStartIndex && memoryIndex < memory.length - 1) {
-                            memory[memoryIndex] = "8E"; // Opcode for LDX immediate
-                            memory[memoryIndex + 1] = String.format("%02X", (indexRegisterX >> 8) & 0xFF); // High byte of operand
-                            memory[memoryIndex + 2] = String.format("%02X", indexRegisterX & 0xFF); // Low byte of operand
-
-                            // Update the program counter
-                            programCounter += 3; // Opcode + 2 bytes of operand
-
-                            // Update the ROM view to reflect the new state of memory
-                            updateRomMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range or not enough space for LDX.");
-                        }
-                        printToOutput("Executed instruction: LDX with value #$" + valueStr + "; PC = $" + String.format("%04X", programCounter));
-                    }
-                    break;
-
-                case "LDY":
-                    if (parts.length >= 2) {
-                        String valueStr = parts[1].replaceAll("#\\$", ""); // Remove the immediate value indicator
-                        indexRegisterY = Integer.parseInt(valueStr, 16); // Parse the immediate value as hexadecimal
-                        indexRegisterYField.setText(String.format("%04X", indexRegisterY)); // Update the text field to show the register's new value
-
-                        int romSize = 256;
-                        int romStartIndex = memory.length - romSize; // Memory array index where ROM starts
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex; // Translate to the array index
-
-                        if (memoryIndex >= romStartIndex && memoryIndex < memory.length - 3) {
-                            memory[memoryIndex] = "10"; // First byte of LDY opcode
-                            memory[memoryIndex + 1] = "CE"; // Second byte of LDY opcode
-                            memory[memoryIndex + 2] = String.format("%02X", (indexRegisterY >> 8) & 0xFF); // High byte of operand
-                            memory[memoryIndex + 3] = String.format("%02X", indexRegisterY & 0xFF); // Low byte of operand
-
-                            // Update the program counter
-                            programCounter += 4; // 2 bytes for opcode + 2 bytes for operand
-
-                            // Update the ROM view to reflect the new state of memory
-                            updateRomMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range or not enough space for LDY.");
-                        }
-                        printToOutput("Executed instruction: LDY with value #$" + valueStr + "; PC = $" + String.format("%04X", programCounter));
-                    }
-                    break;
-                case "PSHS":
-                    if (stackPointer >= 0 && stackPointer < memory.length) {
-                        String accumulatorValue = accumulatorAField.getText();
-                        String pshsOpcode = "34";
-
-                        int memoryIndex = programCounter - 0xFC00 + (memory.length - 256);
-
-                        if (memoryIndex >= 0 && memoryIndex < memory.length - 1) {
-                            memory[memoryIndex] = pshsOpcode; // Store opcode
-                            memory[memoryIndex + 1] = accumulatorValue;
-                            memory[stackPointer] = accumulatorValue; // Push accumulator value onto stack
-                            stackPointer--; // Decrement stack pointer to simulate stack push
-
-                            programCounter += 2;
-
-                            // Update the ROM view to reflect the new state of memory
-                            updateRomMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Stack pointer or program counter out of range.");
-                        }
-
-                        // Print the output message with the updated program counter
-                        printToOutput(String.format("Executed instruction: PSHS A, SP at: %04X, PC at: %04X", stackPointer, programCounter));
-                    } else {
-                        JOptionPane.showMessageDialog(frame, "Stack overflow error!"); // The stack is full, cannot push
-                    }
-                    break;
-                case "PULS":
-                    // Check if the stack pointer is within the bounds of the memory array
-                    if (stackPointer >= 0 && stackPointer < memory.length - 1) {
-                        String pulsOpcode = "35";  // Placeholder opcode for PULS
-                        String accumulatorValue = accumulatorAField.getText();
-
-                        // Store the PULS opcode at the current program counter location
-                        int memoryIndex = programCounter - 0xFC00 + (memory.length - 256); // Adjust as per your ROM setup
-
-                        if (memoryIndex >= 0 && memoryIndex < memory.length) {
-                            memory[memoryIndex] = pulsOpcode; // Store opcode
-                            memory[memoryIndex + 1 ] = accumulatorValue;
-
-                            // Increment the program counter by 1 for the opcode (assuming PULS only takes 1 byte)
-                            programCounter += 2;
-
-                            // Update the ROM view to reflect the new state of memory
-                            updateRomMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range.");
-                        }
-
-                        // Execute the PULS instruction
-                        stackPointer++; // Increment stack pointer to point to the next item to pull
-                        String valuePulled = memory[stackPointer]; // Retrieve the value from the stack
-                        accumulatorAField.setText(valuePulled); // Update Accumulator A with the retrieved value
-                        printToOutput(String.format("Pulled %s from the stack at address: %04X, PC at: %04X", valuePulled, stackPointer, programCounter));
-                        memory[stackPointer] = "00"; // Optionally clear the value in memory if your stack behavior requires it
-
-                        // Update the memory view after the operation
-                        updateMemoryView();
-                        // Update register fields to show the new stack pointer value
-                        updateRegisterFields();
-                    } else {
-                        JOptionPane.showMessageDialog(frame, "Stack underflow error!"); // The stack is empty, cannot pull
-                    }
-                    break;
-
-                case "ADDA":
-                    try {
-                        String addaOpcode = "8B"; // Placeholder opcode for ADDA immediate (assuming immediate addressing)
-                        String inputA = accumulatorAField.getText().replaceAll("(?i)^0x", "");
-                        String inputB = accumulatorBField.getText().replaceAll("(?i)^0x", "");
-                        int a = Integer.parseInt(inputA, 16);
-                        int b = Integer.parseInt(inputB, 16);
-                        int sum = a + b;
-                        sum &= 0xFF; // Ensure the result is within one byte
-                        accumulatorAField.setText(String.format("%02X", sum).toUpperCase());
-
-                        // Convert program counter to memory array index
-                        int romSize = 256; // Example ROM size
-                        int romStartIndex = memory.length - romSize; // Memory array index where ROM starts
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex;
-
-                        if (memoryIndex >= 0 && memoryIndex < memory.length - 1) {
-                            memory[memoryIndex] = addaOpcode; // Store the opcode for ADDA
-                            memory[memoryIndex + 1] = String.format("%02X", b); // Store the operand (immediate value)
-
-                            // Increment program counter by 2 for the opcode and operand
-                            programCounter += 2;
-
-                            // Update the ROM view and the general memory view to reflect the new state of memory
-                            updateRomMemoryView();
-                            updateMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range or not enough space for ADDA.");
-                        }
-
-                        printToOutput(String.format("Executed instruction: ADDA #%s, Result in A: %s, PC at: %04X", inputB, String.format("%02X", sum), programCounter));
-                    } catch (NumberFormatException ex) {
-                        JOptionPane.showMessageDialog(frame, "Invalid hexadecimal input for ADDA.");
-                    }
-                    break;
-
-                case "SUBA":
-                    try {
-                        String subaOpcode = "80"; // Placeholder opcode for SUBA immediate (assuming immediate addressing)
-                        String inputA = accumulatorAField.getText().replaceAll("(?i)^0x", "");
-                        String inputB = accumulatorBField.getText().replaceAll("(?i)^0x", "");
-                        int a = Integer.parseInt(inputA, 16);
-                        int b = Integer.parseInt(inputB, 16);
-                        int difference = a - b;
-                        difference &= 0xFF; // Ensure the result is within one byte
-                        accumulatorAField.setText(String.format("%02X", difference).toUpperCase());
-
-                        // Convert program counter to memory array index
-                        int romSize = 256; // Example ROM size
-                        int romStartIndex = memory.length - romSize; // Memory array index where ROM starts
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex;
-
-                        if (memoryIndex >= 0 && memoryIndex < memory.length - 1) {
-                            memory[memoryIndex] = subaOpcode; // Store the opcode for SUBA
-                            memory[memoryIndex + 1] = String.format("%02X", b); // Store the operand (immediate value)
-
-                            // Increment program counter by 2 for the opcode and operand
-                            programCounter += 2;
-
-                            // Update the ROM view and the general memory view to reflect the new state of memory
-                            updateRomMemoryView();
-                            updateMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range or not enough space for SUBA.");
-                        }
-
-                        printToOutput(String.format("Executed instruction: SUBA #%s, Result in A: %s, PC at: %04X", inputB, String.format("%02X", difference), programCounter));
-                    } catch (NumberFormatException ex) {
-                        JOptionPane.showMessageDialog(frame, "Invalid hexadecimal input for SUBA.");
-                    }
-                    break;
-
-                case "MUL":
-                    try {
-                        String mulaOpcode = "3D"; // Replace XX with the actual opcode for MULA immediate
-                        String inputA = accumulatorAField.getText().replaceAll("(?i)^0x", "");
-                        String inputB = accumulatorBField.getText().replaceAll("(?i)^0x", "");
-                        int a = Integer.parseInt(inputA, 16);
-                        int b = Integer.parseInt(inputB, 16);
-                        int product = a * b;
-                        product &= 0xFF; // Ensure the result is within one byte
-                        accumulatorAField.setText(String.format("%02X", product).toUpperCase());
-
-                        // Convert program counter to memory array index
-                        int romSize = 256; // Example ROM size
-                        int romStartIndex = memory.length - romSize; // Memory array index where ROM starts
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex;
-
-                        if (memoryIndex >= 0 && memoryIndex < memory.length - 1) {
-                            memory[memoryIndex] = mulaOpcode; // Store the opcode for MULA
-
-                            // Increment program counter by 2 for the opcode and operand
-                            programCounter += 1;
-
-                            // Update the ROM view and the general memory view to reflect the new state of memory
-                            updateRomMemoryView();
-                            updateMemoryView();
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range or not enough space for MUL.");
-                        }
-
-                        printToOutput(String.format("Executed instruction: MUL #%s, Result in A: %s, PC at: %04X", inputB, String.format("%02X", product), programCounter));
-                    } catch (NumberFormatException ex) {
-                        JOptionPane.showMessageDialog(frame, "Invalid hexadecimal input for MUL.");
-                    }
-                    break;
-
-                case "STA":
-                    if (parts.length >= 2) {
-                        String operand1 = parts[1]; // Assume operand is in the format $XXXX or $XX for direct/extended addressing
-                        handleSTA(operand1, accumulatorAField); // Function to store accumulator value at memory address
-
-                        String staOpcode = "B7"; // Replace with the actual opcode for STA
-                        String addressOperand = operand1.replace("$", ""); // Remove $ for storing in memory
-
-                        // Calculate the index in the ROM area
-                        int romSize = 256; // Define the size of the ROM area
-                        int romStartIndex = memory.length - romSize; // Calculate the start index of ROM in memory array
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex; // Calculate the actual index in memory array
-
-                        // Store opcode and operand in ROM if there's enough space
-                        if (memoryIndex >= 0 && memoryIndex < memory.length - 2) {
-                            memory[memoryIndex] = staOpcode; // Store the opcode for STA at the program counter location
-                            memory[memoryIndex + 1] = addressOperand.substring(0, 2); // High byte of address
-                            memory[memoryIndex + 2] = addressOperand.substring(2); // Low byte of address
-
-                            programCounter += 3; // Increment the program counter by 3 (opcode + 2 bytes of address)
-
-                            updateRomMemoryView(); // Update ROM view to reflect changes
-                            updateMemoryView(); // Update general memory view
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range or not enough space for STA.");
-                        }
-
-                        printToOutput(String.format("Executed STA at %s, PC at: %04X", operand1, programCounter));
-                    }
-                    break;
-            case "STB":
-                    if (parts.length >= 2) {
-                        String operand1 = parts[1];
-                        handleSTA(operand1, accumulatorBField);
-
-                        String staOpcode = "F7";
-                        String addressOperand = operand1.replace("$", "");
-
-
-                        int romSize = 256;
-                        int romStartIndex = memory.length - romSize;
-                        int memoryIndex = programCounter - 0xFC00 + romStartIndex;
-
-                        // Store opcode and operand in ROM if there's enough space
-                        if (memoryIndex >= 0 && memoryIndex < memory.length - 2) {
-                            memory[memoryIndex] = staOpcode; // Store the opcode for STA at the program counter location
-                            memory[memoryIndex + 1] = addressOperand.substring(0, 2); // High byte of address
-                            memory[memoryIndex + 2] = addressOperand.substring(2); // Low byte of address
-
-                            programCounter += 3; // Increment the program counter by 3 (opcode + 2 bytes of address)
-
-                            updateRomMemoryView(); // Update ROM view to reflect changes
-                            updateMemoryView(); // Update general memory view
-                        } else {
-                            JOptionPane.showMessageDialog(frame, "Program counter is out of ROM range or not enough space for STB.");
-                        }
-
-                        printToOutput(String.format("Executed STB at %s, PC at: %04X", operand1, programCounter));
-                    }
-                    break;
-                default:
-                    printToOutput("Unknown instruction: " + instruction);
-                    break;
+            int first = page;
+            while (page < Memory.PAGE_COUNT && (!consecutive || snapshot.isPageDirty(page))) {
+                page++;
+            }
+            int from = first * Memory.PAGE_SIZE;
+            int to = page * Memory.PAGE_SIZE - 1;
+            memoryModel.bytesChanged(from, to);
+            if (asmMemoryModel != null) {
+                asmMemoryModel.bytesChanged(from, to);
+                romMemoryModel.bytesChanged(from, to);
             }
         }
-
-        updateRegisterFields();
-        updateAsmMemoryView();
     }
 
-    private void updateMemoryWithIndexRegister(int registerValue, String registerName) {
-        // Assuming you have a way to determine the memory address
-        // where the register value should be stored, let's call it registerAddress.
-        int registerAddress = getMemoryAddressForRegister(registerName);
+    /* Starts the runner; a non-null predicate stops it when PC leaves the addresses it accepts */
+    private void startRun(IntPredicate pcAllowed) {
+        runStartCount = cpu.getInstructionCount();
+        runStartCycles = cpu.getCycles();
+        runStartNanos = System.nanoTime();
+        setRunning(true);
+        runner.start(pcAllowed);
+    }
 
-        // Update the memory at the registerAddress with the value of the register.
-        // You'll need to convert the integer value to a hex string and store it.
-        memory[registerAddress] = String.format("%04X", registerValue);
+    /* While running, the core belongs to the runner thread, so every control that touches it is disabled */
+    private void setRunning(boolean running) {
+        runButton.setText(running ? "Pause" : "Run");
+        stepButton.setEnabled(!running);
+        stepBackButton.setEnabled(!running && !translateBox.isSelected());
+        runBackButton.setEnabled(!running && !translateBox.isSelected());
+        translateBox.setEnabled(!running);
+        traceButton.setEnabled(!running);
+        profileButton.setEnabled(!running);
+        saveStateButton.setEnabled(!running);
+        loadStateButton.setEnabled(!running);
+        loadImageButton.setEnabled(!running);
+        executeButton.setEnabled(!running);
+        if (runAsmCodeButton != null) {
+            runAsmCodeButton.setEnabled(!running);
+        }
+        accumulatorAField.setEditable(!running);
+        accumulatorBField.setEditable(!running);
+        indexRegisterXField.setEditable(!running);
+        indexRegisterYField.setEditable(!running);
+        stackPointerField.setEditable(!running);
+    }
 
-        // Update the memory view if necessary.
-        updateMemoryView();
+    private void updateRegisterFields(CpuSnapshot snapshot) {
+        // Use String.format to convert to hexadecimal format with leading zeros
+        accumulatorAField.setText(String.format("%02X", snapshot.getA()));
+        accumulatorBField.setText(String.format("%02X", snapshot.getB()));
+        indexRegisterXField.setText(String.format("%04X", snapshot.getX()));
+        indexRegisterYField.setText(String.format("%04X", snapshot.getY()));
+        stackPointerField.setText(String.format("%04X", snapshot.getS()));
+        conditionCodeRegisterField.setText(Integer.toBinaryString(snapshot.getCc()));
     }
 
-    private int getMemoryAddressForRegister(String registerName) {
-        // This is a placeholder function. You'll need to implement the logic
-        // to determine where in memory the index register values should be stored.
-        // For example:
-        switch (registerName) {
-            case "X":
-                return 0xFFFA; // Example address for X
-            case "Y":
-                return 0xFFFB; // Example address for Y
-            default:
-                return 0xFFFF; // Default case or error
+    /* Copies the accumulator text fields into the CPU so values typed without pressing Enter are used */
+    private void readAccumulatorFields() {
+        cpu.setA(parseHexByte(accumulatorAField.getText()));
+        cpu.setB(parseHexByte(accumulatorBField.getText()));
+    }
+    /* salma/mouad/adam */
+    private void runAssemblyCode(String asmCode) {
+        // Only the lines edited since the last run are re-encoded; the assembler has no side effects on the CPU
+        Assembly assembly = assembler.reassemble(asmCode);
+        if (assembly.hasErrors()) {
+            for (String error : assembly.getErrors()) {
+                printToOutput(error);
+            }
+            JOptionPane.showMessageDialog(frame, "Assembly failed with " + assembly.getErrors().size() + " error(s).");
+            return;
         }
+        printToOutput(String.format("Assembled %d bytes, start address %04X", assembly.size(), assembly.getStartAddress()));
+        lastAssembly = assembly;
+
+        // Load the image and run it on the runner thread until PC leaves the assembled code or Pause is pressed
+        assembly.loadInto(memory);
+        journal.clear(); // Loading is not an instruction and cannot be stepped back over
+        cpu.setPc(assembly.getStartAddress());
+        refreshViews();
+        startRun(assembly::contains);
     }
 
-
     private int findNextFreeMemoryAddress() {
         // Logic to find the next free address, for example:
-        for (int i = 0; i < memory.length; i++) {
-            if (memory[i].equals("00")) {
+        for (int i = 0; i < memory.size(); i++) {
+            if (memory.peek8(i) == 0x00) {
                 return i; // Return the index of the next free memory slot
             }
         }
@@ -730,34 +658,6 @@ public class Motorola6809Emulator {
     }
 
 
-    /* salma/moud/adam */
-    private void handleImmediateAddressing(String operand, JTextField accumulatorField) {
-        /* Check if there's an immediate value */
-        String immediateValue = "";
-
-        if (operand.startsWith("#$")) {
-            // Immediate addressing
-            immediateValue = operand.substring(2);
-        } else if (operand.startsWith("$")) {
-            // Absolute addressing
-            immediateValue = operand.substring(1);
-        }
-
-        accumulatorField.setText(immediateValue);
-
-        accumulatorField.setText(immediateValue);
-
-        // Store immediate value in memory at the current address and increment the address
-        if (currentMemoryAddress < memory.length) {
-            memory[currentMemoryAddress] = immediateValue;
-            currentMemoryAddress++; // Increment the current address for the next call
-        } else {
-            // Handle the case where memory is full
-            JOptionPane.showMessageDialog(frame, "Memory is full!");
-            currentMemoryAddress = 0; // Reset the memory address or handle as required
-        }
-    }
-
     private void performBinaryOperation(JTextField operand1, JTextField operand2, BinaryOperation operation) {
         int a = Integer.parseInt(operand1.getText());
         int b = Integer.parseInt(operand2.getText());
@@ -766,123 +666,219 @@ public class Motorola6809Emulator {
     }
 
 
-    private void handleSTA(String operand, JTextField accumulatorField) {
-        // Assuming STA stores the value from accumulator to memory
-        // Parse the operand as a memory address and update the memory array
-        int address;
+    private void executeInstruction() {
+        String op = (String) instructionBox.getSelectedItem();
+
         try {
-            // Check if operand is in hexadecimal format with $ prefix
-            if (operand.startsWith("$")) {
-                address = Integer.parseInt(operand.substring(1), 16); // Parse as hexadecimal
-            } else {
-                address = Integer.parseInt(operand); // Parse as decimal
-            }
-        } catch (NumberFormatException e) {
-            JOptionPane.showMessageDialog(frame, "Invalid memory address format for STA.");
+            readAccumulatorFields();
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(frame, "Invalid hexadecimal input.");
             return;
         }
 
-        // Make sure the address is within the bounds of the memory array
-        if (address >= 0 && address < memory.length) {
-            memory[address] = accumulatorField.getText(); // Store the accumulator's value into the memory address
-        } else {
-            JOptionPane.showMessageDialog(frame, "Memory address out of bounds for STA.");
-        }
-
-        // Update the memory view to reflect changes
-        updateMemoryView();
-    }
-
-
-    private void executeInstruction() {
-        String op = (String) instructionBox.getSelectedItem();
-
         switch (op) {
             case "LDA":
-                accumulatorAField.setText(accumulatorAField.getText());
+                // The accumulators were loaded from their fields above; the load sets N and Z
+                cpu.setA(cpu.move8(cpu.getA()));
                 break;
             case "LDB":
-                accumulatorBField.setText(accumulatorBField.getText());
+                cpu.setB(cpu.move8(cpu.getB()));
                 break;
             case "ADD":
-                try {
-                    // Remove any leading "0x" or "0X" if present, then parse the hex string
-                    String inputA = accumulatorAField.getText().replaceAll("(?i)^0x", "");
-                    String inputB = accumulatorBField.getText().replaceAll("(?i)^0x", "");
-                    int a = Integer.parseInt(inputA, 16);
-                    int b = Integer.parseInt(inputB, 16);
-                    int sum = a + b;
-                    // Convert the result back to a hex string, ensuring it's uppercase and prefixed with "0x"
-                    accumulatorAField.setText(String.format("%02X", sum).toUpperCase());
-                } catch (NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(frame, "Invalid hexadecimal input.");
-                }
-            break;
+                cpu.setA(cpu.add8(cpu.getA(), cpu.getB(), 0));
+                break;
             case "LDX":
-                // Load index register X with a value, perhaps from the next memory location
-                indexRegisterX = Integer.parseInt(memory[programCounter + 1], 16); // Assuming memory is hexadecimal
+                // Load index register X with the 16-bit value after the opcode
+                cpu.setX(memory.read16(cpu.getPc() + 1));
                 break;
             case "LDY":
-                // Load index register Y with a value
-                indexRegisterY = Integer.parseInt(memory[programCounter + 2], 16); // Just an example
+                // Load index register Y with the 16-bit value after the two-byte opcode
+                cpu.setY(memory.read16(cpu.getPc() + 2));
                 break;
             case "PSH":
-                // Push a value onto the stack
-                memory[stackPointer--] = accumulatorAField.getText(); // Decrement stack pointer after push
+                // Push accumulator A onto the hardware stack
+                cpu.pushS(cpu.getA());
                 break;
             case "PUL":
-                // Pull a value from the stack
-                accumulatorAField.setText(memory[++stackPointer]); // Increment stack pointer before pull
+                // Pull accumulator A from the hardware stack
+                cpu.setA(cpu.pullS());
                 break;
             case "SUB":
-                try {
-                    String inputA = accumulatorAField.getText().replaceAll("(?i)^0x", "");
-                    String inputB = accumulatorBField.getText().replaceAll("(?i)^0x", "");
-                    int a = Integer.parseInt(inputA, 16);
-                    int b = Integer.parseInt(inputB, 16);
-                    int difference = a - b;
-                    accumulatorAField.setText(String.format("%02X", difference).toUpperCase());
-                } catch (NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(frame, "Invalid hexadecimal input for SUB.");
-                }
+                cpu.setA(cpu.sub8(cpu.getA(), cpu.getB(), 0));
                 break;
             case "MUL":
-                try {
-                    String inputA = accumulatorAField.getText().replaceAll("(?i)^0x", "");
-                    String inputB = accumulatorBField.getText().replaceAll("(?i)^0x", "");
-                    int a = Integer.parseInt(inputA, 16);
-                    int b = Integer.parseInt(inputB, 16);
-                    int product = a * b;
-                    accumulatorAField.setText(String.format("%02X", product).toUpperCase());
-                } catch (NumberFormatException ex) {
-                    JOptionPane.showMessageDialog(frame, "Invalid hexadecimal input for MUL.");
-                }
+                // MUL leaves the 16-bit product of A and B in D
+                cpu.mul();
                 break;
 
         }
-        programCounter += 2;
+        cpu.setPc(cpu.getPc() + 2);
 
-        if(instructionPointer < memory.length - 1) {
-            memory[instructionPointer++] = accumulatorAField.getText();
-            memory[instructionPointer++] = accumulatorBField.getText();
+        if(instructionPointer < memory.size() - 1) {
+            memory.write8(instructionPointer++, cpu.getA());
+            memory.write8(instructionPointer++, cpu.getB());
+            journal.clear();
         } else {
             JOptionPane.showMessageDialog(frame, "Memory limit reached!");
         }
 
-        /* Update the memory view */
-        updateMemoryView();
-        printToOutput("Executed instruction: " + op + ", PC now at: " + Integer.toHexString(programCounter));
+        /* Update the register fields and the memory view */
+        refreshViews();
+        printToOutput("Executed instruction: " + op + ", PC now at: " + Integer.toHexString(cpu.getPc()));
+    }
+
+    /* Executes the machine instruction at PC on the CPU core */
+    private void stepInstruction() {
+        int address = cpu.getPc();
+        try {
+            cpu.takeWatchHit();
+            cpu.step();
+            printToOutput(String.format("Stepped instruction at %04X, PC now at: %04X", address, cpu.getPc()));
+            int hit = cpu.takeWatchHit();
+            if (hit >= 0) {
+                printToOutput(String.format("%s at %04X hit", Breakpoints.kindName(hit >> 16), hit & 0xFFFF));
+            }
+        } catch (IllegalStateException ex) {
+            printToOutput(ex.getMessage());
+        }
+    }
+
+    private void saveState() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("state.6809"));
+        if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            SaveState.capture(cpu, memory).write(out);
+            printToOutput(String.format("State saved to %s, PC at: %04X", file, cpu.getPc()));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "Cannot save state: " + ex.getMessage());
+        }
+    }
+
+    private void loadState() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            SaveState.read(in).restore(cpu, memory);
+            journal.clear();
+            printToOutput(String.format("State loaded from %s, PC at: %04X", file, cpu.getPc()));
+            refreshViews();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "Cannot load state: " + ex.getMessage());
+        }
     }
 
-    private void updateMemoryView() {
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < memory.length; i++) {
-            // Format the address as a 4-digit hexadecimal number with leading zeros
-            String address = String.format("%04X", i);
-            builder.append("Addr ").append(address).append(": ").append(memory[i]).append("\n");
+    /* Loads an S-record, Intel HEX or raw image and points PC at its start address or reset vector */
+    private void loadImage() {
+        JFileChooser chooser = new JFileChooser();
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
         }
-        memoryView.setText(builder.toString());
-        memoryView.setCaretPosition(0);
+        File file = chooser.getSelectedFile();
+        ImageLoader loader = new ImageLoader(memory);
+        try {
+            loader.load(file.toPath(), ROM_START);
+        } catch (IOException | IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(frame, "Cannot load image: " + ex.getMessage());
+            refreshViews(); // Records before a bad one are already in memory
+            return;
+        }
+        if (loader.getStartAddress() != ImageLoader.NO_START) {
+            cpu.setPc(loader.getStartAddress());
+        } else if (loader.contains(Cpu6809.VECTOR_RESET) && loader.contains(Cpu6809.VECTOR_RESET + 1)) {
+            cpu.setPc(memory.read16(Cpu6809.VECTOR_RESET));
+        }
+        journal.clear(); // Loading is not an instruction and cannot be stepped back over
+        printToOutput(String.format("Loaded %d byte(s) from %s, PC at: %04X", loader.getByteCount(), file, cpu.getPc()));
+        refreshViews();
+    }
+
+    private void startTrace() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new File("trace.bin"));
+        if (chooser.showSaveDialog(frame) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+        File file = chooser.getSelectedFile();
+        try {
+            cpu.setTracer(new TraceRecorder(file.toPath(), TRACE_CAPACITY));
+            traceButton.setText("Stop Trace");
+            printToOutput("Tracing to " + file);
+        } catch (IOException | RuntimeException ex) {
+            JOptionPane.showMessageDialog(frame, "Cannot create trace file: " + ex.getMessage());
+        }
+    }
+
+    private void stopTrace() {
+        TraceRecorder tracer = cpu.getTracer();
+        cpu.setTracer(null);
+        traceButton.setText("Start Trace");
+        try {
+            tracer.close();
+            printToOutput(String.format("Trace stopped after %d instruction(s); view it with: java TraceFile <file>",
+                    tracer.getCount()));
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(frame, "Error closing trace file: " + ex.getMessage());
+        }
+    }
+
+    /*
+     * Toggles a breakpoint typed as "[R|W|RW] address [if condition]"; without a prefix it is an execution breakpoint.
+     * An address that is already set is cleared, unless a condition is given, which replaces the old one.
+     * The bitsets may be edited while running.
+     */
+    private void toggleBreakpoint(String text) {
+        Breakpoints breakpoints = cpu.getBreakpoints();
+        String[] parts = text.trim().split("(?i)\\s+if\\s+", 2);
+        String[] words = parts[0].trim().toUpperCase().split("\\s+");
+        if (words.length == 1 && words[0].equals("CLEAR")) {
+            breakpoints.clearAll();
+            printToOutput("All breakpoints and watchpoints cleared");
+            return;
+        }
+        int[] kinds;
+        String addressText;
+        if (words.length == 2 && words[0].matches("R|W|RW")) {
+            kinds = words[0].equals("R") ? new int[]{Breakpoints.READ}
+                    : words[0].equals("W") ? new int[]{Breakpoints.WRITE}
+                    : new int[]{Breakpoints.READ, Breakpoints.WRITE};
+            addressText = words[1];
+        } else if (words.length == 1) {
+            kinds = new int[]{Breakpoints.EXECUTE};
+            addressText = words[0];
+        } else {
+            throw new IllegalArgumentException(text.trim());
+        }
+        int address = Integer.parseInt(addressText.replaceAll("^0X|^\\$", ""), 16);
+        if (address > 0xFFFF) {
+            throw new IllegalArgumentException("Address out of range: " + addressText);
+        }
+        String condition = parts.length > 1 ? parts[1] : null;
+        for (int kind : kinds) {
+            if (condition == null && breakpoints.isSet(kind, address)) {
+                breakpoints.clear(kind, address);
+                printToOutput(String.format("%s cleared at %04X", Breakpoints.kindName(kind), address));
+            } else {
+                breakpoints.set(kind, address, condition);
+                printToOutput(String.format("%s set at %04X%s", Breakpoints.kindName(kind), address,
+                        condition != null ? " if " + breakpoints.getCondition(kind, address) : ""));
+            }
+        }
+    }
+
+    /* Parses a hexadecimal byte as typed in the register fields; an empty field reads as zero */
+    private int parseHexByte(String text) {
+        String value = text.trim().replaceAll("(?i)^0x", "").replace("$", "");
+        if (value.isEmpty()) {
+            return 0;
+        }
+        return Integer.parseInt(value, 16) & 0xFF;
     }
 
     /* Method to print messages to the outputArea */
@@ -890,6 +886,27 @@ public class Motorola6809Emulator {
         outputArea.append(message + "\n");
     }
 
+    /* Called on the CPU thread for each byte the ACIA sends; bytes are shown in batches on the event thread */
+    private void appendSerialOutput(char c) {
+        if (c == '\r') {
+            return; // Lines end in CR LF; the text area only needs the LF
+        }
+        synchronized (serialOutput) {
+            serialOutput.append(c);
+            if (serialOutput.length() > 1) {
+                return; // An update is already queued
+            }
+        }
+        SwingUtilities.invokeLater(() -> {
+            String text;
+            synchronized (serialOutput) {
+                text = serialOutput.toString();
+                serialOutput.setLength(0);
+            }
+            outputArea.append(text);
+        });
+    }
+
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
             Motorola6809Emulator emulator = new Motorola6809Emulator();
@@ -0,0 +1,76 @@
+/**
+ * Class representing one entry of the opcode decode tables.
+ * Each entry carries its addressing mode, so the CPU resolves the effective address before calling the handler.
+ */
+public final class Opcode {
+
+    /* Addressing modes */
+    public static final int INHERENT = 0;
+    public static final int IMMEDIATE8 = 1;
+    public static final int IMMEDIATE16 = 2;
+    public static final int DIRECT = 3;
+    public static final int EXTENDED = 4;
+    public static final int INDEXED = 5;
+    public static final int RELATIVE8 = 6;
+    public static final int RELATIVE16 = 7;
+    public static final int MODE_COUNT = 8;
+
+    /**
+     * Functional Interface representing the execution of one instruction.
+     * The effective address is already resolved; for immediate modes it points at the operand bytes.
+     */
+    @FunctionalInterface
+    interface Handler {
+        void execute(Cpu6809 cpu, int ea);
+    }
+
+    /** Full opcode, including the 0x10/0x11 prefix for page 2 and page 3 (e.g. 0x108E). */
+    public final int code;
+    public final String mnemonic;
+    public final int mode;
+    /** Base cycle count, including the prefix byte; see {@link Cpu6809#getCycles()} for the run-time extras. */
+    public final int cycles;
+    final Handler handler;
+
+    Opcode(int code, String mnemonic, int mode, int cycles, Handler handler) {
+        this.code = code;
+        this.mnemonic = mnemonic;
+        this.mode = mode;
+        this.cycles = cycles;
+        this.handler = handler;
+    }
+
+    /**
+     * Returns false for the placeholder entries that fill unused table slots.
+     */
+    public boolean isDefined() {
+        return mnemonic != null;
+    }
+
+    /**
+     * Returns the number of opcode bytes, including any page prefix.
+     */
+    public int opcodeLength() {
+        return code > 0xFF ? 2 : 1;
+    }
+
+    /**
+     * Returns the number of operand bytes that follow the opcode for the fixed-size modes.
+     * Indexed instructions report only their postbyte; extra offset bytes depend on the postbyte.
+     */
+    public int operandLength() {
+        switch (mode) {
+            case IMMEDIATE8:
+            case DIRECT:
+            case INDEXED:
+            case RELATIVE8:
+                return 1;
+            case IMMEDIATE16:
+            case EXTENDED:
+            case RELATIVE16:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Class holding the 256-entry decode tables for the base page and the 0x10/0x11 prefix pages.
+ * Unused slots hold placeholder entries that raise an illegal opcode error, so dispatch never needs a null check.
+ */
+final class OpcodeTable {
+
+    static final Opcode[] PAGE0 = new Opcode[256];
+    static final Opcode[] PAGE2 = new Opcode[256];
+    static final Opcode[] PAGE3 = new Opcode[256];
+
+    /**
+     * Functional Interface for instructions that consume an operand value.
+     */
+    @FunctionalInterface
+    private interface ValueOperation {
+        void apply(Cpu6809 cpu, int value);
+    }
+
+    /**
+     * Functional Interface for read-modify-write operations that return the new value.
+     */
+    @FunctionalInterface
+    private interface UnaryOperation {
+        int apply(Cpu6809 cpu, int value);
+    }
+
+    private static final String[] BRANCHES = {
+        "BRA", "BRN", "BHI", "BLS", "BCC", "BCS", "BNE", "BEQ",
+        "BVC", "BVS", "BPL", "BMI", "BGE", "BLT", "BGT", "BLE"
+    };
+
+    static {
+        /*
+         * Cycle counts are the MC6809 datasheet base figures; indexed postbytes, PSH/PUL registers,
+         * taken long branches and RTI with E set add to them at run time
+         */
+
+        /* Read-modify-write group: direct 0x0_, A 0x4_, B 0x5_, indexed 0x6_, extended 0x7_ */
+        unary(0x00, "NEG", Cpu6809::neg8);
+        unary(0x03, "COM", Cpu6809::com8);
+        unary(0x04, "LSR", Cpu6809::lsr8);
+        unary(0x06, "ROR", Cpu6809::ror8);
+        unary(0x07, "ASR", Cpu6809::asr8);
+        unary(0x08, "ASL", Cpu6809::asl8);
+        unary(0x09, "ROL", Cpu6809::rol8);
+        unary(0x0A, "DEC", Cpu6809::dec8);
+        unary(0x0C, "INC", Cpu6809::inc8);
+        unary(0x0F, "CLR", Cpu6809::clr8);
+        define(PAGE0, 0x0D, "TST", Opcode.DIRECT, 6, (cpu, ea) -> cpu.move8(cpu.read8(ea)));
+        define(PAGE0, 0x4D, "TSTA", Opcode.INHERENT, 2, (cpu, ea) -> cpu.move8(cpu.a));
+        define(PAGE0, 0x5D, "TSTB", Opcode.INHERENT, 2, (cpu, ea) -> cpu.move8(cpu.b));
+        define(PAGE0, 0x6D, "TST", Opcode.INDEXED, 6, (cpu, ea) -> cpu.move8(cpu.read8(ea)));
+        define(PAGE0, 0x7D, "TST", Opcode.EXTENDED, 7, (cpu, ea) -> cpu.move8(cpu.read8(ea)));
+        memory(0x0E, 0x6E, 0x7E, "JMP", 3, (cpu, ea) -> cpu.pc = ea);
+
+        /* Miscellaneous 0x1_ and 0x3_ rows */
+        define(PAGE0, 0x12, "NOP", Opcode.INHERENT, 2, (cpu, ea) -> { });
+        define(PAGE0, 0x13, "SYNC", Opcode.INHERENT, 4, (cpu, ea) -> cpu.sync());
+        define(PAGE0, 0x16, "LBRA", Opcode.RELATIVE16, 5, (cpu, ea) -> cpu.pc = ea);
+        define(PAGE0, 0x17, "LBSR", Opcode.RELATIVE16, 9, (cpu, ea) -> cpu.jsr(ea));
+        define(PAGE0, 0x19, "DAA", Opcode.INHERENT, 2, (cpu, ea) -> cpu.daa());
+        define(PAGE0, 0x1A, "ORCC", Opcode.IMMEDIATE8, 3, (cpu, ea) -> cpu.setCc(cpu.flags() | cpu.read8(ea)));
+        define(PAGE0, 0x1C, "ANDCC", Opcode.IMMEDIATE8, 3, (cpu, ea) -> cpu.setCc(cpu.flags() & cpu.read8(ea)));
+        define(PAGE0, 0x1D, "SEX", Opcode.INHERENT, 2, (cpu, ea) -> cpu.sex());
+        define(PAGE0, 0x1E, "EXG", Opcode.IMMEDIATE8, 8, (cpu, ea) -> cpu.exg(cpu.read8(ea)));
+        define(PAGE0, 0x1F, "TFR", Opcode.IMMEDIATE8, 6, (cpu, ea) -> cpu.tfr(cpu.read8(ea)));
+        for (int condition = 0; condition < 16; condition++) {
+            final int test = condition;
+            define(PAGE0, 0x20 | condition, BRANCHES[condition], Opcode.RELATIVE8, 3, (cpu, ea) -> {
+                if (cpu.condition(test)) {
+                    cpu.pc = ea;
+                }
+            });
+            if (condition != 0) {
+                define(PAGE2, 0x20 | condition, "L" + BRANCHES[condition], Opcode.RELATIVE16, 5, (cpu, ea) -> {
+                    if (cpu.condition(test)) {
+                        cpu.pc = ea;
+                        cpu.cycles++; // A taken long branch costs one more cycle
+                    }
+                });
+            }
+        }
+        define(PAGE0, 0x30, "LEAX", Opcode.INDEXED, 4, (cpu, ea) -> cpu.x = cpu.lea(ea));
+        define(PAGE0, 0x31, "LEAY", Opcode.INDEXED, 4, (cpu, ea) -> cpu.y = cpu.lea(ea));
+        define(PAGE0, 0x32, "LEAS", Opcode.INDEXED, 4, (cpu, ea) -> cpu.s = ea);
+        define(PAGE0, 0x33, "LEAU", Opcode.INDEXED, 4, (cpu, ea) -> cpu.u = ea);
+        define(PAGE0, 0x34, "PSHS", Opcode.IMMEDIATE8, 5, (cpu, ea) -> cpu.pushRegisters(stacked(cpu, ea), false));
+        define(PAGE0, 0x35, "PULS", Opcode.IMMEDIATE8, 5, (cpu, ea) -> cpu.pullRegisters(stacked(cpu, ea), false));
+        define(PAGE0, 0x36, "PSHU", Opcode.IMMEDIATE8, 5, (cpu, ea) -> cpu.pushRegisters(stacked(cpu, ea), true));
+        define(PAGE0, 0x37, "PULU", Opcode.IMMEDIATE8, 5, (cpu, ea) -> cpu.pullRegisters(stacked(cpu, ea), true));
+        define(PAGE0, 0x39, "RTS", Opcode.INHERENT, 5, (cpu, ea) -> cpu.pc = cpu.pullWordS());
+        define(PAGE0, 0x3A, "ABX", Opcode.INHERENT, 3, (cpu, ea) -> cpu.x = (cpu.x + cpu.b) & 0xFFFF);
+        define(PAGE0, 0x3B, "RTI", Opcode.INHERENT, 6, (cpu, ea) -> cpu.rti());
+        define(PAGE0, 0x3C, "CWAI", Opcode.IMMEDIATE8, 20, (cpu, ea) -> cpu.cwai(cpu.read8(ea)));
+        define(PAGE0, 0x3D, "MUL", Opcode.INHERENT, 11, (cpu, ea) -> cpu.mul());
+        define(PAGE0, 0x3F, "SWI", Opcode.INHERENT, 19, (cpu, ea) -> cpu.swi(Cpu6809.VECTOR_SWI, true));
+        define(PAGE2, 0x3F, "SWI2", Opcode.INHERENT, 20, (cpu, ea) -> cpu.swi(Cpu6809.VECTOR_SWI2, false));
+        define(PAGE3, 0x3F, "SWI3", Opcode.INHERENT, 20, (cpu, ea) -> cpu.swi(Cpu6809.VECTOR_SWI3, false));
+
+        /* 8-bit accumulator group: A at 0x8_-0xB_, B at 0xC_-0xF_ */
+        alu8(0x80, "SUBA", 2, (cpu, v) -> cpu.a = cpu.sub8(cpu.a, v, 0));
+        alu8(0x81, "CMPA", 2, (cpu, v) -> cpu.sub8(cpu.a, v, 0));
+        alu8(0x82, "SBCA", 2, (cpu, v) -> cpu.a = cpu.sub8(cpu.a, v, cpu.flags() & Cpu6809.CC_C));
+        alu8(0x84, "ANDA", 2, (cpu, v) -> cpu.a = cpu.move8(cpu.a & v));
+        alu8(0x85, "BITA", 2, (cpu, v) -> cpu.move8(cpu.a & v));
+        alu8(0x86, "LDA", 2, (cpu, v) -> cpu.a = cpu.move8(v));
+        alu8(0x88, "EORA", 2, (cpu, v) -> cpu.a = cpu.move8(cpu.a ^ v));
+        alu8(0x89, "ADCA", 2, (cpu, v) -> cpu.a = cpu.add8(cpu.a, v, cpu.flags() & Cpu6809.CC_C));
+        alu8(0x8A, "ORA", 2, (cpu, v) -> cpu.a = cpu.move8(cpu.a | v));
+        alu8(0x8B, "ADDA", 2, (cpu, v) -> cpu.a = cpu.add8(cpu.a, v, 0));
+        alu8(0xC0, "SUBB", 2, (cpu, v) -> cpu.b = cpu.sub8(cpu.b, v, 0));
+        alu8(0xC1, "CMPB", 2, (cpu, v) -> cpu.sub8(cpu.b, v, 0));
+        alu8(0xC2, "SBCB", 2, (cpu, v) -> cpu.b = cpu.sub8(cpu.b, v, cpu.flags() & Cpu6809.CC_C));
+        alu8(0xC4, "ANDB", 2, (cpu, v) -> cpu.b = cpu.move8(cpu.b & v));
+        alu8(0xC5, "BITB", 2, (cpu, v) -> cpu.move8(cpu.b & v));
+        alu8(0xC6, "LDB", 2, (cpu, v) -> cpu.b = cpu.move8(v));
+        alu8(0xC8, "EORB", 2, (cpu, v) -> cpu.b = cpu.move8(cpu.b ^ v));
+        alu8(0xC9, "ADCB", 2, (cpu, v) -> cpu.b = cpu.add8(cpu.b, v, cpu.flags() & Cpu6809.CC_C));
+        alu8(0xCA, "ORB", 2, (cpu, v) -> cpu.b = cpu.move8(cpu.b | v));
+        alu8(0xCB, "ADDB", 2, (cpu, v) -> cpu.b = cpu.add8(cpu.b, v, 0));
+        memory(0x97, 0xA7, 0xB7, "STA", 4, (cpu, ea) -> cpu.write8(ea, cpu.move8(cpu.a)));
+        memory(0xD7, 0xE7, 0xF7, "STB", 4, (cpu, ea) -> cpu.write8(ea, cpu.move8(cpu.b)));
+
+        /* 16-bit register group */
+        alu16(PAGE0, 0x83, "SUBD", 4, (cpu, v) -> cpu.setD(cpu.sub16(cpu.getD(), v)));
+        alu16(PAGE0, 0x8C, "CMPX", 4, (cpu, v) -> cpu.sub16(cpu.x, v));
+        alu16(PAGE0, 0x8E, "LDX", 3, (cpu, v) -> cpu.x = cpu.move16(v));
+        alu16(PAGE0, 0xC3, "ADDD", 4, (cpu, v) -> cpu.setD(cpu.add16(cpu.getD(), v)));
+        alu16(PAGE0, 0xCC, "LDD", 3, (cpu, v) -> cpu.setD(cpu.move16(v)));
+        alu16(PAGE0, 0xCE, "LDU", 3, (cpu, v) -> cpu.u = cpu.move16(v));
+        alu16(PAGE2, 0x83, "CMPD", 5, (cpu, v) -> cpu.sub16(cpu.getD(), v));
+        alu16(PAGE2, 0x8C, "CMPY", 5, (cpu, v) -> cpu.sub16(cpu.y, v));
+        alu16(PAGE2, 0x8E, "LDY", 4, (cpu, v) -> cpu.y = cpu.move16(v));
+        alu16(PAGE2, 0xCE, "LDS", 4, (cpu, v) -> cpu.s = cpu.move16(v));
+        alu16(PAGE3, 0x83, "CMPU", 5, (cpu, v) -> cpu.sub16(cpu.u, v));
+        alu16(PAGE3, 0x8C, "CMPS", 5, (cpu, v) -> cpu.sub16(cpu.s, v));
+        memory(0x9F, 0xAF, 0xBF, "STX", 5, (cpu, ea) -> cpu.write16(ea, cpu.move16(cpu.x)));
+        memory(0xDD, 0xED, 0xFD, "STD", 5, (cpu, ea) -> cpu.write16(ea, cpu.move16(cpu.getD())));
+        memory(0xDF, 0xEF, 0xFF, "STU", 5, (cpu, ea) -> cpu.write16(ea, cpu.move16(cpu.u)));
+        memory(PAGE2, 0x9F, 0xAF, 0xBF, "STY", 6, (cpu, ea) -> cpu.write16(ea, cpu.move16(cpu.y)));
+        memory(PAGE2, 0xDF, 0xEF, 0xFF, "STS", 6, (cpu, ea) -> cpu.write16(ea, cpu.move16(cpu.s)));
+
+        /* Subroutine calls */
+        define(PAGE0, 0x8D, "BSR", Opcode.RELATIVE8, 7, (cpu, ea) -> cpu.jsr(ea));
+        memory(0x9D, 0xAD, 0xBD, "JSR", 7, (cpu, ea) -> cpu.jsr(ea));
+
+        fillIllegal(PAGE0, 0x0000);
+        fillIllegal(PAGE2, 0x1000);
+        fillIllegal(PAGE3, 0x1100);
+    }
+
+    private OpcodeTable() {
+    }
+
+    /**
+     * Looks up the table entry for a full opcode such as 0x86 or 0x108E.
+     */
+    static Opcode lookup(int code) {
+        switch (code >> 8) {
+            case 0x10:
+                return PAGE2[code & 0xFF];
+            case 0x11:
+                return PAGE3[code & 0xFF];
+            default:
+                return PAGE0[code & 0xFF];
+        }
+    }
+
+    private static void define(Opcode[] page, int opcode, String mnemonic, int mode, int cycles, Opcode.Handler handler) {
+        int prefix = page == PAGE2 ? 0x1000 : page == PAGE3 ? 0x1100 : 0;
+        page[opcode] = new Opcode(prefix | opcode, mnemonic, mode, cycles, handler);
+    }
+
+    private static void unary(int opcode, String mnemonic, UnaryOperation operation) {
+        Opcode.Handler onMemory = (cpu, ea) -> cpu.write8(ea, operation.apply(cpu, cpu.read8(ea)));
+        define(PAGE0, opcode, mnemonic, Opcode.DIRECT, 6, onMemory);
+        define(PAGE0, 0x40 | opcode, mnemonic + "A", Opcode.INHERENT, 2, (cpu, ea) -> cpu.a = operation.apply(cpu, cpu.a));
+        define(PAGE0, 0x50 | opcode, mnemonic + "B", Opcode.INHERENT, 2, (cpu, ea) -> cpu.b = operation.apply(cpu, cpu.b));
+        define(PAGE0, 0x60 | opcode, mnemonic, Opcode.INDEXED, 6, onMemory);
+        define(PAGE0, 0x70 | opcode, mnemonic, Opcode.EXTENDED, 7, onMemory);
+    }
+
+    /* Direct addressing takes two cycles more than immediate for both the 8-bit and the 16-bit groups */
+    private static void alu8(int immediateOpcode, String mnemonic, int immediateCycles, ValueOperation operation) {
+        define(PAGE0, immediateOpcode, mnemonic, Opcode.IMMEDIATE8, immediateCycles,
+                (cpu, ea) -> operation.apply(cpu, cpu.read8(ea)));
+        memory(immediateOpcode + 0x10, immediateOpcode + 0x20, immediateOpcode + 0x30, mnemonic, immediateCycles + 2,
+                (cpu, ea) -> operation.apply(cpu, cpu.read8(ea)));
+    }
+
+    private static void alu16(Opcode[] page, int immediateOpcode, String mnemonic, int immediateCycles, ValueOperation operation) {
+        Opcode.Handler handler = (cpu, ea) -> operation.apply(cpu, cpu.read16(ea));
+        define(page, immediateOpcode, mnemonic, Opcode.IMMEDIATE16, immediateCycles, handler);
+        memory(page, immediateOpcode + 0x10, immediateOpcode + 0x20, immediateOpcode + 0x30, mnemonic, immediateCycles + 2, handler);
+    }
+
+    private static void memory(int direct, int indexed, int extended, String mnemonic, int directCycles, Opcode.Handler handler) {
+        memory(PAGE0, direct, indexed, extended, mnemonic, directCycles, handler);
+    }
+
+    /* Indexed has the same base count as direct; extended takes one cycle more */
+    private static void memory(Opcode[] page, int direct, int indexed, int extended, String mnemonic, int directCycles,
+                               Opcode.Handler handler) {
+        define(page, direct, mnemonic, Opcode.DIRECT, directCycles, handler);
+        define(page, indexed, mnemonic, Opcode.INDEXED, directCycles, handler);
+        define(page, extended, mnemonic, Opcode.EXTENDED, directCycles + 1, handler);
+    }
+
+    /* Reads a PSH/PUL register list and charges one cycle per byte moved */
+    private static int stacked(Cpu6809 cpu, int ea) {
+        int postbyte = cpu.read8(ea);
+        cpu.cycles += stackedCycles(postbyte);
+        return postbyte;
+    }
+
+    /* The cycles a PSH/PUL register list adds: one per 8-bit register and two per 16-bit one */
+    static int stackedCycles(int postbyte) {
+        return Integer.bitCount(postbyte & 0x0F) + 2 * Integer.bitCount(postbyte & 0xF0);
+    }
+
+    private static void fillIllegal(Opcode[] page, int prefix) {
+        for (int opcode = 0; opcode < page.length; opcode++) {
+            if (page[opcode] == null) {
+                final int code = prefix | opcode;
+                page[opcode] = new Opcode(code, null, Opcode.INHERENT, 0, (cpu, ea) -> {
+                    throw cpu.illegalOpcode(code);
+                });
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Class representing a pool of immutable 256-byte pages, deduplicated by content. Memories map the pooled arrays
+ * copy-on-write, so any number of machines started from the same images hold one copy of each distinct page
+ * between them, and the many identical pages of an image, such as all-zero RAM or FF padding, become one.
+ *
+ * Pooled arrays are never written; a memory copies a page before its first write to it. So the decoded code of
+ * a pooled page is kept here too, once for each page number it is mapped at, and shared by every CPU whose memory
+ * maps it. Safe to use from several threads.
+ */
+public class PageStore {
+
+    private final Map<Key, byte[]> pages = new HashMap<>();
+    private final Map<byte[], DecodeCache.Page[]> decoded = new IdentityHashMap<>(); // By pooled array, then page number
+
+    /* A page compared by content */
+    private static final class Key {
+        final byte[] data;
+        final int hash;
+
+        Key(byte[] data) {
+            this.data = data;
+            this.hash = Arrays.hashCode(data);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).hash == hash && Arrays.equals(((Key) other).data, data);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Returns the pooled page with the same contents as the given one, adding a copy of it if there is none.
+     * The returned array must not be modified.
+     */
+    public synchronized byte[] intern(byte[] page) {
+        byte[] pooled = pages.get(new Key(page));
+        if (pooled == null) {
+            pooled = page.clone();
+            pages.put(new Key(pooled), pooled);
+            decoded.put(pooled, null);
+        }
+        return pooled;
+    }
+
+    /* Returns true if an array is one of the pooled pages, rather than one with the same contents */
+    synchronized boolean isPooled(byte[] page) {
+        return decoded.containsKey(page);
+    }
+
+    /* Returns the decoded code shared for a pooled page at a page number, or null if none has been shared yet */
+    synchronized DecodeCache.Page getDecoded(byte[] page, int number) {
+        DecodeCache.Page[] byNumber = decoded.get(page);
+        return byNumber != null ? byNumber[number] : null;
+    }
+
+    /* Shares decoded code for a pooled page at a page number, unless some was shared first; returns the one kept */
+    synchronized DecodeCache.Page shareDecoded(byte[] page, int number, DecodeCache.Page entries) {
+        DecodeCache.Page[] byNumber = decoded.get(page);
+        if (byNumber == null) {
+            byNumber = new DecodeCache.Page[Memory.PAGE_COUNT];
+            decoded.put(page, byNumber);
+        }
+        if (byNumber[number] == null) {
+            byNumber[number] = entries;
+        }
+        return byNumber[number];
+    }
+
+    /**
+     * Returns the number of distinct pages in the pool.
+     */
+    public synchronized int size() {
+        return pages.size();
+    }
+}
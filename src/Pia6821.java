@@ -0,0 +1,162 @@
+import java.util.function.IntConsumer;
+
+/**
+ * Class representing a Motorola 6821 PIA: two 8-bit ports, A and B, with a data direction register each,
+ * and the CA1/CB1 input control lines.
+ *
+ * Registers 0 and 2 are the port A and B data registers, or their data direction registers while bit 2 of the
+ * port's control register is clear; registers 1 and 3 are the control registers. Reading a data register
+ * clears the port's interrupt flags. Input pins are set by the host with setInputA()/setInputB(); each port
+ * can have a listener told of its output pins whenever the CPU writes the data or direction register.
+ * Like the rest of the machine, the host side must only be used by the thread running the CPU or while it is paused.
+ */
+public class Pia6821 implements Device {
+
+    /* Control register bits */
+    public static final int CONTROL_C1_IRQ_ENABLE = 0x01;
+    public static final int CONTROL_C1_RISING = 0x02; // CA1/CB1 flags a rising edge instead of a falling one
+    public static final int CONTROL_DATA_SELECT = 0x04; // Registers 0/2 address the data register, not the direction
+    public static final int CONTROL_C2_FLAG = 0x40;
+    public static final int CONTROL_C1_FLAG = 0x80;
+
+    public static final int REGISTER_COUNT = 4;
+
+    private final Port a = new Port();
+    private final Port b = new Port();
+    private volatile Runnable interruptListener;
+
+    /* One side of the PIA */
+    private static final class Port {
+        int output;
+        int direction; // 1 bits are outputs
+        int control;
+        int input = 0xFF; // Undriven pins float high
+        boolean line1 = true;
+        IntConsumer listener;
+
+        int pins() {
+            return (output & direction) | (input & ~direction & 0xFF);
+        }
+
+        void outputChanged() {
+            if (listener != null) {
+                listener.accept(output & direction);
+            }
+        }
+
+        void setLine1(boolean level) {
+            boolean rising = (control & CONTROL_C1_RISING) != 0;
+            if (level != line1 && level == rising) {
+                control |= CONTROL_C1_FLAG;
+            }
+            line1 = level;
+        }
+    }
+
+    @Override
+    public int read(int register) {
+        Port port = (register & 2) == 0 ? a : b;
+        if ((register & 1) != 0) {
+            return port.control;
+        }
+        if ((port.control & CONTROL_DATA_SELECT) == 0) {
+            return port.direction;
+        }
+        port.control &= ~(CONTROL_C1_FLAG | CONTROL_C2_FLAG);
+        interruptChanged();
+        return port.pins();
+    }
+
+    @Override
+    public void write(int register, int value) {
+        Port port = (register & 2) == 0 ? a : b;
+        value &= 0xFF;
+        if ((register & 1) != 0) {
+            port.control = (port.control & (CONTROL_C1_FLAG | CONTROL_C2_FLAG)) | (value & 0x3F); // Flags are read-only
+            interruptChanged();
+        } else if ((port.control & CONTROL_DATA_SELECT) == 0) {
+            port.direction = value;
+            port.outputChanged();
+        } else {
+            port.output = value;
+            port.outputChanged();
+        }
+    }
+
+    @Override
+    public int peek(int register) {
+        Port port = (register & 2) == 0 ? a : b;
+        if ((register & 1) != 0) {
+            return port.control;
+        }
+        return (port.control & CONTROL_DATA_SELECT) == 0 ? port.direction : port.pins();
+    }
+
+    /**
+     * Sets the levels driven onto the port A pins from outside; only input pins are affected.
+     */
+    public void setInputA(int value) {
+        a.input = value & 0xFF;
+    }
+
+    public void setInputB(int value) {
+        b.input = value & 0xFF;
+    }
+
+    /**
+     * Returns the levels on the port A pins: outputs as last written, inputs as driven from outside.
+     */
+    public int getPinsA() {
+        return a.pins();
+    }
+
+    public int getPinsB() {
+        return b.pins();
+    }
+
+    public void setOutputListenerA(IntConsumer listener) {
+        a.listener = listener;
+    }
+
+    public void setOutputListenerB(IntConsumer listener) {
+        b.listener = listener;
+    }
+
+    /**
+     * Drives the CA1 control line. The edge selected in control register A sets its interrupt flag.
+     */
+    public void setCa1(boolean level) {
+        a.setLine1(level);
+        interruptChanged();
+    }
+
+    public void setCb1(boolean level) {
+        b.setLine1(level);
+        interruptChanged();
+    }
+
+    /**
+     * Sets the callback run, on any thread, whenever the interrupt request may have changed.
+     */
+    public void setInterruptListener(Runnable listener) {
+        interruptListener = listener;
+    }
+
+    /**
+     * Returns true if a port has its CA1/CB1 flag set with interrupts enabled for it.
+     */
+    public boolean isInterruptRequested() {
+        return requests(a) || requests(b);
+    }
+
+    private void interruptChanged() {
+        Runnable listener = interruptListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    private static boolean requests(Port port) {
+        return (port.control & (CONTROL_C1_FLAG | CONTROL_C1_IRQ_ENABLE)) == (CONTROL_C1_FLAG | CONTROL_C1_IRQ_ENABLE);
+    }
+}
@@ -0,0 +1,315 @@
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Class representing an execution profile of a {@link Cpu6809}: how often each address ran, the cycles spent
+ * there, and the calls between routines.
+ *
+ * The core calls record() before each instruction, as it does for a trace. Counters are primitive arrays indexed
+ * by address, and calls are followed on a shadow stack of primitive frames: JSR, BSR, LBSR, the SWIs and
+ * interrupts push a frame, and a frame is popped once S has moved above its return address, which covers RTS,
+ * RTI and PULS PC alike. Nothing is allocated per instruction, and the emulated cycle count is not touched,
+ * so paced runs keep their timing. Translated code bypasses record(), so the core does not translate while
+ * profiling.
+ *
+ * Reports name addresses after the nearest preceding symbol of an {@link Assembly}, and count the cycles of
+ * each routine from its entry point, as seen by calls, up to the next one. The cycles taken to enter an
+ * interrupt are charged to the first address of its handler, so they are part of every total.
+ */
+public class Profiler {
+
+    private static final int MAX_DEPTH = 1024; // Deeper calls are counted but not followed
+    private static final int ROOT = 0x10000; // Caller of the routines entered with an empty shadow stack
+
+    private final long[] counts = new long[Memory.SIZE];
+    private final long[] cycles = new long[Memory.SIZE]; // Cycles of the instructions at each address
+    private final long[] calls = new long[Memory.SIZE]; // Calls and interrupts entering each address
+    private final long[] inclusive = new long[Memory.SIZE]; // Cycles from entry to return, outermost activation only
+    private final int[] active = new int[Memory.SIZE]; // Activations of each entry on the shadow stack
+
+    private final int[] frameEntry = new int[MAX_DEPTH];
+    private final int[] frameS = new int[MAX_DEPTH]; // S just after the return address was pushed
+    private final long[] frameStart = new long[MAX_DEPTH];
+    private int depth;
+
+    /* Caller and callee entry of each call edge, open addressing; keys are caller << 16 | callee, 0 when free */
+    private long[] edgeKeys = new long[1024];
+    private long[] edgeCounts = new long[1024];
+    private int edgeCount;
+
+    private int firstPc = -1; // Where profiling began
+    private int lastPc = -1; // Instruction started by the last record(), until its cycles are counted
+    private int lastOpcode;
+    private long lastCycles;
+
+    /**
+     * Called by the core before each instruction.
+     */
+    void record(Cpu6809 cpu) {
+        settle(cpu);
+        int pc = cpu.pc;
+        if (firstPc < 0) {
+            firstPc = pc;
+        }
+        counts[pc]++;
+        lastPc = pc;
+        lastCycles = cpu.cycles;
+        int opcode = cpu.peek8(pc);
+        lastOpcode = opcode == 0x10 || opcode == 0x11 ? (opcode << 8) | cpu.peek8((pc + 1) & 0xFFFF) : opcode;
+    }
+
+    /**
+     * Called by the core before it enters an interrupt handler, to close off the instruction before it.
+     */
+    void beforeInterrupt(Cpu6809 cpu) {
+        settle(cpu);
+        lastCycles = cpu.cycles;
+    }
+
+    /**
+     * Called by the core once it has stacked the state for an interrupt and loaded PC from the vector.
+     */
+    void afterInterrupt(Cpu6809 cpu) {
+        cycles[cpu.pc] += cpu.cycles - lastCycles; // The entry cycles are charged to the handler's first address
+        enter(cpu.pc, cpu.s, lastCycles);
+    }
+
+    /* Charges the last instruction its cycles and follows the call or return it made */
+    private void settle(Cpu6809 cpu) {
+        if (lastPc < 0) {
+            return;
+        }
+        cycles[lastPc] += cpu.cycles - lastCycles;
+        lastPc = -1;
+        while (depth > 0 && cpu.s > frameS[depth - 1]) {
+            leave(cpu.cycles);
+        }
+        if (isCall(lastOpcode)) {
+            enter(cpu.pc, cpu.s, cpu.cycles);
+        }
+    }
+
+    private static boolean isCall(int opcode) {
+        switch (opcode) {
+            case 0x8D: // BSR
+            case 0x17: // LBSR
+            case 0x9D: // JSR direct
+            case 0xAD: // JSR indexed
+            case 0xBD: // JSR extended
+            case 0x3F: // SWI
+            case 0x103F: // SWI2
+            case 0x113F: // SWI3
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void enter(int entry, int s, long now) {
+        calls[entry]++;
+        countEdge((depth > 0 ? frameEntry[depth - 1] : ROOT), entry);
+        if (depth == MAX_DEPTH) {
+            return;
+        }
+        frameEntry[depth] = entry;
+        frameS[depth] = s;
+        frameStart[depth] = now;
+        depth++;
+        active[entry]++;
+    }
+
+    private void leave(long now) {
+        depth--;
+        int entry = frameEntry[depth];
+        if (--active[entry] == 0) {
+            inclusive[entry] += now - frameStart[depth]; // Recursive activations are inside the outermost one
+        }
+    }
+
+    private void countEdge(int caller, int callee) {
+        if (edgeCount * 2 >= edgeKeys.length) {
+            growEdges();
+        }
+        long key = ((long) caller << 16) | callee | (1L << 40); // Bit 40 keeps a used key from being 0
+        int mask = edgeKeys.length - 1;
+        int slot = Long.hashCode(key * 0x9E3779B97F4A7C15L) & mask;
+        while (edgeKeys[slot] != 0 && edgeKeys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        if (edgeKeys[slot] == 0) {
+            edgeKeys[slot] = key;
+            edgeCount++;
+        }
+        edgeCounts[slot]++;
+    }
+
+    /* Doubles the edge table; only happens when a call edge is seen for the first time */
+    private void growEdges() {
+        long[] keys = edgeKeys;
+        long[] counts = edgeCounts;
+        edgeKeys = new long[keys.length * 2];
+        edgeCounts = new long[keys.length * 2];
+        int mask = edgeKeys.length - 1;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0) {
+                int slot = Long.hashCode(keys[i] * 0x9E3779B97F4A7C15L) & mask;
+                while (edgeKeys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                edgeKeys[slot] = keys[i];
+                edgeCounts[slot] = counts[i];
+            }
+        }
+    }
+
+    /**
+     * Clears every counter and the shadow stack.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        Arrays.fill(cycles, 0);
+        Arrays.fill(calls, 0);
+        Arrays.fill(inclusive, 0);
+        Arrays.fill(active, 0);
+        Arrays.fill(edgeKeys, 0);
+        Arrays.fill(edgeCounts, 0);
+        edgeCount = 0;
+        depth = 0;
+        firstPc = -1;
+        lastPc = -1;
+    }
+
+    public long getCount(int address) {
+        return counts[address & 0xFFFF];
+    }
+
+    public long getCycles(int address) {
+        return cycles[address & 0xFFFF];
+    }
+
+    public long getCalls(int address) {
+        return calls[address & 0xFFFF];
+    }
+
+    /**
+     * Returns the cycles spent from entering the routine at an address to returning from it, callees included.
+     */
+    public long getInclusiveCycles(int address) {
+        return inclusive[address & 0xFFFF];
+    }
+
+    /**
+     * Returns the total cycles counted over all addresses.
+     */
+    public long getTotalCycles() {
+        long total = 0;
+        for (long value : cycles) {
+            total += value;
+        }
+        return total;
+    }
+
+    /**
+     * Formats the profile: the {@code top} addresses with the most cycles, the cycles of each routine,
+     * and the calls between routines. Addresses are named after the symbols, which may be empty.
+     */
+    public String report(Map<String, Integer> symbols, int top) {
+        Labels labels = new Labels(symbols);
+        long total = Math.max(1, getTotalCycles());
+        StringBuilder out = new StringBuilder();
+
+        out.append("Hot spots\n");
+        out.append(String.format("  %-4s  %-20s %12s %14s %6s%n", "Addr", "Location", "Count", "Cycles", "%"));
+        for (int address : topAddresses(cycles, top)) {
+            out.append(String.format("  %04X  %-20s %12d %14d %6.2f%n", address, labels.locate(address),
+                    counts[address], cycles[address], cycles[address] * 100.0 / total));
+        }
+
+        // A routine starts at each address entered by a call or interrupt, or where profiling began, and runs
+        // up to the next one; its self cycles are those of the addresses it spans
+        long[] self = new long[Memory.SIZE];
+        int routine = -1;
+        long outside = 0;
+        for (int address = 0; address < Memory.SIZE; address++) {
+            if (calls[address] != 0 || address == firstPc) {
+                routine = address;
+            }
+            if (routine < 0) {
+                outside += cycles[address];
+            } else {
+                self[routine] += cycles[address];
+            }
+        }
+        out.append("\nRoutines\n");
+        out.append(String.format("  %-20s %10s %14s %6s %14s%n", "Routine", "Calls", "Self cycles", "%", "Inclusive"));
+        for (int entry : topAddresses(self, Memory.SIZE)) {
+            out.append(String.format("  %-20s %10d %14d %6.2f %14s%n", labels.locate(entry), calls[entry], self[entry],
+                    self[entry] * 100.0 / total, calls[entry] == 0 ? "-" : Long.toString(inclusive[entry])));
+        }
+        if (outside != 0) {
+            out.append(String.format("  %-20s %10s %14d %6.2f%n", "(before any routine)", "", outside, outside * 100.0 / total));
+        }
+
+        out.append("\nCalls\n");
+        long[] edgeTotals = new long[edgeKeys.length];
+        for (int slot = 0; slot < edgeKeys.length; slot++) {
+            edgeTotals[slot] = edgeKeys[slot] != 0 ? edgeCounts[slot] : 0;
+        }
+        for (int slot : topAddresses(edgeTotals, edgeTotals.length)) {
+            int caller = (int) (edgeKeys[slot] >>> 16) & 0x1FFFF;
+            int callee = (int) edgeKeys[slot] & 0xFFFF;
+            out.append(String.format("  %-20s -> %-20s %10d%n", caller == ROOT ? (firstPc < 0 ? "(top)" : labels.locate(firstPc)) : labels.locate(caller),
+                    labels.locate(callee), edgeCounts[slot]));
+        }
+        return out.toString();
+    }
+
+    /* Indices of the largest non-zero values, largest first */
+    private static int[] topAddresses(long[] values, int top) {
+        int[] best = new int[top];
+        int found = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] == 0 || found == top && values[i] <= values[best[top - 1]]) {
+                continue;
+            }
+            int at = found < top ? found++ : top - 1;
+            while (at > 0 && values[best[at - 1]] < values[i]) {
+                best[at] = best[at - 1];
+                at--;
+            }
+            best[at] = i;
+        }
+        return Arrays.copyOf(best, found);
+    }
+
+    /* Symbols sorted by address, for naming addresses as symbol+offset */
+    private static final class Labels {
+        private final int[] addresses;
+        private final String[] names;
+
+        Labels(Map<String, Integer> symbols) {
+            TreeMap<Integer, String> sorted = new TreeMap<>();
+            for (Map.Entry<String, Integer> symbol : symbols.entrySet()) {
+                sorted.merge(symbol.getValue() & 0xFFFF, symbol.getKey(), (a, b) -> a.compareTo(b) <= 0 ? a : b);
+            }
+            addresses = new int[sorted.size()];
+            names = new String[sorted.size()];
+            int i = 0;
+            for (Map.Entry<Integer, String> symbol : sorted.entrySet()) {
+                addresses[i] = symbol.getKey();
+                names[i++] = symbol.getValue();
+            }
+        }
+
+        /* Names an address after the nearest symbol at or below it */
+        String locate(int address) {
+            int i = Arrays.binarySearch(addresses, address);
+            i = i >= 0 ? i : -i - 2;
+            if (i < 0) {
+                return String.format("%04X", address);
+            }
+            return address == addresses[i] ? names[i] : String.format("%s+%d", names[i], address - addresses[i]);
+        }
+    }
+}
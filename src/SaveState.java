@@ -0,0 +1,178 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Class representing a saved machine state: every CPU register and counter plus a copy of memory.
+ * The memory copy shares its pages copy-on-write with the live memory, so capturing a state costs
+ * a page table, and any number of runs can be restored from one state without copying 64 KB each time.
+ * A state is never modified after capture, so it may be restored from several threads at once.
+ *
+ * The file format is big-endian: magic, version, registers, counters, a 256-bit map of the pages that
+ * are not all zero, then those pages in address order.
+ */
+public final class SaveState {
+
+    public static final int MAGIC = 0x36383039; // "6809"
+    public static final int VERSION = 1;
+
+    private final int a;
+    private final int b;
+    private final int x;
+    private final int y;
+    private final int u;
+    private final int s;
+    private final int pc;
+    private final int dp;
+    private final int cc;
+    private final int waitState;
+    private final long instructionCount;
+    private final long cycles;
+    private final Memory memory;
+
+    private SaveState(int a, int b, int x, int y, int u, int s, int pc, int dp, int cc, int waitState,
+                      long instructionCount, long cycles, Memory memory) {
+        this.a = a;
+        this.b = b;
+        this.x = x;
+        this.y = y;
+        this.u = u;
+        this.s = s;
+        this.pc = pc;
+        this.dp = dp;
+        this.cc = cc;
+        this.waitState = waitState;
+        this.instructionCount = instructionCount;
+        this.cycles = cycles;
+        this.memory = memory;
+    }
+
+    /**
+     * Captures the state of a stopped CPU and its memory.
+     */
+    public static SaveState capture(Cpu6809 cpu, Memory memory) {
+        return new SaveState(cpu.a, cpu.b, cpu.x, cpu.y, cpu.u, cpu.s, cpu.pc, cpu.dp, cpu.flags(), cpu.waitState,
+                cpu.instructionCount, cpu.cycles, memory.copy());
+    }
+
+    /**
+     * Puts a stopped CPU and its memory back into this state. Only the pages that differ are marked dirty.
+     */
+    public void restore(Cpu6809 cpu, Memory target) {
+        cpu.a = a;
+        cpu.b = b;
+        cpu.x = x;
+        cpu.y = y;
+        cpu.u = u;
+        cpu.s = s;
+        cpu.pc = pc;
+        cpu.dp = dp;
+        cpu.setCc(cc);
+        cpu.waitState = waitState;
+        cpu.instructionCount = instructionCount;
+        cpu.cycles = cycles;
+        target.restore(memory);
+    }
+
+    public int getPc() {
+        return pc;
+    }
+
+    public long getInstructionCount() {
+        return instructionCount;
+    }
+
+    public long getCycles() {
+        return cycles;
+    }
+
+    /**
+     * Writes the state in the binary save-state format. Pages that are all zero are not stored.
+     */
+    public void write(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeByte(a);
+        out.writeByte(b);
+        out.writeShort(x);
+        out.writeShort(y);
+        out.writeShort(u);
+        out.writeShort(s);
+        out.writeShort(pc);
+        out.writeByte(dp);
+        out.writeByte(cc);
+        out.writeByte(waitState);
+        out.writeLong(instructionCount);
+        out.writeLong(cycles);
+        long[] stored = new long[Memory.PAGE_COUNT / 64];
+        for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+            if (!isZero(memory.page(page))) {
+                stored[page >>> 6] |= 1L << page;
+            }
+        }
+        for (long bits : stored) {
+            out.writeLong(bits);
+        }
+        for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+            if ((stored[page >>> 6] & (1L << page)) != 0) {
+                out.write(memory.page(page));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a state written by write().
+     *
+     * @throws IOException if the stream is not a save state of this version or is truncated
+     */
+    public static SaveState read(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a 6809 save state");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported save state version " + version);
+        }
+        int a = in.readUnsignedByte();
+        int b = in.readUnsignedByte();
+        int x = in.readUnsignedShort();
+        int y = in.readUnsignedShort();
+        int u = in.readUnsignedShort();
+        int s = in.readUnsignedShort();
+        int pc = in.readUnsignedShort();
+        int dp = in.readUnsignedByte();
+        int cc = in.readUnsignedByte();
+        int waitState = in.readUnsignedByte();
+        long instructionCount = in.readLong();
+        long cycles = in.readLong();
+        long[] stored = new long[Memory.PAGE_COUNT / 64];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = in.readLong();
+        }
+        Memory memory = new Memory();
+        byte[] data = new byte[Memory.PAGE_SIZE];
+        for (int page = 0; page < Memory.PAGE_COUNT; page++) {
+            if ((stored[page >>> 6] & (1L << page)) != 0) {
+                in.readFully(data);
+                for (int i = 0; i < Memory.PAGE_SIZE; i++) {
+                    memory.write8(page * Memory.PAGE_SIZE + i, data[i]);
+                }
+            }
+        }
+        return new SaveState(a, b, x, y, u, s, pc, dp, cc, waitState, instructionCount, cycles, memory.copy());
+    }
+
+    private static boolean isZero(byte[] page) {
+        for (byte value : page) {
+            if (value != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
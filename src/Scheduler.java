@@ -0,0 +1,161 @@
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+/**
+ * Class representing the events of a {@link Cpu6809}, keyed on its cycle count.
+ *
+ * Events are registered once, which is the only allocation, and then scheduled and cancelled by id any number
+ * of times. Pending events sit in a binary min-heap of parallel primitive arrays, with each event's heap slot
+ * kept so it can be moved or removed in place. The CPU only compares its cycle count with the earliest due cycle:
+ * it runs uninterrupted up to that cycle, then calls back every event that has come due.
+ *
+ * An event is pending at most once; scheduling it again moves it. Only use a scheduler on the thread that runs
+ * its CPU.
+ */
+public class Scheduler {
+
+    public static final long NEVER = Long.MAX_VALUE;
+
+    private LongConsumer[] callbacks = new LongConsumer[8];
+    private int[] slots = new int[8]; // Heap slot of each event, or -1 if it is not pending
+    private long[] heapDue = new long[8];
+    private int[] heapEvent = new int[8];
+    private int eventCount;
+    private int size;
+
+    long due = NEVER; // Earliest due cycle; read by the core without a call
+
+    /**
+     * Registers a callback and returns its event id. The callback is given the cycle the event was due at,
+     * which may be a little earlier than the current cycle, so periodic events can be rescheduled without drift.
+     */
+    public int register(LongConsumer callback) {
+        if (eventCount == callbacks.length) {
+            callbacks = Arrays.copyOf(callbacks, eventCount * 2);
+            slots = Arrays.copyOf(slots, eventCount * 2);
+            heapDue = Arrays.copyOf(heapDue, eventCount * 2);
+            heapEvent = Arrays.copyOf(heapEvent, eventCount * 2);
+        }
+        callbacks[eventCount] = callback;
+        slots[eventCount] = -1;
+        return eventCount++;
+    }
+
+    /**
+     * Schedules an event for the given cycle, replacing its pending time if it has one.
+     * An event due at or before the current cycle runs before the next instruction.
+     */
+    public void schedule(int event, long cycle) {
+        int slot = slots[event];
+        if (slot < 0) {
+            slot = size++;
+            heapEvent[slot] = event;
+            slots[event] = slot;
+        } else if (cycle > heapDue[slot]) {
+            heapDue[slot] = cycle;
+            siftDown(slot);
+            due = heapDue[0];
+            return;
+        }
+        heapDue[slot] = cycle;
+        siftUp(slot);
+        due = heapDue[0];
+    }
+
+    /**
+     * Cancels an event if it is pending.
+     */
+    public void cancel(int event) {
+        int slot = slots[event];
+        if (slot < 0) {
+            return;
+        }
+        remove(slot);
+    }
+
+    public boolean isScheduled(int event) {
+        return slots[event] >= 0;
+    }
+
+    /**
+     * Returns the cycle the earliest pending event is due at, or NEVER.
+     */
+    public long nextDue() {
+        return due;
+    }
+
+    /**
+     * Cancels every pending event.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            slots[heapEvent[i]] = -1;
+        }
+        size = 0;
+        due = NEVER;
+    }
+
+    /* Calls back, in order, every event due at or before the given cycle */
+    void runDue(long now) {
+        while (size > 0 && heapDue[0] <= now) {
+            int event = heapEvent[0];
+            long cycle = heapDue[0];
+            remove(0);
+            callbacks[event].accept(cycle);
+        }
+    }
+
+    private void remove(int slot) {
+        slots[heapEvent[slot]] = -1;
+        size--;
+        if (slot < size) {
+            move(size, slot);
+            siftDown(slot);
+            siftUp(slot);
+        }
+        due = size > 0 ? heapDue[0] : NEVER;
+    }
+
+    private void siftUp(int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (heapDue[parent] <= heapDue[slot]) {
+                return;
+            }
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown(int slot) {
+        while (true) {
+            int child = 2 * slot + 1;
+            if (child >= size) {
+                return;
+            }
+            if (child + 1 < size && heapDue[child + 1] < heapDue[child]) {
+                child++;
+            }
+            if (heapDue[slot] <= heapDue[child]) {
+                return;
+            }
+            swap(slot, child);
+            slot = child;
+        }
+    }
+
+    private void swap(int i, int j) {
+        long cycle = heapDue[i];
+        int event = heapEvent[i];
+        move(j, i);
+        heapDue[j] = cycle;
+        heapEvent[j] = event;
+        slots[event] = j;
+    }
+
+    private void move(int from, int to) {
+        heapDue[to] = heapDue[from];
+        heapEvent[to] = heapEvent[from];
+        slots[heapEvent[to]] = to;
+    }
+}
@@ -0,0 +1,53 @@
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Class representing the standard peripheral map that firmware for this emulator can rely on:
+ * <pre>
+ *   A000-A001  ACIA 6850   status/control, data
+ *   A004-A007  PIA 6821    port A data/direction, control A, port B data/direction, control B
+ *   A008-A00A  timer       counter high/latch high, counter low/latch low, control/status
+ * </pre>
+ * The rest of page A0 stays RAM. The ACIA and PIA drive IRQ and the timer drives FIRQ.
+ */
+public class StandardIo {
+
+    public static final int ACIA_ADDRESS = 0xA000;
+    public static final int PIA_ADDRESS = 0xA004;
+    public static final int TIMER_ADDRESS = 0xA008;
+
+    private final Acia6850 acia;
+    private final Pia6821 pia;
+    private final IntervalTimer timer;
+
+    /**
+     * Creates the devices and attaches them to a memory. The ACIA receives from {@code in}, which may be null,
+     * and transmits to {@code out}; the timer counts the CPU's cycles.
+     */
+    public StandardIo(Memory memory, Cpu6809 cpu, InputStream in, OutputStream out) {
+        acia = new Acia6850(in, out);
+        pia = new Pia6821();
+        timer = new IntervalTimer(cpu::getCycles, cpu.getScheduler());
+        memory.attach(acia, ACIA_ADDRESS, Acia6850.REGISTER_COUNT);
+        memory.attach(pia, PIA_ADDRESS, Pia6821.REGISTER_COUNT);
+        memory.attach(timer, TIMER_ADDRESS, IntervalTimer.REGISTER_COUNT);
+        cpu.addInterruptSource(Cpu6809.IRQ, acia::isInterruptRequested);
+        cpu.addInterruptSource(Cpu6809.IRQ, pia::isInterruptRequested);
+        cpu.addInterruptSource(Cpu6809.FIRQ, timer::isInterruptRequested);
+        acia.setInterruptListener(cpu::requestInterruptCheck);
+        pia.setInterruptListener(cpu::requestInterruptCheck);
+        timer.setInterruptListener(cpu::requestInterruptCheck);
+    }
+
+    public Acia6850 getAcia() {
+        return acia;
+    }
+
+    public Pia6821 getPia() {
+        return pia;
+    }
+
+    public IntervalTimer getTimer() {
+        return timer;
+    }
+}
@@ -0,0 +1,130 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class representing a trace file written by {@link TraceRecorder}, opened for reading.
+ * Records are read from disk on demand, so traces far larger than the heap can be browsed and exported.
+ *
+ * Run with {@code java TraceFile trace.bin [first [count]]} to print records as text.
+ */
+public class TraceFile implements Closeable {
+
+    private final FileChannel channel;
+    private final long capacity;
+    private final long count;
+    private final ByteBuffer record = ByteBuffer.allocate(TraceRecorder.RECORD_SIZE);
+
+    public TraceFile(Path file) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.READ);
+        ByteBuffer header = ByteBuffer.allocate(TraceRecorder.HEADER_SIZE);
+        readFully(header, 0);
+        if (header.getLong(0) != TraceRecorder.MAGIC
+                || header.getInt(TraceRecorder.HEADER_VERSION) != TraceRecorder.VERSION
+                || header.getInt(TraceRecorder.HEADER_RECORD_SIZE) != TraceRecorder.RECORD_SIZE) {
+            channel.close();
+            throw new IOException("Not a 6809 trace file: " + file);
+        }
+        capacity = header.getLong(TraceRecorder.HEADER_CAPACITY);
+        count = header.getLong(TraceRecorder.HEADER_COUNT);
+    }
+
+    /**
+     * Returns the number of records still held in the ring.
+     */
+    public long size() {
+        return Math.min(count, capacity);
+    }
+
+    /**
+     * Returns the sequence number of the oldest record held; earlier records were overwritten.
+     */
+    public long firstIndex() {
+        return count - size();
+    }
+
+    /**
+     * Returns the total number of instructions recorded, including overwritten ones.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Formats one record, given by its sequence number, as a line of text.
+     *
+     * @throws IllegalArgumentException if the record is not held in the ring
+     */
+    public String format(long index) throws IOException {
+        if (index < firstIndex() || index >= count) {
+            throw new IllegalArgumentException("Record " + index + " is not in the trace");
+        }
+        record.clear();
+        readFully(record, TraceRecorder.HEADER_SIZE + (index & (capacity - 1)) * TraceRecorder.RECORD_SIZE);
+        long cycles = record.getLong(0);
+        int pc = record.getShort(8) & 0xFFFF;
+        int[] bytes = new int[4];
+        for (int i = 0; i < 4; i++) {
+            bytes[i] = record.get(10 + i) & 0xFF;
+        }
+        Opcode op = decode(bytes);
+        return String.format("%10d %10d  %04X  %02X %02X %02X %02X  %-6s A=%02X B=%02X X=%04X Y=%04X U=%04X S=%04X DP=%02X CC=%02X",
+                index, cycles, pc, bytes[0], bytes[1], bytes[2], bytes[3], op.isDefined() ? op.mnemonic : "???",
+                record.get(14) & 0xFF, record.get(15) & 0xFF,
+                record.getShort(16) & 0xFFFF, record.getShort(18) & 0xFFFF,
+                record.getShort(20) & 0xFFFF, record.getShort(22) & 0xFFFF,
+                record.get(24) & 0xFF, record.get(25) & 0xFF);
+    }
+
+    /**
+     * Writes up to {@code limit} records starting at sequence number {@code first} as text.
+     */
+    public void export(PrintStream out, long first, long limit) throws IOException {
+        long from = Math.max(first, firstIndex());
+        long to = Math.min(count, from + limit);
+        for (long index = from; index < to; index++) {
+            out.println(format(index));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static Opcode decode(int[] bytes) {
+        if (bytes[0] == 0x10) {
+            return OpcodeTable.PAGE2[bytes[1]];
+        } else if (bytes[0] == 0x11) {
+            return OpcodeTable.PAGE3[bytes[1]];
+        }
+        return OpcodeTable.PAGE0[bytes[0]];
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Trace file is truncated");
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java TraceFile <trace file> [first record] [count]");
+            System.exit(1);
+        }
+        try (TraceFile trace = new TraceFile(Paths.get(args[0]))) {
+            long first = args.length > 1 ? Long.parseLong(args[1]) : trace.firstIndex();
+            long limit = args.length > 2 ? Long.parseLong(args[2]) : Long.MAX_VALUE;
+            System.out.println(String.format("%d instructions recorded, records %d to %d held",
+                    trace.getCount(), trace.firstIndex(), trace.getCount() - 1));
+            trace.export(System.out, first, limit);
+        }
+    }
+}
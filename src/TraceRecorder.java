@@ -0,0 +1,114 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Class representing an execution trace written as fixed-width binary records into a memory-mapped ring file.
+ * The core calls record() before each instruction; it only stores primitives into the mapping, so tracing
+ * allocates nothing and does no system calls per instruction. Once the ring is full the oldest records are
+ * overwritten. The file is decoded on demand by {@link TraceFile}.
+ *
+ * File layout: a HEADER_SIZE header (magic, version, record size, capacity, records written) followed by
+ * capacity records of RECORD_SIZE bytes, all big-endian:
+ * <pre>
+ *  0  cycles before the instruction (8)   8  PC (2)       10  first 4 bytes at PC
+ * 14  A, B (1 each)                       16  X, Y, U, S (2 each)
+ * 24  DP, CC (1 each)                     26  reserved (6)
+ * </pre>
+ */
+public class TraceRecorder implements Closeable {
+
+    public static final long MAGIC = 0x3638303954524331L; // "6809TRC1"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 64;
+    public static final int RECORD_SIZE = 32;
+
+    /* Header field offsets */
+    static final int HEADER_VERSION = 8;
+    static final int HEADER_RECORD_SIZE = 12;
+    static final int HEADER_CAPACITY = 16;
+    static final int HEADER_COUNT = 24;
+
+    /* A single mapping is limited to 2 GB, so the ring is mapped in 1 GB segments */
+    static final int SEGMENT_SHIFT = 25;
+    static final int SEGMENT_RECORDS = 1 << SEGMENT_SHIFT;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private final long capacityMask;
+    private long count;
+
+    /**
+     * Creates or truncates a trace file holding the last {@code capacity} instructions.
+     *
+     * @throws IllegalArgumentException if capacity is not a positive power of two
+     */
+    public TraceRecorder(Path file, long capacity) throws IOException {
+        if (capacity <= 0 || Long.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Trace capacity must be a power of two: " + capacity);
+        }
+        capacityMask = capacity - 1;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        header.putLong(0, MAGIC);
+        header.putInt(HEADER_VERSION, VERSION);
+        header.putInt(HEADER_RECORD_SIZE, RECORD_SIZE);
+        header.putLong(HEADER_CAPACITY, capacity);
+        header.putLong(HEADER_COUNT, 0);
+        segments = new MappedByteBuffer[(int) ((capacity + SEGMENT_RECORDS - 1) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long records = Math.min(SEGMENT_RECORDS, capacity - ((long) i << SEGMENT_SHIFT));
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    HEADER_SIZE + ((long) i << SEGMENT_SHIFT) * RECORD_SIZE, records * RECORD_SIZE);
+        }
+    }
+
+    /**
+     * Appends the state of the CPU before it executes the instruction at PC.
+     */
+    void record(Cpu6809 cpu) {
+        long slot = count++ & capacityMask;
+        MappedByteBuffer segment = segments[(int) (slot >>> SEGMENT_SHIFT)];
+        int offset = (int) (slot & (SEGMENT_RECORDS - 1)) * RECORD_SIZE;
+        int pc = cpu.pc;
+        // Four aligned long stores in the layout above, rather than one store per field
+        long opcodeBytes = ((long) cpu.peek16(pc) << 16) | cpu.peek16((pc + 2) & 0xFFFF);
+        segment.putLong(offset, cpu.cycles);
+        segment.putLong(offset + 8, ((long) pc << 48) | (opcodeBytes << 16) | (cpu.a << 8) | cpu.b);
+        segment.putLong(offset + 16, ((long) cpu.x << 48) | ((long) cpu.y << 32) | ((long) cpu.u << 16) | cpu.s);
+        segment.putLong(offset + 24, ((long) cpu.dp << 56) | ((long) cpu.flags() << 48));
+    }
+
+    /**
+     * Returns the number of instructions recorded, including those already overwritten.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    public long getCapacity() {
+        return capacityMask + 1;
+    }
+
+    /**
+     * Publishes the record count in the file header so a reader sees every record written so far.
+     */
+    public void flush() {
+        header.putLong(HEADER_COUNT, count);
+    }
+
+    @Override
+    public void close() throws IOException {
+        flush();
+        header.force();
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        channel.close();
+    }
+}
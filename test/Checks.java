@@ -0,0 +1,38 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Class representing a runner for the tests without a build tool: every public method whose name starts with
+ * "test" is called on a new instance of each class named. For example:
+ * <pre>
+ *   javac -d build src/*.java test/*.java
+ *   java -cp build Checks TranslatorTest
+ * </pre>
+ * Exits with status 1 if any test fails.
+ */
+public class Checks {
+
+    public static void main(String[] args) throws ReflectiveOperationException {
+        int failed = 0;
+        for (String name : args) {
+            Class<?> type = Class.forName(name);
+            for (Method method : type.getMethods()) {
+                if (!method.getName().startsWith("test") || method.getParameterCount() != 0) {
+                    continue;
+                }
+                long start = System.nanoTime();
+                try {
+                    method.invoke(type.getConstructor().newInstance());
+                    long millis = (System.nanoTime() - start) / 1_000_000;
+                    System.out.printf("ok    %s.%s (%d ms)%n", name, method.getName(), millis);
+                } catch (InvocationTargetException e) {
+                    failed++;
+                    System.out.printf("FAIL  %s.%s: %s%n", name, method.getName(), e.getCause());
+                }
+            }
+        }
+        if (failed > 0) {
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Class representing the checks of {@link GdbServer}, through a client on the loopback interface that speaks the
+ * remote serial protocol as GDB does.
+ */
+public class GdbServerTest {
+
+    /* 1000: LDA #$05; STA $2000; INCA; LDB $2000; BRA 1000 */
+    private static final byte[] LOOP = {(byte) 0x86, 0x05, (byte) 0xB7, 0x20, 0x00, 0x4C, (byte) 0xF6, 0x20, 0x00,
+            0x20, (byte) 0xF5};
+
+    /* Packets with missing, oversized or malformed fields, and the replies they must get */
+    private static final String[][] MALFORMED = {
+        {"mffffffffffffffff,1", "E01"}, {"mffffffff,1", "E01"}, {"m10000,1", "E01"}, {"m,", "E01"},
+        {"m1000", "E01"}, {"m1000,", "E01"},
+        {"Mffffffffffffffff,1:00", "E01"}, {"Mffffffff,1:00", "E01"}, {"M1000,2:0", "E01"}, {"M1000,2:zz", "E01"},
+        {"X1000,4:ab", "E01"}, {"X1000,1:}", "E01"}, {"Xffffffffffffffff,1:a", "E01"},
+        {"Zffffffffffffffff,1000,1", "E01"}, {"Zffffffff,1000,1", ""}, {"Z9,0,1", ""},
+        {"Z2,ffffffffffffffff,1", "E01"}, {"Z2,ffffffff,1", ""}, {"Z", "E01"}, {"z0,", "E01"},
+        {"p", "E01"}, {"pffffffffffffffff", "E01"}, {"pffffffff", "E01"}, {"p9", "E01"},
+        {"P", "E01"}, {"P1=", "E01"}, {"P1=g", "E01"}, {"Pffffffff=00", "E01"}, {"P9=00", "E01"},
+        {"G00", "E01"}, {"Gzz", "E01"},
+        {"qXfer:features:read:target.xml:", "E01"}, {"qXfer:features:read:target.xml:0", "E01"},
+        {"\u00ff\u00ff", ""},
+    };
+
+    public void testSession() throws IOException, InterruptedException {
+        Memory memory = new Memory();
+        Cpu6809 cpu = new Cpu6809(memory);
+        memory.load(0x1000, ByteBuffer.wrap(LOOP));
+        cpu.setPc(0x1000);
+        memory.attach(new Device() {
+            @Override
+            public int read(int register) {
+                return 0x77;
+            }
+
+            @Override
+            public void write(int register, int value) {
+            }
+
+            @Override
+            public int peek(int register) {
+                return 0x66;
+            }
+        }, 0x3005, 1);
+        GdbServer server = new GdbServer(cpu, memory, 0);
+        server.start();
+        try (Client client = new Client(server.getPort())) {
+            // Framing: a bad checksum is refused, then acknowledgements are turned off
+            client.out.write("$g#00".getBytes(StandardCharsets.ISO_8859_1));
+            check(client.in.read() == '-', "a bad checksum was acknowledged");
+            check(client.send("qSupported:xmlRegisters=i386").contains("QStartNoAckMode+"), "no ack-less mode");
+            check(client.send("qXfer:features:read:target.xml:0,40").startsWith("m<?xml"), "no target description");
+            expect(client, "QStartNoAckMode", "OK");
+            client.acknowledge = false;
+
+            expect(client, "?", "S05");
+            expect(client, "g", "0000000000000000000000001000");
+            expect(client, "m1000,b", "8605b720004cf6200020f5");
+            expect(client, "m3004,3", "006600"); // Device registers are peeked
+            check(client.send("m0,4000").length() == 0x4000, "a long read was not cut to the packet size");
+            expect(client, "mfffe,10", "0000");
+
+            expect(client, "s", "S05");
+            expect(client, "p8", "1002");
+            expect(client, "Z2,2000,1", "OK");
+            expect(client, "c", "T05watch:2000;");
+            expect(client, "g", "0005000000000000000000001005");
+            expect(client, "z2,2000,1", "OK");
+            expect(client, "Z0,1005,1", "OK");
+            expect(client, "c", "S05");
+            expect(client, "p8", "1005");
+            expect(client, "z0,1005,1", "OK");
+
+            expect(client, "P1=aa", "OK");
+            expect(client, "p1", "aa");
+            expect(client, "G" + "00" + "0102" + "03" + "1111" + "2222" + "3333" + "4444" + "1000", "OK");
+            expect(client, "g", "0001020311112222333344441000");
+            expect(client, "M4000,3:010203", "OK");
+            expect(client, "m4000,3", "010203");
+            expect(client, "X4010,2:}]A", "OK"); // } escapes the next byte, XORed with 20
+            expect(client, "m4010,2", "7d41");
+
+            // Continuing without breakpoints runs until Ctrl-C
+            client.write("c");
+            Thread.sleep(100);
+            client.out.write(3);
+            check(client.receive().equals("S02"), "Ctrl-C did not stop the target");
+            check(cpu.getInstructionCount() > 1000, "the target did not run");
+
+            expect(client, "M5000,1:01", "OK");
+            expect(client, "c5000", "S04"); // Illegal opcode
+            expect(client, "p8", "5000");
+
+            expect(client, "D", "OK");
+            check(client.in.read() < 0, "the server did not close after detaching");
+        }
+        try (Client client = new Client(server.getPort())) {
+            expect(client, "?", "S05");
+        } finally {
+            server.close();
+        }
+    }
+
+    public void testMalformedPackets() throws IOException {
+        Memory memory = new Memory();
+        Cpu6809 cpu = new Cpu6809(memory);
+        cpu.setPc(0x1000);
+        new StandardIo(memory, cpu, null, OutputStream.nullOutputStream()); // Reads of A0xx peek the devices
+        GdbServer server = new GdbServer(cpu, memory, 0);
+        server.start();
+        try {
+            for (int round = 0; round < 2; round++) { // The server must keep serving, and take a new client
+                try (Client client = new Client(server.getPort())) {
+                    for (String[] packet : MALFORMED) {
+                        expect(client, packet[0], packet[1]);
+                    }
+                    expect(client, "m1000,2", "0000");
+                    expect(client, "D", "OK");
+                }
+            }
+            check(cpu.getBreakpoints().isEmpty(), "a malformed Z packet set a breakpoint");
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void expect(Client client, String packet, String reply) throws IOException {
+        String actual = client.send(packet);
+        check(actual.equals(reply), packet + " got " + actual + " rather than " + reply);
+    }
+
+    /* A debugger's end of the connection */
+    private static final class Client implements AutoCloseable {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        boolean acknowledge = true;
+
+        Client(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(10_000);
+            in = new BufferedInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+        }
+
+        String send(String packet) throws IOException {
+            write(packet);
+            if (acknowledge) {
+                check(in.read() == '+', "packet " + packet + " was not acknowledged");
+            }
+            return receive();
+        }
+
+        void write(String packet) throws IOException {
+            int sum = 0;
+            for (int i = 0; i < packet.length(); i++) {
+                sum += packet.charAt(i);
+            }
+            out.write(String.format("$%s#%02x", packet, sum & 0xFF).getBytes(StandardCharsets.ISO_8859_1));
+            out.flush();
+        }
+
+        String receive() throws IOException {
+            int value;
+            while ((value = in.read()) != '$') {
+                if (value < 0) {
+                    throw new EOFException();
+                }
+            }
+            StringBuilder packet = new StringBuilder();
+            int sum = 0;
+            while ((value = in.read()) != '#') {
+                if (value < 0) {
+                    throw new EOFException();
+                }
+                packet.append((char) value);
+                sum += value;
+            }
+            int checksum = Integer.parseInt("" + (char) in.read() + (char) in.read(), 16);
+            check(checksum == (sum & 0xFF), "reply " + packet + " has a bad checksum");
+            if (acknowledge) {
+                out.write('+');
+            }
+            return packet.toString();
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Class representing the checks of {@link MachineHost}: its machines must run like a CPU over a plain
+ * {@link Memory}, while sharing what they have not written.
+ */
+public class HostTest {
+
+    /* Patches its own code, then loops over a buffer; run from RAM and from ROM, where the patches are ignored */
+    private static final String PROGRAM = String.join("\n",
+            "        ORG $1000", "        LDS #$7F00", "        LDB #0",
+            "SM      LDA #1", "        INCA", "        STA SM+1", "        STA $4000", "        INCB", "        BNE SM",
+            "LOOP    LDX #$2000",
+            "FILL    LDD ,X", "        ADDD #$0101", "        STD ,X++", "        PSHS X", "        PULS Y",
+            "        CMPX #$2100", "        BNE FILL",
+            "        DEC $4001", "        BNE LOOP", "        SYNC",
+            "        ORG $FFFE", "        FDB $1000");
+
+    public void testMachinesMatchPlainMemory() throws IOException {
+        Assembly assembly = new Assembler6809(0x1000).assemble(PROGRAM);
+        check(!assembly.hasErrors(), assembly.getErrors().toString());
+        Memory image = new Memory();
+        assembly.loadInto(image);
+        byte[] bytes = new byte[Memory.SIZE];
+        for (int address = 0; address < Memory.SIZE; address++) {
+            bytes[address] = (byte) image.peek8(address);
+        }
+        Path ram = Files.createTempFile("host", ".bin");
+        Path rom = Files.createTempFile("host", ".bin");
+        try {
+            Files.write(ram, bytes);
+            Files.write(rom, Arrays.copyOfRange(bytes, 0x1000, 0x1100));
+            for (boolean inRom : new boolean[] {false, true}) {
+                for (boolean translate : new boolean[] {false, true}) {
+                    MachineHost host = new MachineHost();
+                    host.load(ram, 0);
+                    if (inRom) {
+                        host.loadRom(rom, 0x1000);
+                    }
+                    MachineHost.Machine first = host.create();
+                    MachineHost.Machine machine = host.create();
+                    runToSync(first.getCpu()); // Decodes the shared code before the machine compared
+                    if (translate) {
+                        machine.getCpu().setTranslator(new BlockTranslator(machine.getCpu(), machine.getMemory()));
+                    }
+                    runToSync(machine.getCpu());
+
+                    Memory memory = new Memory();
+                    memory.load(0, ByteBuffer.wrap(bytes));
+                    if (inRom) {
+                        memory.mapPage(0x10, memory.page(0x10), true, true);
+                    }
+                    Cpu6809 plain = new Cpu6809(memory);
+                    plain.reset();
+                    runToSync(plain);
+
+                    String what = (inRom ? "ROM" : "RAM") + (translate ? " translated" : "");
+                    check(state(plain).equals(state(machine.getCpu())),
+                            what + ": " + state(plain) + " vs " + state(machine.getCpu()));
+                    for (int address = 0; address < Memory.SIZE; address++) {
+                        if (memory.peek8(address) != machine.getMemory().peek8(address)) {
+                            throw new AssertionError(String.format("%s: %04X differs", what, address));
+                        }
+                    }
+                }
+            }
+        } finally {
+            Files.delete(ram);
+            Files.delete(rom);
+        }
+    }
+
+    public void testMachinesShareWhatTheyHaveNotWritten() throws IOException {
+        Assembly assembly = new Assembler6809(0x1000).assemble(PROGRAM);
+        Memory image = new Memory();
+        assembly.loadInto(image);
+        byte[] bytes = new byte[0x100];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) image.peek8(0x1000 + i);
+        }
+        Path rom = Files.createTempFile("host", ".bin");
+        try {
+            Files.write(rom, bytes);
+            MachineHost host = new MachineHost();
+            host.loadRom(rom, 0x1000);
+            MachineHost.Machine[] machines = new MachineHost.Machine[20];
+            for (int i = 0; i < machines.length; i++) {
+                machines[i] = host.create();
+                machines[i].getCpu().setPc(0x1000);
+                runToSync(machines[i].getCpu());
+                // The stack page and the two pages of data written; the ROM's decoded code is shared
+                check(machines[i].getPrivateBytes() == 3 * Memory.PAGE_SIZE,
+                        "machine " + i + " holds " + machines[i].getPrivateBytes() + " bytes");
+            }
+            Breakpoints unused = machines[0].getCpu().getBreakpoints();
+            Breakpoints used = machines[1].getCpu().getBreakpoints();
+            used.set(Breakpoints.EXECUTE, 0x1000, null);
+            check(unused.execute == machines[2].getCpu().getBreakpoints().execute,
+                    "a CPU without breakpoints has bitsets of its own");
+            check(used.execute != unused.execute && used.read == unused.read,
+                    "setting a breakpoint did not give it a bitset of its own");
+        } finally {
+            Files.delete(rom);
+        }
+    }
+
+    private static void runToSync(Cpu6809 cpu) {
+        for (int i = 0; i < 1000 && cpu.getWaitState() == Cpu6809.RUNNING; i++) {
+            cpu.runCycles(1 << 20);
+        }
+        check(cpu.getWaitState() != Cpu6809.RUNNING, "program did not end");
+    }
+
+    private static String state(Cpu6809 cpu) {
+        return String.format("PC=%04X D=%04X X=%04X Y=%04X U=%04X S=%04X DP=%02X CC=%02X cycles=%d count=%d",
+                cpu.getPc(), cpu.getD(), cpu.getX(), cpu.getY(), cpu.getU(), cpu.getS(), cpu.getDp(), cpu.getCc(),
+                cpu.getCycles(), cpu.getInstructionCount());
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Class representing the checks of {@link Profiler}'s cycle accounting.
+ */
+public class ProfilerTest {
+
+    /* Spins while the interval timer interrupts it every 256 cycles */
+    private static final String TIMED = String.join("\n",
+            " ORG $1000",
+            "START LDS #$7F00",
+            " LDA #$01", " STA $A008", " CLRA", " STA $A009", " LDA #$07", " STA $A00A",
+            " ANDCC #$BF",
+            "LOOP INCB", " BRA LOOP",
+            "HANDLER LDA $A00A", " RTI",
+            " ORG $FFF6", " FDB HANDLER",
+            " ORG $FFFE", " FDB START");
+
+    public void testTotalIncludesInterruptEntry() {
+        Assembly assembly = new Assembler6809(0x1000).assemble(TIMED);
+        check(!assembly.hasErrors(), assembly.getErrors().toString());
+        Memory memory = new Memory();
+        Cpu6809 cpu = new Cpu6809(memory);
+        assembly.loadInto(memory);
+        new StandardIo(memory, cpu, null, new ByteArrayOutputStream());
+        cpu.reset();
+        Profiler profiler = new Profiler();
+        cpu.setProfiler(profiler);
+        for (int i = 0; i < 10; i++) {
+            cpu.runCycles(100_000);
+        }
+        int handler = assembly.getSymbols().get("HANDLER");
+        check(profiler.getCalls(handler) > 1000, "the timer interrupted " + profiler.getCalls(handler) + " times");
+        // Only the instruction still running has not been charged
+        long missing = cpu.getCycles() - profiler.getTotalCycles();
+        check(missing >= 0 && missing < 20, missing + " cycles are not in the profile");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Class representing the checks of {@link Scheduler} and of the events it raises on time in a running CPU.
+ */
+public class SchedulerTest {
+
+    /* Counts the interrupts of the interval timer, which expires every 257 cycles */
+    private static final String TIMED = String.join("\n",
+            " ORG $1000",
+            "START LDS #$7F00",
+            " LDA #$01", " STA $A008", " CLRA", " STA $A009", " LDA #$07", " STA $A00A",
+            " ANDCC #$BF",
+            "LOOP INCB", " BRA LOOP",
+            "HANDLER LDA $A00A", " LDX $4000", " LEAX 1,X", " STX $4000", " RTI",
+            " ORG $FFF6", " FDB HANDLER",
+            " ORG $FFFE", " FDB START");
+
+    public void testHeapMatchesModel() {
+        Scheduler scheduler = new Scheduler();
+        Random random = new Random(1);
+        long[] last = {-1};
+        boolean[] ordered = {true};
+        int[] events = new int[50];
+        for (int i = 0; i < events.length; i++) {
+            events[i] = scheduler.register(cycle -> {
+                ordered[0] &= cycle >= last[0];
+                last[0] = cycle;
+            });
+        }
+        Map<Integer, Long> model = new HashMap<>();
+        for (int i = 0; i < 100_000; i++) {
+            int event = events[random.nextInt(events.length)];
+            if (random.nextBoolean()) {
+                long cycle = random.nextInt(1_000_000);
+                scheduler.schedule(event, cycle);
+                model.put(event, cycle);
+            } else {
+                scheduler.cancel(event);
+                model.remove(event);
+            }
+            long due = model.values().stream().mapToLong(Long::longValue).min().orElse(Scheduler.NEVER);
+            check(scheduler.nextDue() == due, "due at " + scheduler.nextDue() + ", not " + due);
+            check(scheduler.isScheduled(event) == model.containsKey(event), "event " + event + " lost");
+        }
+        scheduler.runDue(Scheduler.NEVER - 1);
+        check(ordered[0], "events ran out of order");
+        check(scheduler.nextDue() == Scheduler.NEVER, "events left after running them all");
+    }
+
+    public void testTimerInterruptsOnTime() {
+        for (boolean translate : new boolean[] {false, true}) {
+            Assembly assembly = new Assembler6809(0x1000).assemble(TIMED);
+            check(!assembly.hasErrors(), assembly.getErrors().toString());
+            Memory memory = new Memory();
+            Cpu6809 cpu = new Cpu6809(memory);
+            assembly.loadInto(memory);
+            new StandardIo(memory, cpu, null, new ByteArrayOutputStream());
+            cpu.reset();
+            if (translate) {
+                cpu.setTranslator(new BlockTranslator(cpu, memory));
+            }
+            for (int i = 0; i < 10; i++) {
+                cpu.runCycles(100_000); // The handler reschedules the timer in mid-run
+            }
+            int taken = memory.peek8(0x4000) << 8 | memory.peek8(0x4001);
+            long expected = cpu.getCycles() / 257;
+            check(Math.abs(taken - expected) <= 2, taken + " interrupts rather than " + expected
+                    + (translate ? " translated" : ""));
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}
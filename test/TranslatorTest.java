@@ -0,0 +1,208 @@
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Class representing the checks of the translating tier against the interpreter: every program is run both
+ * ways and must end with the same registers, cycle and instruction counts, and memory.
+ */
+public class TranslatorTest {
+
+    /* Multiply loop with stack traffic, a direct-page copy, self-modifying code, and every indexed form */
+    private static final String[] PROGRAMS = {
+        String.join("\n",
+            "        ORG $1000", "        LDS #$8000", "        LDU #$7000", "        LDY #0",
+            "OUTER   LDX #$2000",
+            "LOOP    LDA ,X", "        LDB 1,X", "        MUL", "        ADDD #$1234", "        STD ,X++",
+            "        PSHS D", "        PULS B", "        PULS A", "        LEAY 1,Y", "        CMPX #$2100",
+            "        BNE LOOP",
+            "        CMPY #$0800", "        BLO OUTER", "        SYNC"),
+        String.join("\n",
+            "        ORG $1000", "        LDA #$20", "        TFR A,DP", "        SETDP $20", "        CLR $10",
+            "LP2     LDX #$3000", "        LDY #$5000",
+            "CP      LDD ,X++", "        STD ,Y++", "        INC <$10", "        CMPX #$3100", "        BNE CP",
+            "        DEC $2011", "        BNE LP2", "        SYNC"),
+        String.join("\n",
+            "        ORG $1000", "        LDB #0",
+            "SM      LDA #1", "        INCA", "        STA SM+1", "        STA $4000", "        INCB", "        BNE SM",
+            "        LDX #$1100", "        LDA #$12", "        STA ,X", "        STA 1,X", "        LDA #$39",
+            "        STA 2,X", "        JSR ,X", "        LDS #$7F00",
+            "LP      LEAX 1,X", "        CMPX #$9000", "        BNE LP", "        SYNC",
+            "        ORG $1100", "        NOP", "        NOP", "        RTS"),
+        String.join("\n",
+            "        ORG $1000", "        LDS #$7F00", "        LDU #$6000", "        CLRB",
+            "TOP     LDX #$2000", "        LDY #$3010", "        LDA ,X+", "        STA ,-Y", "        LDD ,X++",
+            "        STD ,--Y", "        LDA B,X", "        STA A,Y", "        LDD D,U", "        ADDD $100,X",
+            "        STD -300,Y", "        LDA -5,X", "        ADDA 12,Y", "        STA 7,U", "        LDD TAB,PCR",
+            "        ADDD [PTR]", "        STD [2,U]", "        LDD [,X++]", "        ADDD [4,Y]", "        PSHS D",
+            "        LDA ,S+", "        LDB ,S+", "        ADDD [D,X]", "        LEAX 2000,X", "        STD [B,Y]",
+            "        DEC $4100", "        BNE TOP", "        SYNC",
+            "TAB     FDB $0102", "PTR     FDB $2100"),
+    };
+
+    /* Blocks that push and pull many registers, whose cycles depend on the postbyte */
+    private static final String STACKING = String.join("\n",
+            "        ORG $1000", "        LDS #$7F00", "        LDU #$6F00", "        LDX #$2000",
+            "LOOP    PSHS A,B,X,Y,U,DP,CC", "        PSHU A,B,X,Y,S", "        LEAX 1,X", "        PULU A,B,X,Y,S",
+            "        PULS A,B,X,Y,U,DP,CC", "        LEAX 1,X", "        STX $3000", "        CMPX #$2400",
+            "        BNE LOOP", "        LDX #$2000", "        BRA LOOP");
+
+    /* Samples the interval timer into a buffer, with or without its interrupt counting in a handler */
+    private static String timerLoop(boolean firq) {
+        return String.join("\n",
+                " ORG $1000",
+                "START LDS #$7F00",
+                " LDA #$FF", " STA $A008",
+                " LDA #$" + (firq ? "40" : "FF"), " STA $A009",
+                " LDA #$" + (firq ? "07" : "05"), " STA $A00A",
+                " LDY #$2000",
+                firq ? " ANDCC #$BF" : " NOP",
+                "LOOP NOP", " NOP", " NOP", " NOP", " NOP", " NOP", " NOP", " NOP",
+                " LDX $A008", " STX ,Y++", " CMPY #$3000", " BNE LOOP", " LDY #$2000", " BRA LOOP",
+                "HANDLER INC $4000", " PSHS A,X", " LDA $A00A", " LDX $A008", " STX $4002", " PULS A,X", " RTI",
+                " ORG $FFF6", " FDB HANDLER",
+                " ORG $FFFE", " FDB START");
+    }
+
+    /* Unmasks IRQ in mid-block just after a device write raised it; the handler records A */
+    private static final String UNMASK = String.join("\n",
+            " ORG $1000",
+            "START LDS #$7F00", " LDY #$2000",
+            "LOOP ORCC #$10", " STA $A000", " LDA #0", " ANDCC #$EF", " INCA", " INCA", " INCA", " INCA",
+            " CMPY #$2400", " BNE LOOP", " LDY #$2000", " BRA LOOP",
+            "HANDLER STA ,Y+", " STA $A001", " RTI",
+            " ORG $FFF8", " FDB HANDLER",
+            " ORG $FFFE", " FDB START");
+
+    public void testProgramsMatchInterpreter() {
+        for (String source : PROGRAMS) {
+            Cpu6809 interpreted = load(source, false);
+            Cpu6809 translated = load(source, true);
+            runToSync(interpreted);
+            runToSync(translated);
+            check(translated.getTranslator().getCompiledCount() > 0, "nothing was translated");
+            same(interpreted, translated, "program ending at " + state(interpreted));
+        }
+    }
+
+    public void testBreakpointsStopTranslation() {
+        Cpu6809 cpu = load(PROGRAMS[0], true);
+        cpu.runCycles(100_000);
+        check(cpu.getTranslator().getCompiledCount() > 0, "nothing was translated");
+        cpu.getBreakpoints().set(Breakpoints.WRITE, 0x7FFF, null); // Written by PSHS D in the loop
+        cpu.takeWatchHit();
+        for (int i = 0; i < 1000 && cpu.takeWatchHit() < 0; i++) {
+            cpu.runCycles(1);
+        }
+        // Stopped right after the PSHS D that hit, as the interpreter does
+        int address = cpu.getInstructionAddress();
+        check(cpu.getBus().peek8(address) == 0x34 && cpu.getPc() == address + 2,
+                String.format("a write watchpoint hit at %04X left PC at %04X", address, cpu.getPc()));
+    }
+
+    public void testBudgetsMatchInterpreterWithStacking() {
+        Cpu6809 interpreted = load(STACKING, false);
+        Cpu6809 translated = load(STACKING, true);
+        for (int i = 0; i < 20_000; i++) {
+            int budget = 1 + i % 97;
+            interpreted.runCycles(budget);
+            translated.runCycles(budget);
+            check(state(interpreted).equals(state(translated)),
+                    "run " + i + " of " + budget + " cycles: " + state(interpreted) + " vs " + state(translated));
+        }
+        same(interpreted, translated, "stacking loop");
+    }
+
+    public void testDeviceReadsMatchInterpreter() {
+        for (boolean firq : new boolean[] {false, true}) {
+            Cpu6809 interpreted = load(timerLoop(firq), false);
+            Cpu6809 translated = load(timerLoop(firq), true);
+            for (Cpu6809 cpu : new Cpu6809[] {interpreted, translated}) {
+                new StandardIo((Memory) cpu.getBus(), cpu, null, new ByteArrayOutputStream());
+                cpu.reset();
+                for (int i = 0; i < 200; i++) {
+                    cpu.runCycles(10_007);
+                }
+            }
+            check(translated.getTranslator().getCompiledCount() > 0, "nothing was translated");
+            same(interpreted, translated, "timer loop" + (firq ? " with FIRQ" : ""));
+        }
+    }
+
+    public void testUnmaskedInterruptTakenOnNextInstruction() {
+        Cpu6809 interpreted = load(UNMASK, false);
+        Cpu6809 translated = load(UNMASK, true);
+        for (Cpu6809 cpu : new Cpu6809[] {interpreted, translated}) {
+            boolean[] requested = new boolean[1];
+            int[] writes = new int[1];
+            ((Memory) cpu.getBus()).attach(new Device() {
+                @Override
+                public int read(int register) {
+                    return 0;
+                }
+
+                @Override
+                public void write(int register, int value) {
+                    requested[0] = register == 0 ? ++writes[0] % 3 == 0 : false; // Raised by every third write
+                    cpu.requestInterruptCheck();
+                }
+
+                @Override
+                public int peek(int register) {
+                    return 0;
+                }
+            }, 0xA000, 2);
+            cpu.addInterruptSource(Cpu6809.IRQ, () -> requested[0]);
+            cpu.reset();
+            for (int i = 0; i < 100; i++) {
+                cpu.runCycles(10_007);
+            }
+        }
+        check(interpreted.getBus().peek8(0x2000) == 0, "the handler did not see A before INCA");
+        check(translated.getTranslator().getCompiledCount() > 0, "nothing was translated");
+        same(interpreted, translated, "unmasking loop");
+    }
+
+    private static Cpu6809 load(String source, boolean translate) {
+        Assembly assembly = new Assembler6809(0x1000).assemble(source);
+        check(!assembly.hasErrors(), assembly.getErrors().toString());
+        Memory memory = new Memory();
+        Cpu6809 cpu = new Cpu6809(memory);
+        assembly.loadInto(memory);
+        cpu.setPc(0x1000);
+        cpu.setS(0x7F00);
+        if (translate) {
+            cpu.setTranslator(new BlockTranslator(cpu, memory));
+        }
+        return cpu;
+    }
+
+    private static void runToSync(Cpu6809 cpu) {
+        for (int i = 0; i < 1000 && cpu.getWaitState() == Cpu6809.RUNNING; i++) {
+            cpu.runCycles(1 << 20);
+        }
+        check(cpu.getWaitState() != Cpu6809.RUNNING, "program did not end");
+    }
+
+    private static String state(Cpu6809 cpu) {
+        return String.format("PC=%04X D=%04X X=%04X Y=%04X U=%04X S=%04X DP=%02X CC=%02X cycles=%d count=%d",
+                cpu.getPc(), cpu.getD(), cpu.getX(), cpu.getY(), cpu.getU(), cpu.getS(), cpu.getDp(), cpu.getCc(),
+                cpu.getCycles(), cpu.getInstructionCount());
+    }
+
+    /* Checks that two CPUs ended in the same state with the same memory */
+    private static void same(Cpu6809 expected, Cpu6809 actual, String what) {
+        check(state(expected).equals(state(actual)), what + ": " + state(expected) + " vs " + state(actual));
+        for (int address = 0; address < Memory.SIZE; address++) {
+            int wanted = expected.getBus().peek8(address);
+            int got = actual.getBus().peek8(address);
+            if (wanted != got) {
+                throw new AssertionError(String.format("%s: %04X holds %02X, not %02X", what, address, got, wanted));
+            }
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+}